@@ -0,0 +1,128 @@
+package io.pivotal.rsocketbenchmarks.codec;
+
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.codec.MessageDecoder;
+import io.pivotal.rsocketserver.codec.MessageEncoder;
+import io.pivotal.rsocketserver.data.Message;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the default JSON codec and the binary {@link MessageCodec}: encode
+ * and decode alone, and one relay hop on the server, decode and encode again.
+ * <p>
+ * Run from the IDE through {@link #main}, or from target/benchmarks.jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    private static final ResolvableType TYPE = ResolvableType.forClass(Message.class);
+    private static final MimeType JSON = MimeTypeUtils.APPLICATION_JSON;
+
+    @Param({"16", "1024", "65536"})
+    int contentLength;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private final Jackson2JsonEncoder jsonEncoder = new Jackson2JsonEncoder();
+    private final Jackson2JsonDecoder jsonDecoder = new Jackson2JsonDecoder();
+    private final MessageEncoder binaryEncoder = new MessageEncoder();
+    private final MessageDecoder binaryDecoder = new MessageDecoder();
+
+    private Message message;
+    private DataBuffer jsonPayload;
+    private DataBuffer binaryPayload;
+
+    @Setup
+    public void setup() {
+        StringBuilder content = new StringBuilder(contentLength);
+        for (int i = 0; i < contentLength; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+        message = new Message("Client1", "Client2", content.toString());
+        jsonPayload = jsonEncoder.encodeValue(message, bufferFactory, TYPE, JSON, Collections.emptyMap());
+        binaryPayload = binaryEncoder.encodeValue(message, bufferFactory, TYPE, MessageCodec.MIME_TYPE, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public Message jsonDecode() {
+        DataBuffer in = DataBufferUtils.retain(jsonPayload.slice(0, jsonPayload.readableByteCount()));
+        return (Message) jsonDecoder.decode(in, TYPE, JSON, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public Message binaryDecode() {
+        DataBuffer in = DataBufferUtils.retain(binaryPayload.slice(0, binaryPayload.readableByteCount()));
+        return binaryDecoder.decode(in, TYPE, MessageCodec.MIME_TYPE, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public int jsonEncode() {
+        DataBuffer out = jsonEncoder.encodeValue(message, bufferFactory, TYPE, JSON, Collections.emptyMap());
+        int size = out.readableByteCount();
+        DataBufferUtils.release(out);
+        return size;
+    }
+
+    @Benchmark
+    public int binaryEncode() {
+        DataBuffer out = binaryEncoder.encodeValue(message, bufferFactory, TYPE, MessageCodec.MIME_TYPE, Collections.emptyMap());
+        int size = out.readableByteCount();
+        DataBufferUtils.release(out);
+        return size;
+    }
+
+    @Benchmark
+    public int jsonRelay() {
+        DataBuffer in = DataBufferUtils.retain(jsonPayload.slice(0, jsonPayload.readableByteCount()));
+        Message decoded = (Message) jsonDecoder.decode(in, TYPE, JSON, Collections.emptyMap());
+        DataBuffer out = jsonEncoder.encodeValue(decoded, bufferFactory, TYPE, JSON, Collections.emptyMap());
+        int size = out.readableByteCount();
+        DataBufferUtils.release(out);
+        return size;
+    }
+
+    @Benchmark
+    public int binaryRelay() {
+        DataBuffer in = DataBufferUtils.retain(binaryPayload.slice(0, binaryPayload.readableByteCount()));
+        Message decoded = binaryDecoder.decode(in, TYPE, MessageCodec.MIME_TYPE, Collections.emptyMap());
+        DataBuffer out = binaryEncoder.encodeValue(decoded, bufferFactory, TYPE, MessageCodec.MIME_TYPE, Collections.emptyMap());
+        int size = out.readableByteCount();
+        DataBufferUtils.release(out);
+        return size;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MessageCodecBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,91 @@
+package io.pivotal.rsocketbenchmarks.registry;
+
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.rsocket.RSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link ClientRegistry} under contention: relay threads looking receivers
+ * up while clients connect and disconnect. One shard stands in for the single
+ * map the registry replaced.
+ * <p>
+ * Run from the IDE through {@link #main}, or from target/benchmarks.jar.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientRegistryBenchmark {
+
+    private static final MimeType COMPOSITE_METADATA = MimeTypeUtils.parseMimeType("message/x.rsocket.composite-metadata.v0");
+
+    @Param({"1", "16"})
+    int shards;
+
+    @Param({"1000", "100000"})
+    int clients;
+
+    private ClientRegistry registry;
+    private String[] names;
+    private RSocketRequester[] requesters;
+
+    @Setup
+    public void setup() {
+        registry = new ClientRegistry(shards);
+        names = new String[clients];
+        requesters = new RSocketRequester[clients];
+        RSocketStrategies strategies = RSocketStrategies.create();
+        for (int i = 0; i < clients; i++) {
+            names[i] = "Client" + i;
+            requesters[i] = RSocketRequester.wrap(new RSocket() { }, MimeTypeUtils.APPLICATION_JSON, COMPOSITE_METADATA, strategies);
+            registry.register(names[i], requesters[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(6)
+    public RSocketRequester lookup() {
+        return registry.lookup(names[ThreadLocalRandom.current().nextInt(clients)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(2)
+    public boolean reconnect() {
+        int i = ThreadLocalRandom.current().nextInt(clients);
+        boolean evicted = registry.evict(names[i], requesters[i]);
+        registry.register(names[i], requesters[i]);
+        return evicted;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ClientRegistryBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
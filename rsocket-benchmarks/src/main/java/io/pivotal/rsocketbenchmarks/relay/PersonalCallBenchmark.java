@@ -0,0 +1,191 @@
+package io.pivotal.rsocketbenchmarks.relay;
+
+import io.pivotal.rsocketserver.RsocketServerApplication;
+import io.pivotal.rsocketserver.codec.MessageDecoder;
+import io.pivotal.rsocketserver.codec.MessageEncoder;
+import io.pivotal.rsocketserver.data.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One message from a sender through the server's "personal.call" route to a
+ * receiver and its reply back, with the server started in this JVM and both
+ * clients connected over a local TCP or WebSocket transport. The server listens
+ * on both at once, as it does in production, so the two transports are compared
+ * against the same relay.
+ * <p>
+ * Every operation is one round trip over a channel kept open for the trial.
+ * Throughput mode gives round trips per second, sample time mode the latency
+ * percentiles (p0.50, p0.99, p0.999).
+ * <p>
+ * Run from the IDE through {@link #main}, or from target/benchmarks.jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonalCallBenchmark {
+
+    private static final String SENDER = "bench-sender";
+    private static final String RECEIVER = "bench-receiver";
+
+    @Param({"tcp", "websocket"})
+    String transport;
+
+    @Param({"application/json", "application/x.rsocket-message"})
+    String dataMimeType;
+
+    @Param({"16", "1024"})
+    int contentLength;
+
+    private ConfigurableApplicationContext server;
+    private RSocketRequester sender;
+    private RSocketRequester receiver;
+    private Sinks.Many<Message> outbound;
+    private final BlockingQueue<Message> replies = new LinkedBlockingQueue<>();
+    private Disposable channel;
+    private String content;
+
+    @Setup
+    public void setup() throws Exception {
+        int websocketPort = freePort();
+        int tcpPort = freePort();
+        server = new SpringApplicationBuilder(RsocketServerApplication.class)
+                .run("--spring.rsocket.server.port=" + websocketPort,
+                        "--rsocket.tcp.port=" + tcpPort,
+                        "--server.port=0",
+                        "--rsocket.offline.enabled=false",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+
+        RSocketStrategies strategies = RSocketStrategies.builder()
+                .encoders(encoders -> {
+                    encoders.add(new MessageEncoder());
+                    encoders.add(new Jackson2JsonEncoder());
+                })
+                .decoders(decoders -> {
+                    decoders.add(new MessageDecoder());
+                    decoders.add(new Jackson2JsonDecoder());
+                })
+                .build();
+        MimeType mimeType = MimeTypeUtils.parseMimeType(dataMimeType);
+        int port = "websocket".equals(transport) ? websocketPort : tcpPort;
+        receiver = connect(RECEIVER, port, mimeType, strategies);
+        sender = connect(SENDER, port, mimeType, strategies);
+
+        content = "x".repeat(contentLength);
+        outbound = Sinks.many().unicast().onBackpressureBuffer();
+        channel = sender.route("personal.call")
+                .data(outbound.asFlux(), Message.class)
+                .retrieveFlux(Message.class)
+                .subscribe(replies::add);
+        // the first round trip opens the channel to the receiver
+        personalCall();
+    }
+
+    @TearDown
+    public void tearDown() {
+        outbound.tryEmitComplete();
+        channel.dispose();
+        sender.dispose();
+        receiver.dispose();
+        server.close();
+    }
+
+    @Benchmark
+    public Message personalCall() throws InterruptedException {
+        outbound.tryEmitNext(new Message(SENDER, RECEIVER, content));
+        Message reply = replies.poll(5, TimeUnit.SECONDS);
+        if (reply == null) {
+            throw new IllegalStateException("No reply from " + RECEIVER + " within 5 seconds");
+        }
+        return reply;
+    }
+
+    private RSocketRequester connect(String client, int port, MimeType mimeType, RSocketStrategies strategies) {
+        RSocketRequester.Builder builder = RSocketRequester.builder()
+                .setupRoute("connect")
+                .setupData(client)
+                .dataMimeType(mimeType)
+                .rsocketStrategies(strategies)
+                .rsocketConnector(connector -> connector.acceptor(
+                        RSocketMessageHandler.responder(strategies, new Client(client))));
+        RSocketRequester requester = "websocket".equals(transport)
+                ? builder.websocket(URI.create("ws://localhost:" + port + "/rsocket"))
+                : builder.tcp("localhost", port);
+        requester.rsocketClient().source().block();
+        return requester;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Answers every message like the shell clients do, and takes the telemetry
+     * commands of the server without sending samples.
+     */
+    public static class Client {
+
+        private final String id;
+
+        Client(String id) {
+            this.id = id;
+        }
+
+        @MessageMapping("call")
+        public Flux<Message> call(@Payload Flux<Message> messages) {
+            return messages.map(message -> new Message(id, message.getSender(), message.getContent()));
+        }
+
+        @MessageMapping("client-telemetry")
+        public Flux<ByteBuffer> telemetry(@Payload Flux<ByteBuffer> commands) {
+            return commands.thenMany(Flux.empty());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PersonalCallBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
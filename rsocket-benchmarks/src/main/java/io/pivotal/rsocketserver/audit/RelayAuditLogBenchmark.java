@@ -0,0 +1,91 @@
+package io.pivotal.rsocketserver.audit;
+
+import io.pivotal.rsocketserver.data.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares what a relay thread pays per message for the old
+ * {@code System.out.println} of the concatenated message against a
+ * {@link RelayAuditLog} record, with several relay threads at once.
+ * <p>
+ * The print stream writes to nowhere, so only its lock and the string building
+ * are measured. The audit log is drained by its own thread into nowhere as well.
+ * Threads that do nothing but log outrun the single drainer, so most audit
+ * records end up dropped on a full ring; the tear down prints how many.
+ * It lives in the audit package to drain the log without a logger behind it.
+ * Run from the IDE through {@link #main}, or from target/benchmarks.jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RelayAuditLogBenchmark {
+
+    private final Message message = new Message("Client1", "Client2", "Hello from Client1");
+    private final PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+
+    private RelayAuditLog audit;
+    private volatile boolean draining;
+    private Thread drainer;
+
+    @Setup
+    public void setup() {
+        audit = new RelayAuditLog(true, 65536, 1, 0, Duration.ofMillis(1));
+        draining = true;
+        drainer = new Thread(() -> {
+            while (draining) {
+                audit.drain((timestamp, route, sender, receiver) -> { });
+            }
+        });
+        drainer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        draining = false;
+        drainer.join();
+        System.out.println("\nRecorded " + audit.getRecorded() + ", lost to a full ring " + audit.getOverflow());
+    }
+
+    @Benchmark
+    public void printStream() {
+        out.println(
+                "Sender : " + message.getSender() +
+                        "\nReceiver : " + message.getReceiver() +
+                        "\nContent : " + message.getContent()
+        );
+    }
+
+    @Benchmark
+    public boolean auditLog() {
+        return audit.record(AuditRoute.PERSONAL_CALL, message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RelayAuditLogBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,65 @@
+package io.pivotal.rsocketclient.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+
+/**
+ * One telemetry record for the server.
+ * Layout: [long timestamp][long heapUsed][long heapMax][short cpuPermille][int queueDepth][long echo]
+ */
+@Data
+@AllArgsConstructor
+public class TelemetrySample {
+
+    public static final int SIZE = Long.BYTES * 3 + Short.BYTES + Integer.BYTES + Long.BYTES;
+
+    private long timestamp;
+    private long heapUsed;
+    private long heapMax;
+    private short cpuPermille;
+    private int queueDepth;
+    private long echo;
+
+    /**
+     * @param echo       the probe of the last command from the server
+     * @param queueDepth the number of inbound streams being handled
+     */
+    public static TelemetrySample now(long echo, int queueDepth) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return new TelemetrySample(System.currentTimeMillis(), heap.getUsed(), heap.getMax(), cpuPermille(), queueDepth, echo);
+    }
+
+    public static TelemetrySample from(ByteBuffer buffer) {
+        return new TelemetrySample(buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                buffer.getShort(), buffer.getInt(), buffer.getLong());
+    }
+
+    /**
+     * A command as the server sends it: [int intervalMillis][long probe].
+     */
+    public static ByteBuffer command(int intervalMillis, long probe) {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Long.BYTES);
+        buffer.putInt(intervalMillis).putLong(probe);
+        return buffer.flip();
+    }
+
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putLong(timestamp).putLong(heapUsed).putLong(heapMax).putShort(cpuPermille).putInt(queueDepth).putLong(echo);
+        return buffer.flip();
+    }
+
+    private static short cpuPermille() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            return load < 0 ? -1 : (short) Math.round(load * 1000);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,223 @@
+package io.pivotal.rsocketclient.load;
+
+import io.pivotal.rsocketclient.codec.MessageCodec;
+import io.pivotal.rsocketclient.data.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Headless load mode, active with the "load" profile.
+ * <p>
+ * Connects {@code rsocket.load.clients} virtual clients with their own IDs the
+ * way the shell client logs in, then lets every one of them open a
+ * "personal.call" channel and send {@code rate-per-client} messages a second to
+ * random other virtual clients. Each message carries its send time, so the
+ * reply coming back on the channel gives the round trip through the server.
+ * <p>
+ * Connection setup time and round trip latency are recorded in HdrHistograms,
+ * reported every {@code report-interval} and summed up at the end. Latencies of
+ * the first {@code warmup}, while the JIT and the relay channels settle, are
+ * reported but left out of the sum.
+ */
+@Slf4j
+@Component
+@Profile("load")
+public class LoadGenerator implements ApplicationRunner {
+
+    private final ObjectProvider<RSocketRequester.Builder> builders;
+    private final RSocketStrategies strategies;
+    private final URI uri;
+    private final int clients;
+    private final double ratePerClient;
+    private final Duration duration;
+    private final Duration warmup;
+    private final int connectConcurrency;
+    private final Duration reportInterval;
+    private final String idPrefix;
+
+    private final Histogram connectTimes = new ConcurrentHistogram(3);
+    private final Recorder latency = new Recorder(3);
+    private final Histogram totalLatency = new Histogram(3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder connectErrors = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private Histogram intervalLatency;
+    private volatile boolean measuring;
+
+    public LoadGenerator(ObjectProvider<RSocketRequester.Builder> builders,
+                         @Qualifier("rSocketStrategies") RSocketStrategies strategies,
+                         @Value("${rsocket.load.uri:ws://localhost:7077/rsocket}") URI uri,
+                         @Value("${rsocket.load.clients:100}") int clients,
+                         @Value("${rsocket.load.rate-per-client:10}") double ratePerClient,
+                         @Value("${rsocket.load.duration:60s}") Duration duration,
+                         @Value("${rsocket.load.warmup:10s}") Duration warmup,
+                         @Value("${rsocket.load.connect-concurrency:32}") int connectConcurrency,
+                         @Value("${rsocket.load.report-interval:5s}") Duration reportInterval,
+                         @Value("${rsocket.load.id-prefix:load-}") String idPrefix) {
+        this.builders = builders;
+        this.strategies = strategies;
+        this.uri = uri;
+        this.clients = clients;
+        this.ratePerClient = ratePerClient;
+        this.duration = duration;
+        this.warmup = warmup;
+        this.measuring = warmup.isZero();
+        this.connectConcurrency = connectConcurrency;
+        this.reportInterval = reportInterval;
+        this.idPrefix = idPrefix;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("Connecting {} virtual clients to {}...", clients, uri);
+        long start = System.nanoTime();
+        Map<String, RSocketRequester> connected = Flux.fromStream(IntStream.range(0, clients).mapToObj(i -> idPrefix + i))
+            .flatMap(id -> connect(id).map(requester -> Map.entry(id, requester)), connectConcurrency)
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+            .block();
+        log.info("Connected {} of {} clients in {} ms, {} failed. Setup time us: {}",
+            connected.size(), clients, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            connectErrors.sum(), percentiles(connectTimes));
+        if (connected.size() < 2) {
+            log.warn("Not enough clients to send messages between.");
+            connected.values().forEach(RSocketRequester::dispose);
+            return;
+        }
+
+        String[] ids = connected.keySet().toArray(new String[0]);
+        List<Disposable> channels = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            channels.add(drive(id, connected.get(id), ids));
+        }
+        Disposable reporter = Flux.interval(reportInterval, reportInterval)
+            .subscribe(tick -> report("Interval"));
+        Disposable warmupEnd = Mono.delay(warmup)
+            .subscribe(tick -> endWarmup());
+
+        Mono.delay(duration).block();
+
+        channels.forEach(Disposable::dispose);
+        reporter.dispose();
+        warmupEnd.dispose();
+        report("Interval");
+        log.info("Done. sent={} received={} skipped={} errors={} | latency us after warmup: {}",
+            sent.sum(), received.sum(), skipped.sum(), errors.sum(), percentiles(totalLatency));
+        connected.values().forEach(RSocketRequester::dispose);
+    }
+
+    private Mono<RSocketRequester> connect(String id) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            RSocketRequester.Builder builder = builders.getObject()
+                .setupRoute("connect")
+                .setupData(id)
+                .dataMimeType(MessageCodec.MIME_TYPE)
+                .rsocketConnector(connector -> connector.acceptor(
+                    RSocketMessageHandler.responder(strategies, new VirtualClientHandler(id))));
+            RSocketRequester requester = "tcp".equals(uri.getScheme())
+                ? builder.tcp(uri.getHost(), uri.getPort())
+                : builder.websocket(uri);
+            return requester.rsocketClient()
+                .source()
+                .doOnSuccess(rsocket -> connectTimes.recordValue(micros(System.nanoTime() - start)))
+                .thenReturn(requester)
+                .onErrorResume(error -> {
+                    connectErrors.increment();
+                    log.warn("Client {} failed to connect: {}", id, error.toString());
+                    return Mono.empty();
+                });
+        });
+    }
+
+    private Disposable drive(String id, RSocketRequester requester, String[] ids) {
+        Duration period = Duration.ofNanos((long) (TimeUnit.SECONDS.toNanos(1) / ratePerClient));
+        //start the clients at random points of the period, so they do not send in bursts.
+        Duration delay = Duration.ofNanos(ThreadLocalRandom.current().nextLong(period.toNanos()));
+        Flux<Message> messages = Flux.interval(delay, period)
+            //a tick the channel has no demand for is not sent.
+            .onBackpressureDrop(tick -> skipped.increment())
+            .map(tick -> new Message(id, peerOf(id, ids), Long.toString(System.nanoTime())))
+            .doOnNext(message -> sent.increment());
+        return requester
+            .route("personal.call")
+            .data(messages)
+            .retrieveFlux(Message.class)
+            .subscribe(this::record, error -> {
+                errors.increment();
+                log.warn("Channel of {} failed: {}", id, error.toString());
+            });
+    }
+
+    private void record(Message reply) {
+        try {
+            latency.recordValue(micros(System.nanoTime() - Long.parseLong(reply.getContent())));
+            received.increment();
+        } catch (NumberFormatException e) {
+            errors.increment();
+        }
+    }
+
+    private synchronized void endWarmup() {
+        report("Warmup");
+        measuring = true;
+    }
+
+    private synchronized void report(String label) {
+        intervalLatency = latency.getIntervalHistogram(intervalLatency);
+        if (measuring) {
+            totalLatency.add(intervalLatency);
+        }
+        log.info("{}: sent={} received={} skipped={} errors={} | latency us: {}",
+            label, sent.sum(), received.sum(), skipped.sum(), errors.sum(), percentiles(intervalLatency));
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "no samples";
+        }
+        return "p50=" + histogram.getValueAtPercentile(50) +
+            " p99=" + histogram.getValueAtPercentile(99) +
+            " p999=" + histogram.getValueAtPercentile(99.9) +
+            " max=" + histogram.getMaxValue() +
+            " n=" + histogram.getTotalCount();
+    }
+
+    private static String peerOf(String id, String[] ids) {
+        String peer;
+        do {
+            peer = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        } while (peer.equals(id));
+        return peer;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,41 @@
+package io.pivotal.rsocketclient.load;
+
+import io.pivotal.rsocketclient.data.Message;
+import io.pivotal.rsocketclient.data.TelemetrySample;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+/**
+ * Responder of one virtual client. Answers every message like the shell client
+ * does, but keeps the content, which carries the send time, and prints nothing.
+ */
+class VirtualClientHandler {
+
+    private final String id;
+
+    VirtualClientHandler(String id) {
+        this.id = id;
+    }
+
+    @MessageMapping("call")
+    public Flux<Message> channel(@Payload Flux<Message> messageFlux) {
+        return messageFlux.map(message -> new Message(id, message.getSender(), message.getContent()));
+    }
+
+    @MessageMapping("client-telemetry")
+    public Flux<ByteBuffer> telemetry(@Payload Flux<ByteBuffer> commands) {
+        return commands
+            .switchMap(command -> {
+                int interval = command.getInt();
+                long probe = command.getLong();
+                return Flux.interval(Duration.ZERO, Duration.ofMillis(interval))
+                    .onBackpressureDrop()
+                    .map(tick -> TelemetrySample.now(probe, 0).toByteBuffer());
+            })
+        ;
+    }
+}
@@ -0,0 +1,61 @@
+package io.pivotal.rsocketclient.transport;
+
+import io.netty.channel.ChannelOption;
+import io.rsocket.DuplexConnection;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.client.WebsocketClientTransport;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.netty.tcp.TcpClient;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Connects over plain TCP when the server's TCP port is reachable and falls back
+ * to WebSocket when it is not, e.g. behind a proxy that only lets HTTP through.
+ * The choice is made on every connect, so a reconnect picks TCP again as soon as
+ * it becomes reachable.
+ */
+@Slf4j
+public class FallbackClientTransport implements ClientTransport {
+
+    private final URI tcpUri;
+    private final URI websocketUri;
+    private final ClientTransport tcp;
+    private final ClientTransport websocket;
+
+    /**
+     * @param tcpUri            the TCP endpoint to try first, or null to always use WebSocket
+     * @param websocketUri      the WebSocket endpoint to fall back to
+     * @param tcpConnectTimeout how long to wait for the TCP connection before falling back
+     */
+    public FallbackClientTransport(URI tcpUri, URI websocketUri, Duration tcpConnectTimeout) {
+        this.tcpUri = tcpUri;
+        this.websocketUri = websocketUri;
+        this.tcp = tcpUri == null ? null : TcpClientTransport.create(TcpClient.create()
+                .host(tcpUri.getHost())
+                .port(tcpUri.getPort())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) tcpConnectTimeout.toMillis()));
+        this.websocket = WebsocketClientTransport.create(websocketUri);
+    }
+
+    @Override
+    public Mono<DuplexConnection> connect() {
+        if (tcp == null) {
+            return connectWebsocket();
+        }
+        return tcp.connect()
+                .doOnNext(connection -> log.info("Connected over TCP to {}", tcpUri))
+                .onErrorResume(error -> {
+                    log.info("TCP endpoint {} not reachable ({}), falling back to WebSocket", tcpUri, error.toString());
+                    return connectWebsocket();
+                });
+    }
+
+    private Mono<DuplexConnection> connectWebsocket() {
+        return websocket.connect()
+                .doOnNext(connection -> log.info("Connected over WebSocket to {}", websocketUri));
+    }
+}
@@ -1,46 +1,82 @@
 package com.example.rsocketclient2;
 
 import com.example.rsocketclient2.data.Client;
+import com.example.rsocketclient2.data.MediaFrame;
+import com.example.rsocketclient2.data.TelemetrySample;
 import com.example.rsocketclient2.data.Message;
+import com.example.rsocketclient2.data.MessageBatch;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import reactor.core.publisher.Flux;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class ClientHandler {
 	
-	@MessageMapping("client-status")
-	public Flux<String> statusUpdate(String status) {
-		log.info("Connection {}", status);
-		return Flux
-				.interval(Duration.ofSeconds(5))
-				.map(index ->
-					String.valueOf(
-						Runtime.getRuntime().freeMemory()
-					)
-				)
+	// frames asked of the server at a time on the media route
+	private static final int MEDIA_WINDOW = 64;
+	
+	// inbound streams being handled, reported as the queue depth
+	private final AtomicInteger activeStreams = new AtomicInteger();
+	
+	@MessageMapping("client-telemetry")
+	public Flux<ByteBuffer> telemetry(@Payload Flux<ByteBuffer> commands) {
+		log.info("Connection OPEN");
+		//every command from the server sets the interval and is answered at once.
+		return commands
+				.switchMap(command -> {
+					int interval = command.getInt();
+					long probe = command.getLong();
+					return Flux
+							.interval(Duration.ZERO, Duration.ofMillis(interval))
+							.onBackpressureDrop()
+							.map(tick -> TelemetrySample.now(probe, activeStreams.get()).toByteBuffer());
+				})
 		;
 	}
 	
 	@MessageMapping("call")
 	public Flux<Message> channel(@Payload Flux<Message> messageFlux){
 		return messageFlux
-				.doOnNext(message ->
-					System.out.println(
-						"Sender : " + message.getSender() +
-						"\nReceiver : " + message.getReceiver() +
-						"\nContent : " + message.getContent()
-					)
-				)
+				//logged with placeholders, so nothing is concatenated when the level is off.
+				.doOnNext(message -> log.info("Sender : {} Receiver : {} Content : {}",
+						message.getSender(), message.getReceiver(), message.getContent()))
 				.switchMap(message -> {
 					message.setContent("Hello from " + Client.CLIENT_ID);
 					message.setSender(Client.CLIENT_ID);
 					message.setReceiver(message.getSender());
 					return Flux.just(message);
 				})
+				.doOnSubscribe(subscription -> activeStreams.incrementAndGet())
+				.doFinally(signal -> activeStreams.decrementAndGet())
+		;
+	}
+	
+	@MessageMapping("call.batch")
+	public Flux<Message> batchChannel(@Payload Flux<MessageBatch> batches) {
+		return channel(batches.concatMapIterable(MessageBatch::getMessages));
+	}
+	
+	@MessageMapping("media")
+	public Flux<ByteBuffer> media(@Payload Flux<ByteBuffer> frames) {
+		AtomicInteger expected = new AtomicInteger();
+		return frames
+				.limitRate(MEDIA_WINDOW)
+				.map(MediaFrame::from)
+				.doOnNext(frame -> {
+					if (frame.getSequence() != expected.getAndSet(frame.getSequence() + 1)) {
+						log.warn("Media frame {} out of sequence.", frame.getSequence());
+					}
+				})
+				.count()
+				.doOnNext(count -> log.info("Media stream received : {} frames", count))
+				.thenMany(Flux.<ByteBuffer>empty())
+				.doOnSubscribe(subscription -> activeStreams.incrementAndGet())
+				.doFinally(signal -> activeStreams.decrementAndGet())
 		;
 	}
 }
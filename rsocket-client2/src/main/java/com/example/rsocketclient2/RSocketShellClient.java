@@ -1,19 +1,47 @@
 package com.example.rsocketclient2;
 
+import com.example.rsocketclient2.batching.MessageBatcher;
+import com.example.rsocketclient2.codec.MessageCodec;
 import com.example.rsocketclient2.data.Client;
+import com.example.rsocketclient2.data.FileChunk;
+import com.example.rsocketclient2.data.MediaFrame;
 import com.example.rsocketclient2.data.Message;
+import com.example.rsocketclient2.data.MessageBatch;
+import com.example.rsocketclient2.data.Priority;
+import com.example.rsocketclient2.transport.FallbackClientTransport;
+import com.example.rsocketclient2.transport.ReconnectBackoff;
+import com.example.rsocketclient2.transport.ReconnectStats;
+import io.rsocket.RSocket;
 import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketClient;
+import io.rsocket.core.Resume;
+import io.rsocket.transport.ClientTransport;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.time.Duration;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Slf4j
@@ -23,30 +51,112 @@ public class RSocketShellClient {
     private RSocketRequester rsocketRequester;
     private RSocketRequester.Builder rsocketRequesterBuilder;
     private RSocketStrategies rsocketStrategies;
+    private int fragmentMtu;
+    private ClientTransport transport;
+    private MessageBatcher batcher;
+    private SocketAcceptor responder;
+    private ReconnectBackoff backoff;
+    private Duration resumeSessionDuration;
+    private Duration keepAliveInterval;
+    private Duration keepAliveMaxLifetime;
+    private final ReconnectStats reconnectStats = new ReconnectStats();
+    private Disposable connection;
+    private Path downloadDirectory;
 
     @Autowired
     public RSocketShellClient(RSocketRequester.Builder builder,
-                              @Qualifier("rSocketStrategies") RSocketStrategies strategies) {
+                              @Qualifier("rSocketStrategies") RSocketStrategies strategies,
+                              @Value("${rsocket.fragment-mtu:0}") int fragmentMtu,
+                              @Value("${rsocket.tcp-uri:}") URI tcpUri,
+                              @Value("${rsocket.websocket-uri:ws://localhost:7077/rsocket}") URI websocketUri,
+                              @Value("${rsocket.tcp-connect-timeout:1s}") Duration tcpConnectTimeout,
+                              @Value("${rsocket.keepalive.interval:20s}") Duration keepAliveInterval,
+                              @Value("${rsocket.keepalive.max-lifetime:90s}") Duration keepAliveMaxLifetime,
+                              @Value("${rsocket.reconnect.base:500ms}") Duration reconnectBase,
+                              @Value("${rsocket.reconnect.max:30s}") Duration reconnectMax,
+                              @Value("${rsocket.resume.enabled:false}") boolean resumeEnabled,
+                              @Value("${rsocket.resume.session-duration:120s}") Duration resumeSessionDuration,
+                              @Value("${rsocket.batch.enabled:false}") boolean batchEnabled,
+                              @Value("${rsocket.batch.max-size:64}") int batchMaxSize,
+                              @Value("${rsocket.batch.max-delay:2ms}") Duration batchMaxDelay,
+                              @Value("${rsocket.download-directory:${java.io.tmpdir}/rsocket-downloads}") String downloadDirectory) {
         this.rsocketRequesterBuilder = builder;
         this.rsocketStrategies = strategies;
+        this.fragmentMtu = fragmentMtu;
+        this.transport = new FallbackClientTransport(tcpUri, websocketUri, tcpConnectTimeout);
+        this.keepAliveInterval = keepAliveInterval;
+        this.keepAliveMaxLifetime = keepAliveMaxLifetime;
+        this.backoff = new ReconnectBackoff(reconnectBase, reconnectMax);
+        this.resumeSessionDuration = resumeEnabled ? resumeSessionDuration : null;
+        this.downloadDirectory = Paths.get(downloadDirectory);
+        if (batchEnabled) {
+            this.batcher = new MessageBatcher(batchMaxSize, batchMaxDelay);
+            // tells the server it may pack messages for us on "call.batch"
+            this.rsocketRequesterBuilder.setupMetadata(MessageCodec.CAPABILITY_BATCH, MessageCodec.CAPABILITIES_MIME_TYPE);
+        }
     }
 
     @ShellMethod("Login with your username and password.")
     public void login() {
         log.info("Connecting using client ID: {}", Client.CLIENT_ID);
-        SocketAcceptor responder = RSocketMessageHandler.responder(rsocketStrategies, new ClientHandler());
-        this.rsocketRequester = rsocketRequesterBuilder
-                .setupRoute("connect")
-                .setupData(Client.CLIENT_ID)
-                .rsocketConnector(connector -> connector.acceptor(responder))
-                .websocket(URI.create("ws://localhost:7077/rsocket"));
-        ;
+        if (this.rsocketRequester == null || this.rsocketRequester.rsocketClient().isDisposed()) {
+            // set up once, every reconnect reuses the strategies, the responder and the setup frame
+            this.rsocketRequester = rsocketRequesterBuilder
+                    .setupRoute("connect")
+                    .setupData(Client.CLIENT_ID)
+                    .dataMimeType(MessageCodec.MIME_TYPE)
+                    .rsocketConnector(connector -> {
+                        connector.acceptor(responder());
+                        connector.reconnect(backoff);
+                        // a dead connection is noticed within the lifetime, on both sides
+                        connector.keepAlive(keepAliveInterval, keepAliveMaxLifetime);
+                        if (fragmentMtu > 0) {
+                            connector.fragment(fragmentMtu);
+                        }
+                        if (resumeSessionDuration != null) {
+                            // pairs with the server's "resumption" profile
+                            connector.resume(new Resume().sessionDuration(resumeSessionDuration).retry(backoff));
+                        }
+                    })
+                    .transport(transport);
+        }
+        keepConnected(this.rsocketRequester.rsocketClient());
+    }
 
-        this.rsocketRequester.rsocketClient().source()
-                .doOnSuccess(success -> System.out.println("Client Connected."))
-                .doOnCancel(() -> System.out.println("Client Disconnected."))
-                .subscribe()
-        ;
+    /**
+     * Holds a connection until logout. A lost connection is replaced right
+     * away, so the server can call this client back, after the backoff and
+     * any retry-after the server asked for.
+     */
+    private void keepConnected(RSocketClient client) {
+        if (connection != null) {
+            connection.dispose();
+        }
+        connection = Flux.defer(() -> client.source().flux())
+                .concatMap(rsocket -> Mono.just(rsocket)
+                        .concatWith(rsocket.onClose()
+                                .doFinally(signal -> reconnectStats.lost())
+                                .then(Mono.<RSocket>error(new ClosedChannelException()))))
+                .retryWhen(backoff)
+                .subscribe(
+                    rsocket -> {
+                        reconnectStats.connected();
+                        System.out.println("Client Connected.");
+                    },
+                    error -> System.out.println("Client Disconnected : " + error)
+                );
+    }
+
+    private SocketAcceptor responder() {
+        if (responder == null) {
+            responder = RSocketMessageHandler.responder(rsocketStrategies, new ClientHandler());
+        }
+        return responder;
+    }
+
+    @ShellMethod("Show how long reconnecting took.")
+    public void reconnects() {
+        System.out.println(reconnectStats.describe());
     }
 
     @PreDestroy
@@ -54,6 +164,7 @@ public class RSocketShellClient {
     public void logout() {
         if (userIsLoggedIn()) {
             this.s();
+            this.connection.dispose();
             this.rsocketRequester.rsocketClient().dispose();
             log.info("Logged out.");
         }
@@ -67,6 +178,59 @@ public class RSocketShellClient {
         return true;
     }
 
+    @ShellMethod("Download a file from the server in chunks. A partial download is resumed.")
+    public void stream(@ShellOption(defaultValue = "sample.bin") String file) {
+        if (userIsLoggedIn()) {
+            log.info("\n\n**** Request-Stream\n**** Downloading {} to {}.\n**** Type 's' to stop.", file, downloadDirectory);
+            Path target = downloadDirectory.resolve(Paths.get(file).getFileName());
+            FileChannel out;
+            long offset;
+            try {
+                Files.createDirectories(downloadDirectory);
+                out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                // an earlier download that broke off is continued where it stopped
+                offset = out.size();
+            } catch (IOException e) {
+                log.error("Cannot write {}: {}", target, e.toString());
+                return;
+            }
+
+            this.rsocketRequester
+                .route("stream")
+                .data(new Message(Client.CLIENT_ID, "Server", file + " " + offset))
+                .retrieveFlux(ByteBuffer.class)
+                .map(FileChunk::from)
+                .doOnNext(chunk -> write(out, chunk))
+                .doFinally(signal -> close(out))
+                .subscribe(
+                    chunk -> { },
+                    error -> System.out.println("Download of " + file + " stopped : " + error.getMessage() + " (stream again to resume)"),
+                    () -> System.out.println("File received : " + target)
+                )
+            ;
+        }
+    }
+
+    private static void write(FileChannel out, FileChunk chunk) {
+        // only intact chunks are written, so the file size is always a safe resume offset
+        if (!chunk.isIntact()) {
+            throw new IllegalStateException("Chunk at offset " + chunk.getOffset() + " is corrupt");
+        }
+        try {
+            out.write(chunk.getData(), chunk.getOffset());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void close(FileChannel out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Could not close the downloaded file.", e);
+        }
+    }
+
     @ShellMethod("Stream some settings to the server. Stream of responses will be printed.")
     public void channel() {
         log.info("\n\n***** Channel (bi-directional streams)\n***** Asking for a stream of messages.\n***** Type 's' to stop.\n\n");
@@ -88,6 +252,68 @@ public class RSocketShellClient {
         ;
     }
 
+    @ShellMethod("Send messages the server forwards without decoding. Stream of responses will be printed.")
+    public void forward() {
+        log.info("\n\n***** Forward (bi-directional streams)\n***** Receiver travels in the metadata.\n***** Type 's' to stop.\n\n");
+
+        Message message = new Message(Client.CLIENT_ID, "Client1", "Hello From " + Client.CLIENT_ID);
+
+        this.rsocketRequester
+            .route("personal.forward")
+            .metadata(message.getReceiver(), MessageCodec.RECEIVER_MIME_TYPE)
+            .data(Flux.just(message))
+            .retrieveFlux(Message.class)
+            .doOnNext(newMessage ->
+                System.out.println(
+                    "Sender : " + newMessage.getSender() +
+                    "\nReceiver : " + newMessage.getReceiver() +
+                    "\nContent : " + newMessage.getContent()
+                )
+            )
+            .subscribe()
+        ;
+    }
+
+    @ShellMethod("Stream binary media frames to another client.")
+    public void media(@ShellOption(defaultValue = "Client2") String receiver,
+                      @ShellOption(defaultValue = "100") int frames,
+                      @ShellOption(defaultValue = "4096") int chunkSize) {
+        log.info("\n\n***** Media (bi-directional streams)\n***** Sending {} frames of {} bytes to {}.\n\n", frames, chunkSize, receiver);
+
+        byte[] chunk = new byte[chunkSize];
+
+        this.rsocketRequester
+            .route("media.stream")
+            .metadata(receiver, MessageCodec.RECEIVER_MIME_TYPE)
+            .data(Flux.range(0, frames)
+                .map(sequence -> new MediaFrame(sequence, MediaFrame.CODEC_RAW, MediaFrame.now(), chunk).toByteBuffer()))
+            .retrieveFlux(ByteBuffer.class)
+            .doOnComplete(() -> System.out.println("Media stream sent : " + frames + " frames"))
+            .subscribe()
+        ;
+    }
+
+    @ShellMethod("Send a burst of messages to another client, batched when rsocket.batch.enabled is set.")
+    public void burst(@ShellOption(defaultValue = "Client2") String receiver,
+                      @ShellOption(defaultValue = "1000") int count,
+                      @ShellOption(defaultValue = "INTERACTIVE", help = "CONTROL, INTERACTIVE or BULK") Priority priority) {
+        log.info("\n\n***** Burst (bi-directional streams)\n***** Sending {} {} messages to {}.\n\n", count, priority, receiver);
+
+        Flux<Message> messages = Flux.range(0, count)
+            .map(i -> new Message(Client.CLIENT_ID, receiver, "Burst " + i + " from " + Client.CLIENT_ID, priority));
+        RSocketRequester.RetrieveSpec request = batcher != null
+            ? this.rsocketRequester.route("personal.batch").data(batcher.batch(messages).map(MessageBatch::new))
+            : this.rsocketRequester.route("personal.call").data(messages);
+
+        AtomicInteger replies = new AtomicInteger();
+        request
+            .retrieveFlux(Message.class)
+            .doOnNext(reply -> replies.incrementAndGet())
+            .doOnComplete(() -> System.out.println("Burst sent : " + count + " messages, " + replies.get() + " replies"))
+            .subscribe()
+        ;
+    }
+
     @ShellMethod("Stops Streams or Channels.")
     public void s() {
         if (userIsLoggedIn()) {
@@ -96,16 +322,4 @@ public class RSocketShellClient {
             log.info("Stream stopped.");
         }
     }
-    
-        @ShellMethod("Send one request. Many responses (stream) will be printed.")
-    public void stream() {
-        if (userIsLoggedIn()) {
-            log.info("\n\n**** Request-Stream\n**** Send one request.\n**** Log responses.\n**** Type 's' to stop.");
-            this.rsocketRequester
-                    .route("stream")
-                    .data(new Message(Client.CLIENT_ID, "Server", "Give me File"))
-                    .retrieveFlux(Message.class)
-                    .subscribe(message -> log.info("Response: {} \n(Type 's' to stop.)", message));
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,211 @@
+package com.example.rsocketclient2.batching;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs the elements of a stream into batches whose window adapts to the load.
+ * <p>
+ * A batch is sent as soon as it holds {@code maxSize} elements. Below that it
+ * only waits for more while elements arrive at least twice per
+ * {@code maxDelay}, judged by a moving average of the gap between two elements:
+ * an idle stream sends every element at once, a busy one fills its batches
+ * within {@code maxDelay} at most.
+ * <p>
+ * Batches go out on demand only. The source is asked for at most
+ * {@code maxSize} elements per requested batch, so a bounded queue in front of
+ * the batcher still fills up when the consumer is slow.
+ */
+public class MessageBatcher {
+
+    private final int maxSize;
+    private final long maxDelayNanos;
+    private final Scheduler scheduler;
+
+    public MessageBatcher(int maxSize, Duration maxDelay) {
+        this(maxSize, maxDelay, Schedulers.parallel());
+    }
+
+    MessageBatcher(int maxSize, Duration maxDelay, Scheduler scheduler) {
+        this.maxSize = Math.max(1, maxSize);
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.scheduler = scheduler;
+    }
+
+    public <T> Flux<List<T>> batch(Flux<T> source) {
+        return Flux.<List<T>>from(actual -> source.subscribe(new BatchSubscriber<>(actual)));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Every signal is handled under the subscriber's lock, so the timer and the
+     * source never emit at the same time.
+     */
+    private final class BatchSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+        private final Subscriber<? super List<T>> actual;
+        private Subscription upstream;
+        private List<T> batch = new ArrayList<>();
+
+        // batches requested downstream and not sent yet
+        private long requested;
+        // elements requested from the source and not received yet
+        private long outstanding;
+        private long lastArrival;
+        private long averageGap = -1;
+        private Disposable timer;
+        private boolean flushDue;
+        private boolean done;
+        private boolean terminated;
+
+        BatchSubscriber(Subscriber<? super List<T>> actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual instanceof CoreSubscriber ? ((CoreSubscriber<?>) actual).currentContext() : Context.empty();
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (Operators.validate(upstream, subscription)) {
+                upstream = subscription;
+                actual.onSubscribe(this);
+            }
+        }
+
+        @Override
+        public synchronized void onNext(T element) {
+            if (terminated) {
+                return;
+            }
+            outstanding--;
+            long now = System.nanoTime();
+            if (lastArrival != 0) {
+                long gap = now - lastArrival;
+                averageGap = averageGap < 0 ? gap : averageGap + ((gap - averageGap) >> 3);
+            }
+            lastArrival = now;
+            batch.add(element);
+            if (batch.size() >= maxSize || !busy()) {
+                flush();
+            } else if (timer == null) {
+                timer = scheduler.schedule(this::timeout, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable error) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            cancelTimer();
+            batch = new ArrayList<>();
+            actual.onError(error);
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            cancelTimer();
+            flush();
+            completeIfDrained();
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (!Operators.validate(n) || terminated) {
+                return;
+            }
+            requested = Operators.addCap(requested, n);
+            if (flushDue) {
+                flush();
+            }
+            if (done) {
+                completeIfDrained();
+            } else {
+                replenish();
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            terminated = true;
+            cancelTimer();
+            batch = new ArrayList<>();
+            upstream.cancel();
+        }
+
+        private synchronized void timeout() {
+            timer = null;
+            flush();
+        }
+
+        private boolean busy() {
+            return averageGap >= 0 && averageGap * 2 <= maxDelayNanos;
+        }
+
+        private void flush() {
+            if (batch.isEmpty() || terminated) {
+                return;
+            }
+            if (requested == 0) {
+                // sent with the next request
+                flushDue = true;
+                return;
+            }
+            flushDue = false;
+            cancelTimer();
+            List<T> full = batch;
+            batch = new ArrayList<>(Math.min(maxSize, full.size() * 2));
+            requested--;
+            actual.onNext(full);
+            if (!done) {
+                replenish();
+            }
+        }
+
+        private void replenish() {
+            long limit = requested > Long.MAX_VALUE / maxSize ? Long.MAX_VALUE : requested * maxSize;
+            long wanted = limit - batch.size() - outstanding;
+            if (wanted > 0) {
+                outstanding = Operators.addCap(outstanding, wanted);
+                upstream.request(wanted);
+            }
+        }
+
+        private void completeIfDrained() {
+            if (batch.isEmpty() && !terminated) {
+                terminated = true;
+                actual.onComplete();
+            }
+        }
+
+        private void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.rsocketclient2.codec;
+
+import org.springframework.core.codec.DecodingException;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary layout of a {@link com.example.rsocketclient2.data.Message}, shared with the server:
+ * <pre>
+ * [byte version][int senderLength][sender][int receiverLength][receiver][int contentLength][content]
+ * </pre>
+ * A message with a priority other than the default starts with its own version
+ * and the priority code:
+ * <pre>
+ * [byte priorityVersion][byte priority][int senderLength][sender]...
+ * </pre>
+ * Strings are UTF-8, a length of -1 stands for null. A
+ * {@link com.example.rsocketclient2.data.MessageBatch} is a count followed by the
+ * messages without their version byte and priority:
+ * <pre>
+ * [byte batchVersion][int count]{[int senderLength][sender][int receiverLength][receiver][int contentLength][content]}
+ * </pre>
+ */
+public final class MessageCodec {
+
+    public static final MimeType MIME_TYPE = new MimeType("application", "x.rsocket-message");
+
+    // Composite metadata entry naming the receiver of a forwarded message.
+    public static final MimeType RECEIVER_MIME_TYPE = new MimeType("message", "x.rsocket-receiver");
+
+    // Composite metadata entry of the setup frame listing what the client supports.
+    public static final MimeType CAPABILITIES_MIME_TYPE = new MimeType("message", "x.rsocket-capabilities");
+
+    // This client unpacks batches sent to its "call.batch" route.
+    public static final String CAPABILITY_BATCH = "batch";
+
+    static final byte VERSION = 1;
+    static final byte BATCH_VERSION = 2;
+    static final byte PRIORITY_VERSION = 3;
+
+    private MessageCodec() {
+    }
+
+    static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int size(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    static void write(ByteBuffer target, byte[] bytes) {
+        if (bytes == null) {
+            target.putInt(-1);
+        } else {
+            target.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    static String readString(ByteBuffer source) {
+        int length = source.getInt();
+        if (length < -1 || length > source.remaining()) {
+            throw new DecodingException("Invalid field length " + length + ", " + source.remaining() + " bytes left");
+        }
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.rsocketclient2.codec;
+
+import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Adds the binary message and message batch codecs to the client's RSocket
+ * strategies.
+ */
+@Configuration
+public class MessageCodecConfig {
+
+    @Bean
+    public RSocketStrategiesCustomizer messageCodecCustomizer() {
+        return strategies -> strategies
+            .encoder(new MessageEncoder(), new MessageBatchEncoder())
+            .decoder(new MessageDecoder(), new MessageBatchDecoder());
+    }
+}
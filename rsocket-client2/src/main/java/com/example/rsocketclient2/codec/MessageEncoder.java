@@ -0,0 +1,59 @@
+package com.example.rsocketclient2.codec;
+
+import com.example.rsocketclient2.data.Message;
+import com.example.rsocketclient2.data.Priority;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Writes a {@link Message} in the {@link MessageCodec} layout.
+ */
+public class MessageEncoder extends AbstractEncoder<Message> {
+
+    public MessageEncoder() {
+        super(MessageCodec.MIME_TYPE);
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return Message.class.isAssignableFrom(elementType.toClass()) && super.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<? extends Message> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(message -> encodeValue(message, bufferFactory, elementType, mimeType, hints));
+    }
+
+    @Override
+    public DataBuffer encodeValue(Message message, DataBufferFactory bufferFactory,
+                                  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+        byte[] sender = MessageCodec.bytes(message.getSender());
+        byte[] receiver = MessageCodec.bytes(message.getReceiver());
+        byte[] content = MessageCodec.bytes(message.getContent());
+        Priority priority = message.getPriority();
+        boolean prioritized = priority != null && priority != Priority.INTERACTIVE;
+        int size = (prioritized ? 2 : 1) + MessageCodec.size(sender) + MessageCodec.size(receiver) + MessageCodec.size(content);
+
+        DataBuffer buffer = bufferFactory.allocateBuffer(size);
+        ByteBuffer target = buffer.asByteBuffer(0, size);
+        if (prioritized) {
+            target.put(MessageCodec.PRIORITY_VERSION).put((byte) priority.ordinal());
+        } else {
+            target.put(MessageCodec.VERSION);
+        }
+        MessageCodec.write(target, sender);
+        MessageCodec.write(target, receiver);
+        MessageCodec.write(target, content);
+        buffer.writePosition(size);
+        return buffer;
+    }
+}
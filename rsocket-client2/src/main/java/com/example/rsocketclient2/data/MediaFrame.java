@@ -0,0 +1,48 @@
+package com.example.rsocketclient2.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One chunk of a media stream.
+ * Layout: [int sequence][byte codec][long timestamp micros][int length][chunk]
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaFrame {
+
+    public static final byte CODEC_RAW = 0;
+    public static final byte CODEC_OPUS = 1;
+    public static final byte CODEC_H264 = 2;
+
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES + Integer.BYTES;
+
+    private int sequence;
+    private byte codec;
+    private long timestamp;
+    private byte[] chunk;
+
+    public static long now() {
+        return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + chunk.length);
+        buffer.putInt(sequence).put(codec).putLong(timestamp).putInt(chunk.length).put(chunk);
+        return buffer.flip();
+    }
+
+    public static MediaFrame from(ByteBuffer buffer) {
+        int sequence = buffer.getInt();
+        byte codec = buffer.get();
+        long timestamp = buffer.getLong();
+        byte[] chunk = new byte[buffer.getInt()];
+        buffer.get(chunk);
+        return new MediaFrame(sequence, codec, timestamp, chunk);
+    }
+}
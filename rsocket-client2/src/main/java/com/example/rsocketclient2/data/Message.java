@@ -1,5 +1,6 @@
 package com.example.rsocketclient2.data;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -10,10 +11,19 @@ public class Message {
     private String sender;
     private String receiver;
     private String content;
+
+    // null for the default lane
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Priority priority;
     
     public Message(String sender, String receiver, String content){
         this.sender = sender;
         this.receiver = receiver;
         this.content = content;
     }
+
+    public Message(String sender, String receiver, String content, Priority priority){
+        this(sender, receiver, content);
+        this.priority = priority;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.example.rsocketclient2.transport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retries a connection with decorrelated jitter: every delay is random between
+ * the base and three times the previous delay, capped at the maximum. Clients
+ * that lost the same server at the same moment thereby spread out instead of
+ * coming back in waves.
+ * <p>
+ * The first retry after a working connection waits at most the base, and a
+ * server that rejected the setup with a "retry-after=&lt;millis&gt;ms" hint is
+ * not tried again before that time has passed, plus jitter.
+ */
+@Slf4j
+public class ReconnectBackoff extends Retry {
+
+    private static final Pattern RETRY_AFTER = Pattern.compile("retry-after=(\\d+)ms");
+
+    private final long baseMillis;
+    private final long maxMillis;
+
+    public ReconnectBackoff(Duration base, Duration max) {
+        this.baseMillis = Math.max(1, base.toMillis());
+        this.maxMillis = Math.max(baseMillis, max.toMillis());
+    }
+
+    @Override
+    public Publisher<?> generateCompanion(Flux<RetrySignal> retrySignals) {
+        AtomicLong previous = new AtomicLong();
+        return retrySignals.concatMap(signal -> {
+            long delay = signal.totalRetriesInARow() == 0
+                    ? ThreadLocalRandom.current().nextLong(baseMillis)
+                    : next(previous.get());
+            previous.set(Math.max(delay, baseMillis));
+            long retryAfter = retryAfter(signal.failure());
+            if (retryAfter > 0) {
+                delay = retryAfter + ThreadLocalRandom.current().nextLong(Math.max(delay, 1));
+            }
+            log.info("Connection lost ({}), retrying in {} ms.", signal.failure().toString(), delay);
+            return Mono.delay(Duration.ofMillis(delay));
+        });
+    }
+
+    long next(long previous) {
+        long upper = Math.max(baseMillis + 1, Math.min(maxMillis, previous * 3));
+        return Math.min(maxMillis, ThreadLocalRandom.current().nextLong(baseMillis, upper + 1));
+    }
+
+    static long retryAfter(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null) {
+                Matcher matcher = RETRY_AFTER.matcher(cause.getMessage());
+                if (matcher.find()) {
+                    return Long.parseLong(matcher.group(1));
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.rsocketclient2.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from losing the connection to having a new one, over all reconnects.
+ */
+public class ReconnectStats {
+
+    private long lostAt;
+    private long reconnects;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+
+    public synchronized void lost() {
+        if (lostAt == 0) {
+            lostAt = System.nanoTime();
+        }
+    }
+
+    public synchronized void connected() {
+        if (lostAt == 0) {
+            return;
+        }
+        lastNanos = System.nanoTime() - lostAt;
+        lostAt = 0;
+        reconnects++;
+        totalNanos += lastNanos;
+        maxNanos = Math.max(maxNanos, lastNanos);
+    }
+
+    public synchronized String describe() {
+        return "reconnects=" + reconnects +
+                " last=" + TimeUnit.NANOSECONDS.toMillis(lastNanos) + "ms" +
+                " mean=" + (reconnects == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / reconnects)) + "ms" +
+                " max=" + TimeUnit.NANOSECONDS.toMillis(maxNanos) + "ms" +
+                (lostAt != 0 ? " reconnecting" : "");
+    }
+}
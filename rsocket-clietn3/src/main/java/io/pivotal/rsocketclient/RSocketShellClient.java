@@ -1,11 +1,26 @@
 package io.pivotal.rsocketclient;
 
+import io.pivotal.rsocketclient.batching.MessageBatcher;
+import io.pivotal.rsocketclient.codec.MessageCodec;
 import io.pivotal.rsocketclient.data.Client;
+import io.pivotal.rsocketclient.data.FileChunk;
+import io.pivotal.rsocketclient.data.MediaFrame;
+import io.pivotal.rsocketclient.data.TelemetrySample;
 import io.pivotal.rsocketclient.data.Message;
+import io.pivotal.rsocketclient.data.MessageBatch;
+import io.pivotal.rsocketclient.data.Priority;
+import io.pivotal.rsocketclient.transport.FallbackClientTransport;
+import io.pivotal.rsocketclient.transport.ReconnectBackoff;
+import io.pivotal.rsocketclient.transport.ReconnectStats;
+import io.rsocket.RSocket;
 import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketClient;
+import io.rsocket.core.Resume;
+import io.rsocket.transport.ClientTransport;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.rsocket.RSocketRequester;
@@ -13,11 +28,24 @@ import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @ShellComponent
@@ -26,29 +54,112 @@ public class RSocketShellClient {
     private RSocketRequester rsocketRequester;
     private RSocketRequester.Builder rsocketRequesterBuilder;
     private RSocketStrategies rsocketStrategies;
+    private int fragmentMtu;
+    private ClientTransport transport;
+    private MessageBatcher batcher;
+    private SocketAcceptor responder;
+    private ReconnectBackoff backoff;
+    private Duration resumeSessionDuration;
+    private Duration keepAliveInterval;
+    private Duration keepAliveMaxLifetime;
+    private final ReconnectStats reconnectStats = new ReconnectStats();
+    private Disposable connection;
+    private Path downloadDirectory;
 
     @Autowired
     public RSocketShellClient(RSocketRequester.Builder builder,
-                              @Qualifier("rSocketStrategies") RSocketStrategies strategies) {
+                              @Qualifier("rSocketStrategies") RSocketStrategies strategies,
+                              @Value("${rsocket.fragment-mtu:0}") int fragmentMtu,
+                              @Value("${rsocket.tcp-uri:}") URI tcpUri,
+                              @Value("${rsocket.websocket-uri:ws://localhost:7000/rsocket}") URI websocketUri,
+                              @Value("${rsocket.tcp-connect-timeout:1s}") Duration tcpConnectTimeout,
+                              @Value("${rsocket.keepalive.interval:20s}") Duration keepAliveInterval,
+                              @Value("${rsocket.keepalive.max-lifetime:90s}") Duration keepAliveMaxLifetime,
+                              @Value("${rsocket.reconnect.base:500ms}") Duration reconnectBase,
+                              @Value("${rsocket.reconnect.max:30s}") Duration reconnectMax,
+                              @Value("${rsocket.resume.enabled:false}") boolean resumeEnabled,
+                              @Value("${rsocket.resume.session-duration:120s}") Duration resumeSessionDuration,
+                              @Value("${rsocket.batch.enabled:false}") boolean batchEnabled,
+                              @Value("${rsocket.batch.max-size:64}") int batchMaxSize,
+                              @Value("${rsocket.batch.max-delay:2ms}") Duration batchMaxDelay,
+                              @Value("${rsocket.download-directory:${java.io.tmpdir}/rsocket-downloads}") String downloadDirectory) {
         this.rsocketRequesterBuilder = builder;
         this.rsocketStrategies = strategies;
+        this.fragmentMtu = fragmentMtu;
+        this.transport = new FallbackClientTransport(tcpUri, websocketUri, tcpConnectTimeout);
+        this.keepAliveInterval = keepAliveInterval;
+        this.keepAliveMaxLifetime = keepAliveMaxLifetime;
+        this.backoff = new ReconnectBackoff(reconnectBase, reconnectMax);
+        this.resumeSessionDuration = resumeEnabled ? resumeSessionDuration : null;
+        this.downloadDirectory = Paths.get(downloadDirectory);
+        if (batchEnabled) {
+            this.batcher = new MessageBatcher(batchMaxSize, batchMaxDelay);
+            // tells the server it may pack messages for us on "call.batch"
+            this.rsocketRequesterBuilder.setupMetadata(MessageCodec.CAPABILITY_BATCH, MessageCodec.CAPABILITIES_MIME_TYPE);
+        }
     }
 
     @ShellMethod("Login with your username and password.")
     public void login() {
         log.info("Connecting using client ID: {}", Client.CLIENT_ID);
-        SocketAcceptor responder = RSocketMessageHandler.responder(rsocketStrategies, new ClientHandler());
-        this.rsocketRequester = rsocketRequesterBuilder
-                .setupRoute("connect")
-                .setupData(Client.CLIENT_ID)
-                .rsocketConnector(connector -> connector.acceptor(responder))
-                .websocket(URI.create("ws://localhost:7000/rsocket"));
+        if (this.rsocketRequester == null || this.rsocketRequester.rsocketClient().isDisposed()) {
+            // set up once, every reconnect reuses the strategies, the responder and the setup frame
+            this.rsocketRequester = rsocketRequesterBuilder
+                    .setupRoute("connect")
+                    .setupData(Client.CLIENT_ID)
+                    .dataMimeType(MessageCodec.MIME_TYPE)
+                    .rsocketConnector(connector -> {
+                        connector.acceptor(responder());
+                        connector.reconnect(backoff);
+                        // a dead connection is noticed within the lifetime, on both sides
+                        connector.keepAlive(keepAliveInterval, keepAliveMaxLifetime);
+                        if (fragmentMtu > 0) {
+                            connector.fragment(fragmentMtu);
+                        }
+                        if (resumeSessionDuration != null) {
+                            // pairs with the server's "resumption" profile
+                            connector.resume(new Resume().sessionDuration(resumeSessionDuration).retry(backoff));
+                        }
+                    })
+                    .transport(transport);
+        }
+        keepConnected(this.rsocketRequester.rsocketClient());
+    }
+
+    /**
+     * Holds a connection until logout. A lost connection is replaced right
+     * away, so the server can call this client back, after the backoff and
+     * any retry-after the server asked for.
+     */
+    private void keepConnected(RSocketClient client) {
+        if (connection != null) {
+            connection.dispose();
+        }
+        connection = Flux.defer(() -> client.source().flux())
+                .concatMap(rsocket -> Mono.just(rsocket)
+                        .concatWith(rsocket.onClose()
+                                .doFinally(signal -> reconnectStats.lost())
+                                .then(Mono.<RSocket>error(new ClosedChannelException()))))
+                .retryWhen(backoff)
+                .subscribe(
+                    rsocket -> {
+                        reconnectStats.connected();
+                        System.out.println("Client Connected.");
+                    },
+                    error -> System.out.println("Client Disconnected : " + error)
+                );
+    }
+
+    private SocketAcceptor responder() {
+        if (responder == null) {
+            responder = RSocketMessageHandler.responder(rsocketStrategies, new ClientHandler());
+        }
+        return responder;
+    }
 
-        this.rsocketRequester.rsocketClient()
-                .source()
-                .doOnSuccess(success -> System.out.println("Client Connected."))
-                .doOnCancel(() -> System.out.println("Client Disconnected."))
-                .subscribe();
+    @ShellMethod("Show how long reconnecting took.")
+    public void reconnects() {
+        System.out.println(reconnectStats.describe());
     }
 
     @PreDestroy
@@ -56,32 +167,73 @@ public class RSocketShellClient {
     public void logout() {
         if (userIsLoggedIn()) {
             this.s();
-            this.rsocketRequester.rsocket().dispose();
+            this.connection.dispose();
+            this.rsocketRequester.rsocketClient().dispose();
             log.info("Logged out.");
         }
     }
 
     private boolean userIsLoggedIn() {
-        if (null == this.rsocketRequester || this.rsocketRequester.rsocket().isDisposed()) {
+        if (null == this.rsocketRequester || this.rsocketRequester.rsocketClient().isDisposed()) {
             log.info("No connection. Did you login?");
             return false;
         }
         return true;
     }
 
-    @ShellMethod("Send one request. Many responses (stream) will be printed.")
-    public void stream() {
+    @ShellMethod("Download a file from the server in chunks. A partial download is resumed.")
+    public void stream(@ShellOption(defaultValue = "sample.bin") String file) {
         if (userIsLoggedIn()) {
-            log.info("\n\n**** Request-Stream\n**** Send one request.\n**** Log responses.\n**** Type 's' to stop.");
+            log.info("\n\n**** Request-Stream\n**** Downloading {} to {}.\n**** Type 's' to stop.", file, downloadDirectory);
+            Path target = downloadDirectory.resolve(Paths.get(file).getFileName());
+            FileChannel out;
+            long offset;
+            try {
+                Files.createDirectories(downloadDirectory);
+                out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                // an earlier download that broke off is continued where it stopped
+                offset = out.size();
+            } catch (IOException e) {
+                log.error("Cannot write {}: {}", target, e.toString());
+                return;
+            }
+
             this.rsocketRequester
                 .route("stream")
-                .data(new Message(Client.CLIENT_ID, "Server", "Give me File"))
-                .retrieveFlux(Message.class)
-                .subscribe()
+                .data(new Message(Client.CLIENT_ID, "Server", file + " " + offset))
+                .retrieveFlux(ByteBuffer.class)
+                .map(FileChunk::from)
+                .doOnNext(chunk -> write(out, chunk))
+                .doFinally(signal -> close(out))
+                .subscribe(
+                    chunk -> { },
+                    error -> System.out.println("Download of " + file + " stopped : " + error.getMessage() + " (stream again to resume)"),
+                    () -> System.out.println("File received : " + target)
+                )
             ;
         }
     }
 
+    private static void write(FileChannel out, FileChunk chunk) {
+        // only intact chunks are written, so the file size is always a safe resume offset
+        if (!chunk.isIntact()) {
+            throw new IllegalStateException("Chunk at offset " + chunk.getOffset() + " is corrupt");
+        }
+        try {
+            out.write(chunk.getData(), chunk.getOffset());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void close(FileChannel out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Could not close the downloaded file.", e);
+        }
+    }
+
     @ShellMethod("Stream some settings to the server. Stream of responses will be printed.")
     public void channel() {
         log.info("\n\n***** Channel (bi-directional streams)\n***** Asking for a stream of messages.\n***** Type 's' to stop.\n\n");
@@ -103,6 +255,68 @@ public class RSocketShellClient {
         ;
     }
 
+    @ShellMethod("Send messages the server forwards without decoding. Stream of responses will be printed.")
+    public void forward() {
+        log.info("\n\n***** Forward (bi-directional streams)\n***** Receiver travels in the metadata.\n***** Type 's' to stop.\n\n");
+
+        Message message = new Message(Client.CLIENT_ID, "Client2", "Hello From " + Client.CLIENT_ID);
+
+        this.rsocketRequester
+            .route("personal.forward")
+            .metadata(message.getReceiver(), MessageCodec.RECEIVER_MIME_TYPE)
+            .data(Flux.just(message))
+            .retrieveFlux(Message.class)
+            .doOnNext(newMessage ->
+                System.out.println(
+                    "Sender : " + newMessage.getSender() +
+                    "\nReceiver : " + newMessage.getReceiver() +
+                    "\nContent : " + newMessage.getContent()
+                )
+            )
+            .subscribe()
+        ;
+    }
+
+    @ShellMethod("Stream binary media frames to another client.")
+    public void media(@ShellOption(defaultValue = "Client2") String receiver,
+                      @ShellOption(defaultValue = "100") int frames,
+                      @ShellOption(defaultValue = "4096") int chunkSize) {
+        log.info("\n\n***** Media (bi-directional streams)\n***** Sending {} frames of {} bytes to {}.\n\n", frames, chunkSize, receiver);
+
+        byte[] chunk = new byte[chunkSize];
+
+        this.rsocketRequester
+            .route("media.stream")
+            .metadata(receiver, MessageCodec.RECEIVER_MIME_TYPE)
+            .data(Flux.range(0, frames)
+                .map(sequence -> new MediaFrame(sequence, MediaFrame.CODEC_RAW, MediaFrame.now(), chunk).toByteBuffer()))
+            .retrieveFlux(ByteBuffer.class)
+            .doOnComplete(() -> System.out.println("Media stream sent : " + frames + " frames"))
+            .subscribe()
+        ;
+    }
+
+    @ShellMethod("Send a burst of messages to another client, batched when rsocket.batch.enabled is set.")
+    public void burst(@ShellOption(defaultValue = "Client2") String receiver,
+                      @ShellOption(defaultValue = "1000") int count,
+                      @ShellOption(defaultValue = "INTERACTIVE", help = "CONTROL, INTERACTIVE or BULK") Priority priority) {
+        log.info("\n\n***** Burst (bi-directional streams)\n***** Sending {} {} messages to {}.\n\n", count, priority, receiver);
+
+        Flux<Message> messages = Flux.range(0, count)
+            .map(i -> new Message(Client.CLIENT_ID, receiver, "Burst " + i + " from " + Client.CLIENT_ID, priority));
+        RSocketRequester.RetrieveSpec request = batcher != null
+            ? this.rsocketRequester.route("personal.batch").data(batcher.batch(messages).map(MessageBatch::new))
+            : this.rsocketRequester.route("personal.call").data(messages);
+
+        AtomicInteger replies = new AtomicInteger();
+        request
+            .retrieveFlux(Message.class)
+            .doOnNext(reply -> replies.incrementAndGet())
+            .doOnComplete(() -> System.out.println("Burst sent : " + count + " messages, " + replies.get() + " replies"))
+            .subscribe()
+        ;
+    }
+
     @ShellMethod("Stops Streams or Channels.")
     public void s() {
         if (userIsLoggedIn()) {
@@ -116,28 +330,65 @@ public class RSocketShellClient {
 @Slf4j
 class ClientHandler {
 
-    @MessageMapping("client-status")
-    public Flux<String> statusUpdate(String status) {
-        log.info("Connection {}", status);
-        return Flux.interval(Duration.ofSeconds(5)).map(index -> String.valueOf(Runtime.getRuntime().freeMemory()));
+    // frames asked of the server at a time on the media route
+    private static final int MEDIA_WINDOW = 64;
+
+    // inbound streams being handled, reported as the queue depth
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    @MessageMapping("client-telemetry")
+    public Flux<ByteBuffer> telemetry(@Payload Flux<ByteBuffer> commands) {
+        log.info("Connection OPEN");
+        //every command from the server sets the interval and is answered at once.
+        return commands
+            .switchMap(command -> {
+                int interval = command.getInt();
+                long probe = command.getLong();
+                return Flux.interval(Duration.ZERO, Duration.ofMillis(interval))
+                    .onBackpressureDrop()
+                    .map(tick -> TelemetrySample.now(probe, activeStreams.get()).toByteBuffer());
+            })
+        ;
     }
     
     @MessageMapping("call")
     public Flux<Message> channel(@Payload Flux<Message> messageFlux){
         return messageFlux
-            .doOnNext(message ->
-                System.out.println(
-                    "Sender : " + message.getSender() +
-                    "\nReceiver : " + message.getReceiver() +
-                    "\nContent : " + message.getContent()
-                )
-            )
+            //logged with placeholders, so nothing is concatenated when the level is off.
+            .doOnNext(message -> log.info("Sender : {} Receiver : {} Content : {}",
+                    message.getSender(), message.getReceiver(), message.getContent()))
             .switchMap(message -> {
                 message.setContent("Hello from " + Client.CLIENT_ID);
                 message.setSender(Client.CLIENT_ID);
                 message.setReceiver(message.getSender());
                  return Flux.just(message);
             })
+            .doOnSubscribe(subscription -> activeStreams.incrementAndGet())
+            .doFinally(signal -> activeStreams.decrementAndGet())
+        ;
+    }
+
+    @MessageMapping("call.batch")
+    public Flux<Message> batchChannel(@Payload Flux<MessageBatch> batches) {
+        return channel(batches.concatMapIterable(MessageBatch::getMessages));
+    }
+
+    @MessageMapping("media")
+    public Flux<ByteBuffer> media(@Payload Flux<ByteBuffer> frames) {
+        AtomicInteger expected = new AtomicInteger();
+        return frames
+            .limitRate(MEDIA_WINDOW)
+            .map(MediaFrame::from)
+            .doOnNext(frame -> {
+                if (frame.getSequence() != expected.getAndSet(frame.getSequence() + 1)) {
+                    log.warn("Media frame {} out of sequence.", frame.getSequence());
+                }
+            })
+            .count()
+            .doOnNext(count -> log.info("Media stream received : {} frames", count))
+            .thenMany(Flux.<ByteBuffer>empty())
+            .doOnSubscribe(subscription -> activeStreams.incrementAndGet())
+            .doFinally(signal -> activeStreams.decrementAndGet())
         ;
     }
 }
@@ -0,0 +1,65 @@
+package io.pivotal.rsocketclient.codec;
+
+import io.pivotal.rsocketclient.data.Message;
+import io.pivotal.rsocketclient.data.MessageBatch;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractDataBufferDecoder;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a {@link MessageBatch} in the {@link MessageCodec} batch layout straight
+ * from the payload buffer.
+ */
+public class MessageBatchDecoder extends AbstractDataBufferDecoder<MessageBatch> {
+
+    // the smallest message: three empty fields
+    private static final int MIN_MESSAGE_SIZE = 3 * 4;
+
+    public MessageBatchDecoder() {
+        super(MessageCodec.MIME_TYPE);
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return MessageBatch.class.isAssignableFrom(elementType.toClass()) && super.canDecode(elementType, mimeType);
+    }
+
+    @Override
+    public MessageBatch decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        try {
+            ByteBuffer source = buffer.asByteBuffer();
+            byte version = source.get();
+            if (version != MessageCodec.BATCH_VERSION) {
+                throw new DecodingException("Unsupported batch version " + version);
+            }
+            int count = source.getInt();
+            if (count < 0 || count > source.remaining() / MIN_MESSAGE_SIZE) {
+                throw new DecodingException("Invalid batch size " + count);
+            }
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                messages.add(new Message(
+                    MessageCodec.readString(source),
+                    MessageCodec.readString(source),
+                    MessageCodec.readString(source)
+                ));
+            }
+            return new MessageBatch(messages);
+        } catch (RuntimeException e) {
+            if (e instanceof DecodingException) {
+                throw e;
+            }
+            throw new DecodingException("Malformed message batch", e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+}
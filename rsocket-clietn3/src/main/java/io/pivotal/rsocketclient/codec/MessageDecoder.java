@@ -0,0 +1,56 @@
+package io.pivotal.rsocketclient.codec;
+
+import io.pivotal.rsocketclient.data.Message;
+import io.pivotal.rsocketclient.data.Priority;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractDataBufferDecoder;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Reads a {@link Message} in the {@link MessageCodec} layout straight from the
+ * payload buffer.
+ */
+public class MessageDecoder extends AbstractDataBufferDecoder<Message> {
+
+    public MessageDecoder() {
+        super(MessageCodec.MIME_TYPE);
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return Message.class.isAssignableFrom(elementType.toClass()) && super.canDecode(elementType, mimeType);
+    }
+
+    @Override
+    public Message decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        try {
+            ByteBuffer source = buffer.asByteBuffer();
+            byte version = source.get();
+            Priority priority = null;
+            if (version == MessageCodec.PRIORITY_VERSION) {
+                priority = Priority.fromCode(source.get());
+            } else if (version != MessageCodec.VERSION) {
+                throw new DecodingException("Unsupported message version " + version);
+            }
+            return new Message(
+                MessageCodec.readString(source),
+                MessageCodec.readString(source),
+                MessageCodec.readString(source),
+                priority
+            );
+        } catch (RuntimeException e) {
+            if (e instanceof DecodingException) {
+                throw e;
+            }
+            throw new DecodingException("Malformed binary message", e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package io.pivotal.rsocketclient.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * One chunk of a file sent by the server on the "stream" route.
+ * Layout: [long offset][long fileSize][int crc32c][bytes]
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileChunk {
+
+    private long offset;
+    private long fileSize;
+    private int crc;
+    private ByteBuffer data;
+
+    public boolean isIntact() {
+        CRC32C check = new CRC32C();
+        check.update(data.duplicate());
+        return (int) check.getValue() == crc;
+    }
+
+    public static FileChunk from(ByteBuffer buffer) {
+        long offset = buffer.getLong();
+        long fileSize = buffer.getLong();
+        int crc = buffer.getInt();
+        return new FileChunk(offset, fileSize, crc, buffer.slice());
+    }
+}
@@ -1,5 +1,6 @@
 package io.pivotal.rsocketclient;
 
+import io.pivotal.rsocketclient.data.TelemetrySample;
 import io.rsocket.SocketAcceptor;
 import io.rsocket.core.RSocketServer;
 import io.rsocket.frame.decoder.PayloadDecoder;
@@ -25,6 +26,7 @@ import reactor.core.publisher.MonoProcessor;
 import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.UUID;
 
@@ -144,18 +146,18 @@ public class RSocketServerToClientITest {
             log.info("************** CONNECTION - Client ID: {}", client);
 
             runTest(() -> {
-                Flux<String> flux = requester
-                        .route("client-status") // Test the 'client-status' message handler mapping
-                        .data("OPEN") // confirm to the client th connection is open
-                        .retrieveFlux(String.class); // ask the client for its telemetry
+                Flux<ByteBuffer> flux = requester
+                        .route("client-telemetry") // Test the 'client-telemetry' message handler mapping
+                        .data(Flux.just(TelemetrySample.command(1000, 42L))) // sample every second, probe 42
+                        .retrieveFlux(ByteBuffer.class); // ask the client for its telemetry
 
                 StepVerifier.create(flux)
-                        .consumeNextWith(s -> {
-                            // assert the memory reading is in the 'good' range
-                            assertThat(s).isNotNull();
-                            assertThat(s).isNotEmpty();
-                            assertThat(Integer.valueOf(s)).isPositive();
-                            assertThat(Integer.valueOf(s)).isGreaterThan(0);
+                        .consumeNextWith(buffer -> {
+                            // assert the sample is complete and answers the probe
+                            assertThat(buffer.remaining()).isEqualTo(TelemetrySample.SIZE);
+                            TelemetrySample sample = TelemetrySample.from(buffer);
+                            assertThat(sample.getEcho()).isEqualTo(42L);
+                            assertThat(sample.getHeapUsed()).isPositive();
                         })
                         .thenCancel()
                         .verify(Duration.ofSeconds(10));
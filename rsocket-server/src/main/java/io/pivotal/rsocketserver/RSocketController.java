@@ -1,24 +1,102 @@
 package io.pivotal.rsocketserver;
 
+import io.pivotal.rsocketserver.admission.AdmissionControl;
+import io.pivotal.rsocketserver.audit.AuditRoute;
+import io.pivotal.rsocketserver.audit.RelayAuditLog;
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.codec.MessageCodec;
 import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.MessageBatch;
+import io.pivotal.rsocketserver.group.GroupFanout;
+import io.pivotal.rsocketserver.group.GroupRegistry;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.presence.PresenceService;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.pivotal.rsocketserver.relay.ChannelRelay;
+import io.pivotal.rsocketserver.relay.ForwardRelay;
+import io.pivotal.rsocketserver.relay.MediaRelay;
+import io.pivotal.rsocketserver.relay.MessageRelay;
+import io.pivotal.rsocketserver.relay.RelayMode;
+import io.pivotal.rsocketserver.relay.RelayPolicy;
+import io.pivotal.rsocketserver.relay.RelaySession;
+import io.pivotal.rsocketserver.telemetry.TelemetryService;
+import io.pivotal.rsocketserver.transfer.FileTransferService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.messaging.rsocket.annotation.ConnectMapping;
 import org.springframework.stereotype.Controller;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.PreDestroy;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Controller
 public class RSocketController {
 	
-	//CuncurrentHashMap for storing clients with tread safety.
-	private final Map<String, RSocketRequester> clientsMap = new ConcurrentHashMap<>();
+	//Sharded registry for storing clients with tread safety.
+	private final ClientRegistry clientRegistry;
+	private final GroupRegistry groupRegistry;
+	private final GroupFanout groupFanout;
+	private final ChannelRelay channelRelay;
+	private final MessageRelay messageRelay;
+	private final ForwardRelay forwardRelay;
+	private final MediaRelay mediaRelay;
+	private final OfflineMessageStore offlineStore;
+	private final ClusterNode clusterNode;
+	private final TelemetryService telemetry;
+	private final PresenceService presence;
+	private final FileTransferService fileTransfer;
+	private final AdmissionControl admission;
+	private final RelayMetrics metrics;
+	private final RelayAuditLog audit;
+	private final RelayPolicy personalPolicy;
+	private final int groupChannelBufferSize;
+	
+	public RSocketController(ClientRegistry clientRegistry,
+							 GroupRegistry groupRegistry,
+							 GroupFanout groupFanout,
+							 ChannelRelay channelRelay,
+							 MessageRelay messageRelay,
+							 ForwardRelay forwardRelay,
+							 MediaRelay mediaRelay,
+							 OfflineMessageStore offlineStore,
+							 ClusterNode clusterNode,
+							 TelemetryService telemetry,
+							 PresenceService presence,
+							 FileTransferService fileTransfer,
+							 AdmissionControl admission,
+							 RelayMetrics metrics,
+							 RelayAuditLog audit,
+							 @Value("${rsocket.relay.personal.mode:CHANNEL}") RelayMode personalMode,
+							 @Value("${rsocket.relay.personal.max-concurrency:16}") int personalMaxConcurrency,
+							 @Value("${rsocket.relay.personal.prefetch:32}") int personalPrefetch,
+							 @Value("${rsocket.group.max-pending-per-member:32}") int groupChannelBufferSize) {
+		this.clientRegistry = clientRegistry;
+		this.groupRegistry = groupRegistry;
+		this.groupFanout = groupFanout;
+		this.channelRelay = channelRelay;
+		this.messageRelay = messageRelay;
+		this.forwardRelay = forwardRelay;
+		this.mediaRelay = mediaRelay;
+		this.offlineStore = offlineStore;
+		this.clusterNode = clusterNode;
+		this.telemetry = telemetry;
+		this.presence = presence;
+		this.fileTransfer = fileTransfer;
+		this.admission = admission;
+		this.metrics = metrics;
+		this.audit = audit;
+		this.personalPolicy = new RelayPolicy(personalMode, personalMaxConcurrency, personalPrefetch);
+		this.groupChannelBufferSize = groupChannelBufferSize;
+	}
 	
 	/**
 	 * The annotation is called with the shutdown of server disposing all the connected
@@ -28,66 +106,74 @@ public class RSocketController {
 	void shutdown() {
 		log.info("Detaching all remaining clients...");
 		
-		//Extract all the keys from the map.
-		Set<String> keys = clientsMap.keySet();
-		
-		//For every key retrieve the requester and call dispose method.
-		keys.forEach(requester -> {
-			System.out.println("\n<<<Value " + clientsMap.get(requester) + ">>>\n");
-			clientsMap.get(requester).rsocketClient().dispose();
-			System.out.println("\n<<< isDisposed : " + clientsMap.get(requester).isDisposed() + ">>>\n");
+		//For every registered client call the requester dispose method.
+		clientRegistry.forEach((client, requester) -> {
+			requester.rsocketClient().dispose();
+			log.debug("Client {} detached: {}", client, requester.isDisposed());
 		});
+		clientRegistry.clear();
 		log.info("Shutting down.");
 	}
 	
 	/**
 	 * The connectMapping is the end point which listen for all the incoming connection
 	 * request takes RSocketRequester and String client as a parameter and store it in
-	 * clientMap using client as a key and requester as a value.
+	 * the client registry using client as a key and requester as a value.
 	 *
-	 * @param client	the name use for storing client
-	 * @param requester the connection request from the client
+	 * @param client       the name use for storing client
+	 * @param requester    the connection request from the client
+	 * @param capabilities what the client supports, from the setup metadata
 	 */
 	@ConnectMapping("connect")
-	void connectClientAndAskForTelemetry(RSocketRequester requester, @Payload String client) {
-		Objects.requireNonNull(requester.rsocket())
-				.onClose()
-				.doFirst(() -> {
-					// Add all new clients to a client map
-					log.info("Client: {} CONNECTED.", client);
-					clientsMap.put(client, requester);
-				})
-				.doOnError(error -> {
-					// Warn when channels are closed by clients
-					log.warn("Channel to client {} CLOSED", client);
-				})
-				.doFinally(consumer -> {
-					// Remove disconnected clients from the client map
-					clientsMap.remove(client, requester);
-					log.info("Client {} DISCONNECTED", client);
-				})
-				.doOnCancel(() ->{
-					requester.dispose();
-					clientsMap.remove(client, requester);
-					System.out.println("Client Disconnected");
-				})
-				.subscribe(something -> System.out.println("Client disconnected : " + something));
+	void connectClientAndAskForTelemetry(RSocketRequester requester,
+										 @Payload String client,
+										 @Header(name = MessageCodec.CAPABILITIES_HEADER, required = false) String capabilities) {
+		// Add all new clients to a client map
+		log.info("Client: {} CONNECTED.", client);
+		clientRegistry.register(client, requester);
+		clusterNode.announce(client, true);
+		presence.connected(client);
 		
+		// Pack the messages to clients that can unpack them
+		if (capabilities != null && Arrays.asList(capabilities.split(",")).contains(MessageCodec.CAPABILITY_BATCH)) {
+			channelRelay.acceptBatches(requester);
+		}
 		
 		// Callback to client, confirming connection
-		// And requesting telemetry data to keep connection aliv
-		requester.route("client-status")
-				.data("OPEN")
-				.retrieveFlux(String.class)
-				.doOnNext(s -> log.info("Client: {} Free Memory: {}.", client, s))
-				.subscribe()
-		;
+		// And collecting its telemetry at the interval the server sets,
+		// spread out so reconnecting clients are not all called back at once
+		telemetry.attach(client, requester, admission.telemetryDelay());
+		
+		// Deliver the messages that arrived while the client was away
+		offlineStore.replay(client, requester);
+		
+		// Clean up once, however the connection ends. Subscribed last, so a
+		// connection that closed already undoes all of the above.
+		Objects.requireNonNull(requester.rsocket())
+				.onClose()
+				.doFinally(signal -> disconnect(client, requester))
+				.subscribe(null, error -> log.warn("Connection of client {} CLOSED with an error: {}", client, error.toString()));
 	}
 	
+	/**
+	 * Forgets a client whose connection closed. A newer connection of the same
+	 * client has replaced this one in the registry already, so then the client
+	 * stays online everywhere and only the state of this connection goes.
+	 */
+	private void disconnect(String client, RSocketRequester requester) {
+		if (clientRegistry.evict(client, requester)) {
+			clusterNode.announce(client, false);
+			presence.disconnected(client);
+		}
+		telemetry.detach(client, requester);
+		channelRelay.forget(requester);
+		log.info("Client {} DISCONNECTED", client);
+	}
 	
 	/**
 	 * This @MessageMapping is intended to be used "stream <--> stream" style.
-	 * The incoming stream contains the voice data or video data as bytebuffer.
+	 * The incoming stream contains text messages, voice and video data go
+	 * through media.stream.
 	 *
 	 * @param messageFlux message to be sent to client
 	 * @return return a new messageflux return by the client
@@ -96,62 +182,132 @@ public class RSocketController {
 	@MessageMapping("personal.call")
 	Flux<Message> personalCall(@Payload Flux<Message> messageFlux) {
 		log.info("Received channel request...");
+		return relayPersonal("personal.call", messageFlux);
+	}
+	
+	/**
+	 * Same as personal.call, for senders that pack their messages into batches.
+	 * The batches are unpacked and every message relayed on its own, so the
+	 * receivers decide for themselves whether they get batches.
+	 *
+	 * @param batches the message batches of one sender
+	 * @return the replies of the receivers
+	 */
+	@MessageMapping("personal.batch")
+	Flux<Message> personalBatch(@Payload Flux<MessageBatch> batches) {
+		log.info("Received batch channel request...");
+		return relayPersonal("personal.batch", batches.concatMapIterable(MessageBatch::getMessages));
+	}
+	
+	private Flux<Message> relayPersonal(String route, Flux<Message> messageFlux) {
+		Flux<Message> incoming = messageFlux
+				//keep track of who talks to whom, without holding up the relay.
+				.doOnNext(currentMessage -> audit.record(AuditRoute.PERSONAL_CALL, currentMessage));
 		
-		return messageFlux
-				//For testing purpose to confirm content of message.
-				//doOnNext takes the current flux and do some lambda expression on it.
-				.doOnNext(currentMessage ->
-						System.out.println(
-								"Sender : " + currentMessage.getSender() +
-										"\nReceiver : " + currentMessage.getReceiver() +
-										"\nContent : " + currentMessage.getContent()
-						)
-				)
-				//switchMap takes current flux as a parameter and return a new flux.
-				.switchMap(message ->
-						{
-							//Using the current messageflux to extract the reciever and use it
-							//to retrieve the requester assigned using this name and call this
-							//requester method to target the client call end point.
-							if (clientsMap.containsKey(message.getReceiver())){
-								System.out.println("<<<not null>>>\n");
-								return clientsMap
-										//get the requester.
-										.get(message.getReceiver())
-										//target the call end point.
-										.route("call")
-										//send the data to end point.
-										.data(Flux.just(message))
-										//listen for the returned data.
-										.retrieveFlux(Message.class);
-							}
-							//if the requester dose not exist return null.
-							return null;
-						}
-				)
-				//print logs to keep track of things.
-				.log();
+		//relay the messages as configured for this route and merge the replies.
+		return metrics.track(route, messageRelay.relay(route, incoming, personalPolicy));
 	}
 	
+	/**
+	 * Same as personal.call, but the receiver is named in the metadata of the
+	 * first payload so the payloads are relayed without being decoded.
+	 *
+	 * @param receiver the receiver taken from the composite metadata
+	 * @param sender   the requester of the sending client
+	 * @param payloads the raw messages
+	 * @return the raw replies of the receiver
+	 */
+	@MessageMapping("personal.forward")
+	Flux<DataBuffer> personalForward(@Header(MessageCodec.RECEIVER_HEADER) String receiver,
+									 RSocketRequester sender,
+									 @Payload Flux<DataBuffer> payloads) {
+		log.info("Received forward request for {}...", receiver);
+		return metrics.track("personal.forward", forwardRelay.forward(receiver, sender.dataMimeType(), payloads));
+	}
+	
+	/**
+	 * Streams binary media frames (codec id, timestamp, chunk bytes) to the
+	 * receiver named in the metadata. The frames are relayed as they are.
+	 *
+	 * @param receiver the receiver taken from the composite metadata
+	 * @param frames   the encoded media frames
+	 * @return the replies of the receiver
+	 */
+	@MessageMapping("media.stream")
+	Flux<DataBuffer> mediaStream(@Header(MessageCodec.RECEIVER_HEADER) String receiver,
+								 @Payload Flux<DataBuffer> frames) {
+		log.info("Received media stream for {}...", receiver);
+		return metrics.track("media.stream", mediaRelay.relay(receiver, frames));
+	}
+	
+	/**
+	 * Sends a file in checksummed chunks as fast as the client requests them.
+	 * The message content names the file, optionally followed by the offset to
+	 * resume from, such as "video.mp4 1048576".
+	 *
+	 * @param request the file request
+	 * @return the chunks of the file, see {@link FileTransferService}
+	 */
+	@MessageMapping("stream")
+	Flux<DataBuffer> stream(@Payload Message request) {
+		String content = request.getContent() == null ? "" : request.getContent().trim();
+		long offset = 0;
+		int space = content.lastIndexOf(' ');
+		if (space > 0 && content.substring(space + 1).chars().allMatch(Character::isDigit)) {
+			offset = Long.parseLong(content.substring(space + 1));
+			content = content.substring(0, space).trim();
+		}
+		log.info("Received stream request for {} from {}...", content, request.getSender());
+		return metrics.track("stream", fileTransfer.stream(content, offset));
+	}
+	
+	/**
+	 * Relays every incoming message to all online members of the group named by
+	 * the message receiver. The replies of all members are merged back.
+	 *
+	 * @param messageFlux messages addressed to a group
+	 * @return the replies of the group members
+	 */
 	@MessageMapping("group.call")
 	Flux<Message> groupCall(@Payload Flux<Message> messageFlux) {
 		log.info("Received channel request...");
+		RelaySession session = channelRelay.openSession("group.call", groupChannelBufferSize);
 		
-		return messageFlux
-				.doOnNext(message1 ->
-						System.out.println(
-								"Sender : " + message1.getSender() +
-										"\nReceiver : " + message1.getReceiver() +
-										"\nContent : " + message1.getContent()
-						)
-				)
-				.switchMap(message1 ->
-						clientsMap
-								.get(message1.getReceiver())
-								.route("call")
-								.data(Flux.just(message1))
-								.retrieveFlux(Message.class)
-				)
-				.log();
+		return metrics.track("group.call", channelRelay.window(messageFlux)
+				.doOnNext(message1 -> audit.record(AuditRoute.GROUP_CALL, message1))
+				.doOnComplete(session::complete)
+				//flatMap so a new message never cancels the delivery of the previous one.
+				.flatMap(message1 -> {
+					Set<String> members = groupRegistry.members(message1.getReceiver());
+					if (members.isEmpty()) {
+						log.warn("Group {} has no members.", message1.getReceiver());
+						return Flux.empty();
+					}
+					return groupFanout.fanout(message1, members, session);
+				}, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Group management uses the message sender as the member and the message
+	 * receiver as the name of the group. Replies are plain status strings, which
+	 * every data mime type can carry.
+	 */
+	@MessageMapping("group.create")
+	Mono<String> createGroup(@Payload Message request) {
+		boolean created = groupRegistry.create(request.getReceiver());
+		if (request.getSender() != null) {
+			groupRegistry.join(request.getReceiver(), request.getSender());
+		}
+		return Mono.just(created ? "CREATED" : "EXISTS");
+	}
+	
+	@MessageMapping("group.join")
+	Mono<String> joinGroup(@Payload Message request) {
+		return Mono.just(groupRegistry.join(request.getReceiver(), request.getSender()) ? "JOINED" : "MEMBER");
+	}
+	
+	@MessageMapping("group.leave")
+	Mono<String> leaveGroup(@Payload Message request) {
+		return Mono.just(groupRegistry.leave(request.getReceiver(), request.getSender()) ? "LEFT" : "NOT_MEMBER");
 	}
 }
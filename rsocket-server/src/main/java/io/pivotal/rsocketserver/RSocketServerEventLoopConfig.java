@@ -0,0 +1,105 @@
+package io.pivotal.rsocketserver;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+
+
+/**
+ * Run the WebSocket and TCP listeners on event loops of their own instead of
+ * the global Reactor Netty ones. A dedicated select thread accepts connections,
+ * so a connect storm does not wait behind frame I/O, and the native epoll
+ * transport is used where it is available unless rsocket.event-loop.native is
+ * false. Anything that may block runs on the {@code ServerSchedulers}.
+ */
+@Slf4j
+@Configuration
+public class RSocketServerEventLoopConfig {
+
+    @Bean
+    public ReactorResourceFactory rsocketResourceFactory(@Value("${rsocket.event-loop.select-threads:1}") int selectThreads,
+                                                         @Value("${rsocket.event-loop.worker-threads:0}") int workerThreads,
+                                                         @Value("${rsocket.event-loop.native:true}") boolean preferNative) {
+        int workers = workerThreads > 0 ? workerThreads : LoopResources.DEFAULT_IO_WORKER_COUNT;
+        boolean useNative = preferNative && LoopResources.hasNativeSupport();
+        ReactorResourceFactory factory = new ReactorResourceFactory();
+        factory.setUseGlobalResources(false);
+        factory.setLoopResourcesSupplier(() ->
+                new TransportLoopResources(LoopResources.create("rsocket-server", selectThreads, workers, true), useNative));
+        log.info("RSocket event loops: {} select and {} worker threads on {}.", selectThreads, workers, useNative ? "epoll" : "NIO");
+        return factory;
+    }
+
+    /**
+     * Reactor Netty picks the native transport from a system property; this
+     * decides it per server instead.
+     */
+    private static final class TransportLoopResources implements LoopResources {
+
+        private final LoopResources delegate;
+        private final boolean useNative;
+
+        TransportLoopResources(LoopResources delegate, boolean useNative) {
+            this.delegate = delegate;
+            this.useNative = useNative;
+        }
+
+        @Override
+        public EventLoopGroup onServer(boolean preferNative) {
+            return delegate.onServer(preferNative && useNative);
+        }
+
+        @Override
+        public EventLoopGroup onServerSelect(boolean preferNative) {
+            return delegate.onServerSelect(preferNative && useNative);
+        }
+
+        @Override
+        public EventLoopGroup onClient(boolean preferNative) {
+            return delegate.onClient(preferNative && useNative);
+        }
+
+        @Override
+        public <CHANNEL extends Channel> CHANNEL onChannel(Class<CHANNEL> channelType, EventLoopGroup group) {
+            return delegate.onChannel(channelType, group);
+        }
+
+        @Override
+        public <CHANNEL extends Channel> Class<? extends CHANNEL> onChannelClass(Class<CHANNEL> channelType, EventLoopGroup group) {
+            return delegate.onChannelClass(channelType, group);
+        }
+
+        @Override
+        public boolean daemon() {
+            return delegate.daemon();
+        }
+
+        @Override
+        public void dispose() {
+            delegate.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return delegate.isDisposed();
+        }
+
+        @Override
+        public Mono<Void> disposeLater() {
+            return delegate.disposeLater();
+        }
+
+        @Override
+        public Mono<Void> disposeLater(Duration quietPeriod, Duration timeout) {
+            return delegate.disposeLater(quietPeriod, timeout);
+        }
+    }
+}
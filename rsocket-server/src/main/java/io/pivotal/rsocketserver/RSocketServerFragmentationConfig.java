@@ -0,0 +1,29 @@
+package io.pivotal.rsocketserver;
+
+import io.rsocket.core.RSocketServer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Split frames larger than the configured MTU, so one large media chunk does
+ * not hold up other streams on the same connection. 0 turns fragmentation off.
+ */
+@Component
+public class RSocketServerFragmentationConfig implements RSocketServerCustomizer {
+
+    private final int mtu;
+
+    public RSocketServerFragmentationConfig(@Value("${rsocket.fragment-mtu:0}") int mtu) {
+        this.mtu = mtu;
+    }
+
+    @Override
+    public void customize(RSocketServer rSocketServer) {
+        if (mtu > 0) {
+            rSocketServer.fragment(mtu);
+        }
+    }
+
+}
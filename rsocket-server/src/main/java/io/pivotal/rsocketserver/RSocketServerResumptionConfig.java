@@ -1,24 +1,44 @@
 package io.pivotal.rsocketserver;
 
+import io.pivotal.rsocketserver.resume.ResumptionStore;
 import io.rsocket.core.RSocketServer;
 import io.rsocket.core.Resume;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 
 /**
  * Make the socket capable of resumption.
- * By default, the Resume Session will have a duration of 120s, a timeout of
- * 10s, and use the In Memory (volatile, non-persistent) session store.
+ * The frames kept for resumption live in the {@link ResumptionStore}, which
+ * caps them per session and moves the older ones to memory-mapped files
+ * instead of keeping them all on the heap.
  */
 @Profile("resumption")
 @Component
 public class RSocketServerResumptionConfig implements RSocketServerCustomizer {
 
+    private final ResumptionStore store;
+    private final Duration sessionDuration;
+    private final Duration streamTimeout;
+
+    public RSocketServerResumptionConfig(ResumptionStore store,
+                                         @Value("${rsocket.resumption.session-duration:120s}") Duration sessionDuration,
+                                         @Value("${rsocket.resumption.stream-timeout:10s}") Duration streamTimeout) {
+        this.store = store;
+        this.sessionDuration = sessionDuration;
+        this.streamTimeout = streamTimeout;
+    }
+
     @Override
     public void customize(RSocketServer rSocketServer) {
-        rSocketServer.resume(new Resume());
+        rSocketServer.resume(new Resume()
+                .sessionDuration(sessionDuration)
+                .streamTimeout(streamTimeout)
+                .storeFactory(store::create));
     }
 
 }
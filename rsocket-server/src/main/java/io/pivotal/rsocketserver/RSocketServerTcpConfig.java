@@ -0,0 +1,84 @@
+package io.pivotal.rsocketserver;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.netty.NettyRSocketServerFactory;
+import org.springframework.boot.rsocket.server.RSocketServer;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.stream.Collectors;
+
+
+/**
+ * Listen on plain TCP next to the WebSocket transport of spring.rsocket.server.
+ * Clients inside the data center gain nothing from the HTTP upgrade and the
+ * WebSocket framing. Both listeners share the message handler and the server
+ * customizers, so routes, fragmentation and resumption behave the same on both.
+ */
+@Slf4j
+@Component
+public class RSocketServerTcpConfig implements SmartLifecycle {
+
+    private final RSocketMessageHandler messageHandler;
+    private final ObjectProvider<RSocketServerCustomizer> customizers;
+    private final ReactorResourceFactory resourceFactory;
+    private final boolean enabled;
+    private final int port;
+
+    private volatile RSocketServer server;
+
+    public RSocketServerTcpConfig(RSocketMessageHandler messageHandler,
+                                  ObjectProvider<RSocketServerCustomizer> customizers,
+                                  ReactorResourceFactory resourceFactory,
+                                  @Value("${rsocket.tcp.enabled:true}") boolean enabled,
+                                  @Value("${rsocket.tcp.port:8077}") int port) {
+        this.messageHandler = messageHandler;
+        this.customizers = customizers;
+        this.resourceFactory = resourceFactory;
+        this.enabled = enabled;
+        this.port = port;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        NettyRSocketServerFactory factory = new NettyRSocketServerFactory();
+        factory.setResourceFactory(resourceFactory);
+        factory.setTransport(RSocketServer.Transport.TCP);
+        factory.setPort(port);
+        factory.setRSocketServerCustomizers(customizers.orderedStream().collect(Collectors.toList()));
+        RSocketServer tcpServer = factory.create(messageHandler.responder());
+        tcpServer.start();
+        server = tcpServer;
+        log.info("RSocket TCP transport listening on port {}.", tcpServer.address().getPort());
+    }
+
+    @Override
+    public void stop() {
+        RSocketServer tcpServer = server;
+        if (tcpServer != null) {
+            tcpServer.stop();
+            server = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * @return the port the TCP transport listens on, or -1 if it is not running
+     */
+    public int getPort() {
+        RSocketServer tcpServer = server;
+        return tcpServer == null ? -1 : tcpServer.address().getPort();
+    }
+}
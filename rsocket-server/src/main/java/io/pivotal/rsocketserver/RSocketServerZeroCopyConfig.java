@@ -0,0 +1,22 @@
+package io.pivotal.rsocketserver;
+
+import io.rsocket.core.RSocketServer;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Hand incoming payloads to the handlers as slices of the received frames
+ * instead of copies, so forwarded payloads can be relayed without copying.
+ * Every decoder releases the buffers it reads.
+ */
+@Component
+public class RSocketServerZeroCopyConfig implements RSocketServerCustomizer {
+
+    @Override
+    public void customize(RSocketServer rSocketServer) {
+        rSocketServer.payloadDecoder(PayloadDecoder.ZERO_COPY);
+    }
+
+}
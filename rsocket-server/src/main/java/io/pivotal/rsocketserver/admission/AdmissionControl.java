@@ -0,0 +1,180 @@
+package io.pivotal.rsocketserver.admission;
+
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.rsocket.RSocket;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.exceptions.RejectedSetupException;
+import io.rsocket.plugins.SocketAcceptorInterceptor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admits new connections at a pace the server can take, before the "connect"
+ * mapping sees them.
+ * <p>
+ * Every SETUP passes three checks:
+ * <ul>
+ * <li>the budget of {@code rsocket.admission.max-connections} live connections
+ * on this node;</li>
+ * <li>a token bucket per client, so one client reconnecting in a loop cannot use
+ * up the setup rate of the others. Clients are told apart by the setup data, as
+ * rsocket-java does not hand the remote address to the acceptor;</li>
+ * <li>a token bucket for the whole node. A setup that finds it empty is queued
+ * until its token is due, for at most {@code rsocket.admission.max-wait}.</li>
+ * </ul>
+ * A setup that fails a check gets REJECTED_SETUP with a message ending in
+ * {@code retry-after=<millis>ms}, the earliest time another attempt can pass.
+ * The telemetry channel of an admitted client starts after a random delay, so a
+ * reconnect storm does not also turn into a storm of callbacks.
+ */
+@Slf4j
+@Component
+public class AdmissionControl implements RSocketServerCustomizer, SocketAcceptorInterceptor {
+	
+	public static final String RETRY_AFTER = "retry-after=";
+	
+	static final String ADMITTED = "admitted";
+	static final String QUEUED = "queued";
+	static final String REJECTED = "rejected";
+	
+	private final boolean enabled;
+	private final int maxConnections;
+	private final TokenBucket node;
+	private final double clientSetupsPerSecond;
+	private final int clientBurst;
+	private final long maxWaitNanos;
+	private final long telemetryJitterMillis;
+	private final RelayMetrics metrics;
+	
+	private final Map<String, TokenBucket> clients = new ConcurrentHashMap<>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private Disposable pruner;
+	
+	public AdmissionControl(@Value("${rsocket.admission.enabled:true}") boolean enabled,
+							@Value("${rsocket.admission.max-connections:100000}") int maxConnections,
+							@Value("${rsocket.admission.setups-per-second:500}") double setupsPerSecond,
+							@Value("${rsocket.admission.burst:1000}") int burst,
+							@Value("${rsocket.admission.client-setups-per-second:1}") double clientSetupsPerSecond,
+							@Value("${rsocket.admission.client-burst:5}") int clientBurst,
+							@Value("${rsocket.admission.max-wait:5s}") Duration maxWait,
+							@Value("${rsocket.admission.telemetry-jitter:2s}") Duration telemetryJitter,
+							RelayMetrics metrics) {
+		this.enabled = enabled;
+		this.maxConnections = maxConnections;
+		this.node = new TokenBucket(setupsPerSecond, burst, System.nanoTime());
+		this.clientSetupsPerSecond = clientSetupsPerSecond;
+		this.clientBurst = clientBurst;
+		this.maxWaitNanos = maxWait.toNanos();
+		this.telemetryJitterMillis = telemetryJitter.toMillis();
+		this.metrics = metrics;
+		metrics.gauge("rsocket.admission.connections", "Connections admitted and still open", connections, AtomicInteger::get);
+		metrics.gauge("rsocket.admission.queued", "Setups waiting for their turn", queued, AtomicInteger::get);
+	}
+	
+	@PostConstruct
+	void start() {
+		//buckets that filled up again are the same as new ones.
+		pruner = Flux.interval(Duration.ofMinutes(1))
+				.subscribe(tick -> prune(System.nanoTime()), error -> log.error("Admission buckets are not pruned anymore.", error));
+	}
+	
+	@PreDestroy
+	void stop() {
+		if (pruner != null) {
+			pruner.dispose();
+		}
+	}
+	
+	@Override
+	public void customize(RSocketServer rSocketServer) {
+		if (enabled) {
+			rSocketServer.interceptors(registry -> registry.forSocketAcceptor(this));
+		}
+	}
+	
+	@Override
+	public SocketAcceptor apply(SocketAcceptor acceptor) {
+		return (setup, sendingSocket) -> admit(setup.getDataUtf8(), sendingSocket)
+				.then(Mono.defer(() -> acceptor.accept(setup, sendingSocket)));
+	}
+	
+	/**
+	 * @return how long to wait before opening the telemetry channel of a client
+	 * that was just admitted
+	 */
+	public Duration telemetryDelay() {
+		if (!enabled || telemetryJitterMillis <= 0) {
+			return Duration.ZERO;
+		}
+		return Duration.ofMillis(ThreadLocalRandom.current().nextLong(telemetryJitterMillis));
+	}
+	
+	public int getConnections() {
+		return connections.get();
+	}
+	
+	public int getQueued() {
+		return queued.get();
+	}
+	
+	Mono<Void> admit(String client, RSocket sendingSocket) {
+		long now = System.nanoTime();
+		if (connections.incrementAndGet() > maxConnections) {
+			connections.decrementAndGet();
+			return reject("Connection budget of " + maxConnections + " is used up", maxWaitNanos);
+		}
+		TokenBucket bucket = clients.computeIfAbsent(client, key -> new TokenBucket(clientSetupsPerSecond, clientBurst, now));
+		if (bucket.reserve(now, 0) < 0) {
+			connections.decrementAndGet();
+			return reject("Client " + client + " connects too often", bucket.waitFor(now));
+		}
+		long wait = node.reserve(now, maxWaitNanos);
+		if (wait < 0) {
+			connections.decrementAndGet();
+			//the client did not get in, so it keeps its token.
+			bucket.refund();
+			return reject("Server is busy", node.waitFor(now));
+		}
+		
+		//the slot is given back however the connection ends, queued or not.
+		sendingSocket.onClose()
+				.doFinally(signal -> connections.decrementAndGet())
+				.subscribe(null, error -> { });
+		if (wait == 0) {
+			metrics.admission(ADMITTED);
+			return Mono.empty();
+		}
+		metrics.admission(QUEUED);
+		queued.incrementAndGet();
+		return Mono.delay(Duration.ofNanos(wait))
+				.doFinally(signal -> queued.decrementAndGet())
+				.then();
+	}
+	
+	void prune(long now) {
+		clients.entrySet().removeIf(entry -> entry.getValue().isFull(now));
+	}
+	
+	private Mono<Void> reject(String reason, long retryAfterNanos) {
+		metrics.admission(REJECTED);
+		long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+		log.debug("Setup rejected: {}.", reason);
+		return Mono.error(new RejectedSetupException(reason + ", " + RETRY_AFTER + retryAfter + "ms"));
+	}
+}
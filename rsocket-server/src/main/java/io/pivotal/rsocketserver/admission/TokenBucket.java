@@ -0,0 +1,62 @@
+package io.pivotal.rsocketserver.admission;
+
+/**
+ * A token bucket kept as a single theoretical arrival time (GCRA), so it needs
+ * no refill timer and one comparison per take.
+ * <p>
+ * A take is due one interval after the previous one; up to {@code burst} takes
+ * may come early. A take that is not due yet can be reserved ahead, and the
+ * caller waits out the difference.
+ * <p>
+ * Times come from {@link System#nanoTime()}, which may be negative, so the
+ * arrival starts at the creation time and is only compared by difference.
+ */
+final class TokenBucket {
+	
+	private final long interval;
+	private final long tolerance;
+	private long arrival;
+	
+	TokenBucket(double perSecond, int burst, long now) {
+		this.interval = (long) (1_000_000_000L / Math.max(perSecond, 1e-3));
+		this.tolerance = interval * (Math.max(burst, 1) - 1L);
+		this.arrival = now;
+	}
+	
+	/**
+	 * Takes a token now or reserves the next one within the given wait.
+	 *
+	 * @return the nanos to wait before the token is due, or -1 if even that
+	 * would take longer than {@code maxWaitNanos} and nothing was taken
+	 */
+	synchronized long reserve(long now, long maxWaitNanos) {
+		long next = arrival - now > 0 ? arrival : now;
+		long wait = Math.max(0, next - tolerance - now);
+		if (wait > maxWaitNanos) {
+			return -1;
+		}
+		arrival = next + interval;
+		return wait;
+	}
+	
+	/**
+	 * Gives back the token of a take whose setup was rejected further on.
+	 */
+	synchronized void refund() {
+		arrival -= interval;
+	}
+	
+	/**
+	 * @return the nanos until a token can be taken without waiting
+	 */
+	synchronized long waitFor(long now) {
+		return Math.max(0, arrival - now - tolerance);
+	}
+	
+	/**
+	 * @return true if the bucket is full again, so forgetting it changes nothing
+	 */
+	synchronized boolean isFull(long now) {
+		return arrival - now <= 0;
+	}
+}
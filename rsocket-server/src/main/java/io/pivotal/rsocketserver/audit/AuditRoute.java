@@ -0,0 +1,27 @@
+package io.pivotal.rsocketserver.audit;
+
+/**
+ * The routes whose messages are written to the {@link RelayAuditLog}. A record
+ * keeps the ordinal, so the order must not change.
+ */
+public enum AuditRoute {
+	
+	PERSONAL_CALL("personal.call"),
+	GROUP_CALL("group.call");
+	
+	private static final AuditRoute[] VALUES = values();
+	
+	private final String route;
+	
+	AuditRoute(String route) {
+		this.route = route;
+	}
+	
+	public String getRoute() {
+		return route;
+	}
+	
+	static AuditRoute of(int ordinal) {
+		return VALUES[ordinal];
+	}
+}
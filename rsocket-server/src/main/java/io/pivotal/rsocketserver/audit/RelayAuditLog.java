@@ -0,0 +1,230 @@
+package io.pivotal.rsocketserver.audit;
+
+import io.pivotal.rsocketserver.data.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit trail of relayed messages that stays off the relay threads.
+ * <p>
+ * Records are fixed size and binary, written into a ring allocated once:
+ * <pre>
+ * [long timestampMillis][byte route][byte senderLength][sender][byte receiverLength][receiver]
+ * </pre>
+ * Names are kept as ASCII and cut at {@value #NAME_SIZE} characters, other
+ * characters become '?'. A relay thread claims a slot with one CAS, copies the
+ * names in and publishes the slot, without allocating or taking a lock. A single
+ * background thread drains the published records into the log.
+ * <p>
+ * Only every {@code sample-every}th message is recorded, and no more than
+ * {@code max-per-second}. When the ring is full the record is dropped and
+ * counted, the relay never waits for the log.
+ */
+@Slf4j
+@Component
+public class RelayAuditLog {
+	
+	static final int NAME_SIZE = 31;
+	static final int RECORD_SIZE = Long.BYTES + 1 + (1 + NAME_SIZE) * 2;
+	private static final int ROUTE_OFFSET = Long.BYTES;
+	private static final int SENDER_OFFSET = ROUTE_OFFSET + 1;
+	private static final int RECEIVER_OFFSET = SENDER_OFFSET + 1 + NAME_SIZE;
+	private static final byte NULL_NAME = -1;
+	
+	private final boolean enabled;
+	private final int capacity;
+	private final int mask;
+	private final long sampleEvery;
+	private final long maxPerSecond;
+	private final long drainIntervalNanos;
+	
+	private final ByteBuffer records;
+	// seq + 1 of the record published in each slot
+	private final AtomicLongArray published;
+	private final AtomicLong head = new AtomicLong();
+	private volatile long tail;
+	
+	private final AtomicLong offered = new AtomicLong();
+	private final AtomicLong window = new AtomicLong();
+	private final AtomicLong windowCount = new AtomicLong();
+	
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder rateLimited = new LongAdder();
+	private final LongAdder overflow = new LongAdder();
+	
+	private volatile boolean running;
+	private Thread drainer;
+	
+	public RelayAuditLog(@Value("${rsocket.audit.enabled:true}") boolean enabled,
+						 @Value("${rsocket.audit.capacity:8192}") int capacity,
+						 @Value("${rsocket.audit.sample-every:1}") long sampleEvery,
+						 @Value("${rsocket.audit.max-per-second:10000}") long maxPerSecond,
+						 @Value("${rsocket.audit.drain-interval:10ms}") Duration drainInterval) {
+		this.enabled = enabled;
+		this.capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.sampleEvery = Math.max(1, sampleEvery);
+		this.maxPerSecond = maxPerSecond <= 0 ? Long.MAX_VALUE : maxPerSecond;
+		this.drainIntervalNanos = drainInterval.toNanos();
+		this.records = ByteBuffer.allocateDirect(this.capacity * RECORD_SIZE);
+		this.published = new AtomicLongArray(this.capacity);
+	}
+	
+	@PostConstruct
+	void start() {
+		if (!enabled) {
+			return;
+		}
+		running = true;
+		drainer = new Thread(() -> {
+			while (running) {
+				if (drain(this::write) == 0) {
+					LockSupport.parkNanos(drainIntervalNanos);
+				}
+			}
+			drain(this::write);
+		}, "relay-audit");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+	
+	@PreDestroy
+	void stop() throws InterruptedException {
+		running = false;
+		if (drainer != null) {
+			LockSupport.unpark(drainer);
+			drainer.join(1000);
+		}
+		log.info("Relay audit: {} recorded, {} rate limited, {} lost to a full ring.",
+				getRecorded(), getRateLimited(), getOverflow());
+	}
+	
+	/**
+	 * Records the message if it is sampled and within the rate limit.
+	 *
+	 * @return true if the message was recorded
+	 */
+	public boolean record(AuditRoute route, Message message) {
+		return record(route, message.getSender(), message.getReceiver());
+	}
+	
+	public boolean record(AuditRoute route, String sender, String receiver) {
+		if (!enabled || (sampleEvery > 1 && offered.getAndIncrement() % sampleEvery != 0) || !withinRate()) {
+			return false;
+		}
+		long seq;
+		do {
+			seq = head.get();
+			if (seq - tail >= capacity) {
+				overflow.increment();
+				return false;
+			}
+		} while (!head.compareAndSet(seq, seq + 1));
+		
+		int slot = (int) (seq & mask);
+		int offset = slot * RECORD_SIZE;
+		records.putLong(offset, System.currentTimeMillis());
+		records.put(offset + ROUTE_OFFSET, (byte) route.ordinal());
+		putName(offset + SENDER_OFFSET, sender);
+		putName(offset + RECEIVER_OFFSET, receiver);
+		published.lazySet(slot, seq + 1);
+		recorded.increment();
+		return true;
+	}
+	
+	/**
+	 * Hands every published record to the consumer, in order. Must only be called
+	 * from one thread at a time, normally the drainer.
+	 *
+	 * @return the number of records drained
+	 */
+	int drain(RecordConsumer consumer) {
+		byte[] scratch = new byte[NAME_SIZE];
+		int drained = 0;
+		long next = tail;
+		int slot = (int) (next & mask);
+		while (published.get(slot) == next + 1) {
+			int offset = slot * RECORD_SIZE;
+			consumer.accept(records.getLong(offset),
+					AuditRoute.of(records.get(offset + ROUTE_OFFSET)),
+					getName(offset + SENDER_OFFSET, scratch),
+					getName(offset + RECEIVER_OFFSET, scratch));
+			tail = ++next;
+			slot = (int) (next & mask);
+			drained++;
+		}
+		return drained;
+	}
+	
+	public long getRecorded() {
+		return recorded.sum();
+	}
+	
+	public long getRateLimited() {
+		return rateLimited.sum();
+	}
+	
+	public long getOverflow() {
+		return overflow.sum();
+	}
+	
+	private boolean withinRate() {
+		if (maxPerSecond == Long.MAX_VALUE) {
+			return true;
+		}
+		long second = System.currentTimeMillis() / 1000;
+		long current = window.get();
+		if (second != current && window.compareAndSet(current, second)) {
+			windowCount.set(0);
+		}
+		if (windowCount.incrementAndGet() > maxPerSecond) {
+			rateLimited.increment();
+			return false;
+		}
+		return true;
+	}
+	
+	private void putName(int offset, String name) {
+		if (name == null) {
+			records.put(offset, NULL_NAME);
+			return;
+		}
+		int length = Math.min(name.length(), NAME_SIZE);
+		records.put(offset, (byte) length);
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			records.put(offset + 1 + i, c < 0x80 ? (byte) c : (byte) '?');
+		}
+	}
+	
+	private String getName(int offset, byte[] scratch) {
+		int length = records.get(offset);
+		if (length == NULL_NAME) {
+			return null;
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = records.get(offset + 1 + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.US_ASCII);
+	}
+	
+	private void write(long timestamp, AuditRoute route, String sender, String receiver) {
+		log.info("{} {} -> {} at {}", route.getRoute(), sender, receiver, timestamp);
+	}
+	
+	@FunctionalInterface
+	interface RecordConsumer {
+		void accept(long timestamp, AuditRoute route, String sender, String receiver);
+	}
+}
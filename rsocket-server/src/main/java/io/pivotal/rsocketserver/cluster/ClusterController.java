@@ -0,0 +1,62 @@
+package io.pivotal.rsocketserver.cluster;
+
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.relay.ForwardRelay;
+import io.pivotal.rsocketserver.relay.MessageRelay;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.annotation.ConnectMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+
+/**
+ * The routes other nodes of the cluster call. Messages arriving here are only
+ * delivered to local clients, never relayed on to a third node.
+ */
+@Slf4j
+@Controller
+public class ClusterController {
+	
+	private final ClusterNode clusterNode;
+	private final MessageRelay messageRelay;
+	private final ForwardRelay forwardRelay;
+	private final RelayMetrics metrics;
+	
+	public ClusterController(ClusterNode clusterNode,
+							 MessageRelay messageRelay,
+							 ForwardRelay forwardRelay,
+							 RelayMetrics metrics) {
+		this.clusterNode = clusterNode;
+		this.messageRelay = messageRelay;
+		this.forwardRelay = forwardRelay;
+		this.metrics = metrics;
+	}
+	
+	@ConnectMapping("cluster.join")
+	void join(@Payload String node) {
+		log.info("Cluster node {} linked to {}.", node, clusterNode.getNodeId());
+	}
+	
+	@MessageMapping("cluster.sync")
+	Flux<Message> sync(@Payload String node) {
+		return clusterNode.presence(node);
+	}
+	
+	@MessageMapping("cluster.call")
+	Flux<Message> call(@Payload Flux<Message> messages) {
+		return metrics.track("cluster.call", messageRelay.relayLocal(messages));
+	}
+	
+	@MessageMapping("cluster.forward")
+	Flux<DataBuffer> forward(@Header(MessageCodec.RECEIVER_HEADER) String receiver,
+							 RSocketRequester peer,
+							 @Payload Flux<DataBuffer> payloads) {
+		return metrics.track("cluster.forward", forwardRelay.forwardLocal(receiver, peer.dataMimeType(), payloads));
+	}
+}
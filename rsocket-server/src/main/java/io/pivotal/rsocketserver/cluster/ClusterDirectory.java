@@ -0,0 +1,62 @@
+package io.pivotal.rsocketserver.cluster;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Knows which node of the cluster each remote client is connected to.
+ * <p>
+ * Every node builds its own copy from the presence events of its peers, so there
+ * is no coordinator. Local clients are not kept here, the {@code ClientRegistry}
+ * holds them.
+ */
+@Component
+public class ClusterDirectory {
+	
+	private final Map<String, String> nodes = new ConcurrentHashMap<>();
+	
+	public void online(String client, String node) {
+		nodes.put(client, node);
+	}
+	
+	/**
+	 * Removes the client only if it is still mapped to the given node, so a late
+	 * event of an old node never hides the client on a newer one.
+	 *
+	 * @return true if the client was removed
+	 */
+	public boolean offline(String client, String node) {
+		return nodes.remove(client, node);
+	}
+	
+	/**
+	 * @return the node the client is connected to, or null if unknown
+	 */
+	public String nodeOf(String client) {
+		return nodes.get(client);
+	}
+	
+	/**
+	 * Forgets every client of a node, used when the link to that node is lost.
+	 *
+	 * @return the number of clients removed
+	 */
+	public int removeNode(String node) {
+		int removed = 0;
+		Iterator<Map.Entry<String, String>> iterator = nodes.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getValue().equals(node)) {
+				iterator.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+	
+	public int size() {
+		return nodes.size();
+	}
+}
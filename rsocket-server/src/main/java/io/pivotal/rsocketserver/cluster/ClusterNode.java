@@ -0,0 +1,221 @@
+package io.pivotal.rsocketserver.cluster;
+
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This server as one node of a cluster.
+ * <p>
+ * The node dials every configured peer once and keeps the connection for the
+ * life of the node. Over it, the peer streams the presence of its local clients
+ * ("cluster.sync"), which fills the {@link ClusterDirectory}, and the node
+ * relays messages for the peer's clients ("cluster.call", "cluster.forward").
+ * A lost link is dialled again, and the clients of that peer are forgotten
+ * until its presence stream is back.
+ * <p>
+ * Presence events are messages with the client as sender, the node as receiver
+ * and {@link #ONLINE} or {@link #OFFLINE} as content.
+ */
+@Slf4j
+@Component
+public class ClusterNode {
+	
+	public static final String ONLINE = "ONLINE";
+	public static final String OFFLINE = "OFFLINE";
+	
+	private final boolean enabled;
+	private final String nodeId;
+	private final List<URI> peerUris = new ArrayList<>();
+	private final Duration retryInterval;
+	private final ClientRegistry clientRegistry;
+	private final ClusterDirectory directory;
+	private final RSocketRequester.Builder builder;
+	
+	// one buffer per subscribed peer, so a peer that is slow to request misses nothing
+	private final Set<Sinks.Many<Message>> subscribers = ConcurrentHashMap.newKeySet();
+	private final Map<String, RSocketRequester> peers = new ConcurrentHashMap<>();
+	private final List<Disposable> links = new ArrayList<>();
+	
+	private final LongAdder forwarded = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+	
+	public ClusterNode(@Value("${rsocket.cluster.enabled:false}") boolean enabled,
+					   @Value("${rsocket.cluster.node-id:${spring.rsocket.server.port:7077}}") String nodeId,
+					   @Value("${rsocket.cluster.peers:}") List<String> peers,
+					   @Value("${rsocket.cluster.retry-interval:2s}") Duration retryInterval,
+					   ClientRegistry clientRegistry,
+					   ClusterDirectory directory,
+					   RSocketRequester.Builder builder) {
+		this.enabled = enabled;
+		this.nodeId = nodeId;
+		for (String peer : peers) {
+			if (!peer.isBlank()) {
+				peerUris.add(URI.create(peer.trim()));
+			}
+		}
+		this.retryInterval = retryInterval;
+		this.clientRegistry = clientRegistry;
+		this.directory = directory;
+		this.builder = builder;
+	}
+	
+	@PostConstruct
+	void start() {
+		if (!enabled) {
+			return;
+		}
+		log.info("Cluster node {} linking to peers {}.", nodeId, peerUris);
+		RSocketRequester.Builder setup = builder
+				.setupRoute("cluster.join")
+				.setupData(nodeId)
+				.dataMimeType(MessageCodec.MIME_TYPE);
+		for (URI uri : peerUris) {
+			links.add(link(uri, "tcp".equals(uri.getScheme())
+					? setup.tcp(uri.getHost(), uri.getPort())
+					: setup.websocket(uri)));
+		}
+	}
+	
+	@PreDestroy
+	void stop() {
+		links.forEach(Disposable::dispose);
+		peers.values().forEach(RSocketRequester::dispose);
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public String getNodeId() {
+		return nodeId;
+	}
+	
+	/**
+	 * Tells the peers that a local client connected or disconnected.
+	 */
+	public void announce(String client, boolean online) {
+		if (!enabled) {
+			return;
+		}
+		Message event = new Message(client, nodeId, online ? ONLINE : OFFLINE);
+		//connects and disconnects arrive on many threads, the sinks take one at a time.
+		synchronized (subscribers) {
+			subscribers.forEach(sink -> sink.tryEmitNext(event));
+		}
+	}
+	
+	/**
+	 * The presence stream a peer subscribes to: every local client, then every
+	 * change from here on. Changes are buffered until the peer requests them.
+	 *
+	 * @param peer the node id of the subscribing peer
+	 */
+	public Flux<Message> presence(String peer) {
+		return Flux.defer(() -> {
+			log.info("Node {} subscribed to the presence of {}.", peer, nodeId);
+			Sinks.Many<Message> changes = Sinks.many().unicast().onBackpressureBuffer();
+			List<Message> snapshot = new ArrayList<>();
+			//no change can slip in between the snapshot and the first buffered one.
+			synchronized (subscribers) {
+				subscribers.add(changes);
+				clientRegistry.forEach((client, requester) -> snapshot.add(new Message(client, nodeId, ONLINE)));
+			}
+			return Flux.fromIterable(snapshot)
+					.concatWith(changes.asFlux())
+					.doFinally(signal -> subscribers.remove(changes));
+		});
+	}
+	
+	/**
+	 * @param client the name of a client that is not connected here
+	 * @return the requester of the node the client is connected to, or null if
+	 * no peer has it
+	 */
+	public RSocketRequester peerFor(String client) {
+		if (!enabled) {
+			return null;
+		}
+		String node = directory.nodeOf(client);
+		if (node == null || node.equals(nodeId)) {
+			return null;
+		}
+		RSocketRequester peer = peers.get(node);
+		if (peer != null) {
+			forwarded.increment();
+		}
+		return peer;
+	}
+	
+	public int getPeers() {
+		return peers.size();
+	}
+	
+	public long getForwarded() {
+		return forwarded.sum();
+	}
+	
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+	
+	private Disposable link(URI uri, RSocketRequester requester) {
+		AtomicReference<String> peer = new AtomicReference<>();
+		return requester
+				.route("cluster.sync")
+				.data(nodeId)
+				.retrieveFlux(Message.class)
+				.doOnNext(event -> apply(event, requester, peer))
+				//the presence stream never ends while the peer is up.
+				.concatWith(Mono.error(() -> new IllegalStateException("Presence stream of " + uri + " completed")))
+				.doOnError(error -> detach(peer.getAndSet(null), error))
+				.retryWhen(Retry.fixedDelay(Long.MAX_VALUE, retryInterval)
+						.doBeforeRetry(signal -> reconnects.increment()))
+				.subscribe();
+	}
+	
+	private void apply(Message event, RSocketRequester requester, AtomicReference<String> peer) {
+		String node = event.getReceiver();
+		if (peer.get() == null) {
+			peer.set(node);
+			peers.put(node, requester);
+			log.info("Linked to cluster node {}.", node);
+		}
+		if (ONLINE.equals(event.getContent())) {
+			directory.online(event.getSender(), node);
+		} else {
+			directory.offline(event.getSender(), node);
+		}
+	}
+	
+	private void detach(String node, Throwable error) {
+		if (node == null) {
+			log.debug("Cluster peer not reachable: {}", error.toString());
+			return;
+		}
+		peers.remove(node);
+		int removed = directory.removeNode(node);
+		log.warn("Link to cluster node {} lost, {} clients forgotten: {}", node, removed, error.toString());
+	}
+}
@@ -0,0 +1,62 @@
+package io.pivotal.rsocketserver.codec;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.MessageBatch;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link MessageBatch} in the {@link MessageCodec} batch layout, into
+ * one buffer sized up front.
+ */
+public class MessageBatchEncoder extends AbstractEncoder<MessageBatch> {
+	
+	public MessageBatchEncoder() {
+		super(MessageCodec.MIME_TYPE);
+	}
+	
+	@Override
+	public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+		return MessageBatch.class.isAssignableFrom(elementType.toClass()) && super.canEncode(elementType, mimeType);
+	}
+	
+	@Override
+	public Flux<DataBuffer> encode(Publisher<? extends MessageBatch> inputStream, DataBufferFactory bufferFactory,
+								   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+		return Flux.from(inputStream).map(batch -> encodeValue(batch, bufferFactory, elementType, mimeType, hints));
+	}
+	
+	@Override
+	public DataBuffer encodeValue(MessageBatch batch, DataBufferFactory bufferFactory,
+								  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+		List<Message> messages = batch.getMessages();
+		byte[][] fields = new byte[messages.size() * 3][];
+		int size = 1 + 4;
+		for (int i = 0; i < messages.size(); i++) {
+			Message message = messages.get(i);
+			fields[i * 3] = MessageCodec.bytes(message.getSender());
+			fields[i * 3 + 1] = MessageCodec.bytes(message.getReceiver());
+			fields[i * 3 + 2] = message.contentBytes();
+			size += MessageCodec.size(fields[i * 3]) + MessageCodec.size(fields[i * 3 + 1]) + MessageCodec.size(fields[i * 3 + 2]);
+		}
+		
+		DataBuffer buffer = bufferFactory.allocateBuffer(size);
+		ByteBuffer target = buffer.asByteBuffer(0, size);
+		target.put(MessageCodec.BATCH_VERSION);
+		target.putInt(messages.size());
+		for (byte[] field : fields) {
+			MessageCodec.write(target, field);
+		}
+		buffer.writePosition(size);
+		return buffer;
+	}
+}
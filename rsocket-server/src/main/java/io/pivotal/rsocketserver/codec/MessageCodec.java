@@ -0,0 +1,100 @@
+package io.pivotal.rsocketserver.codec;
+
+import org.springframework.core.codec.DecodingException;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary layout of a {@link io.pivotal.rsocketserver.data.Message}:
+ * <pre>
+ * [byte version][int senderLength][sender][int receiverLength][receiver][int contentLength][content]
+ * </pre>
+ * A message with a priority other than the default starts with its own version
+ * and the priority code, so clients that do not know priorities still read the
+ * others:
+ * <pre>
+ * [byte priorityVersion][byte priority][int senderLength][sender]...
+ * </pre>
+ * Strings are UTF-8, a length of -1 stands for null. A length beyond the end of
+ * the payload is rejected before anything is allocated for it. A
+ * {@link io.pivotal.rsocketserver.data.MessageBatch} is a count followed by the
+ * messages without their version byte and priority:
+ * <pre>
+ * [byte batchVersion][int count]{[int senderLength][sender][int receiverLength][receiver][int contentLength][content]}
+ * </pre>
+ */
+public final class MessageCodec {
+	
+	public static final MimeType MIME_TYPE = new MimeType("application", "x.rsocket-message");
+	
+	// Composite metadata entry naming the receiver of a forwarded payload.
+	public static final MimeType RECEIVER_MIME_TYPE = new MimeType("message", "x.rsocket-receiver");
+	public static final String RECEIVER_HEADER = "receiver";
+	
+	// Composite metadata entry of the setup frame listing what the client supports.
+	public static final MimeType CAPABILITIES_MIME_TYPE = new MimeType("message", "x.rsocket-capabilities");
+	public static final String CAPABILITIES_HEADER = "capabilities";
+	
+	// The client unpacks batches sent to its "call.batch" route.
+	public static final String CAPABILITY_BATCH = "batch";
+	
+	static final byte VERSION = 1;
+	static final byte BATCH_VERSION = 2;
+	static final byte PRIORITY_VERSION = 3;
+	
+	private MessageCodec() {
+	}
+	
+	static byte[] bytes(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	static int size(byte[] bytes) {
+		return 4 + (bytes == null ? 0 : bytes.length);
+	}
+	
+	static void write(ByteBuffer target, byte[] bytes) {
+		if (bytes == null) {
+			target.putInt(-1);
+		} else {
+			target.putInt(bytes.length).put(bytes);
+		}
+	}
+	
+	static byte[] readBytes(ByteBuffer source) {
+		int length = readLength(source);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		source.get(bytes);
+		return bytes;
+	}
+	
+	static String readString(ByteBuffer source) {
+		int length = readLength(source);
+		if (length < 0) {
+			return null;
+		}
+		String value;
+		if (source.hasArray()) {
+			value = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+			source.position(source.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			source.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+	
+	private static int readLength(ByteBuffer source) {
+		int length = source.getInt();
+		if (length < -1 || length > source.remaining()) {
+			throw new DecodingException("Invalid field length " + length + ", " + source.remaining() + " bytes left");
+		}
+		return length;
+	}
+}
@@ -0,0 +1,29 @@
+package io.pivotal.rsocketserver.codec;
+
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Lets clients that set up their connection with {@link MessageCodec#MIME_TYPE}
+ * exchange messages and message batches in the binary layout instead of JSON,
+ * and exposes the receiver metadata of forwarded payloads and the capabilities
+ * in the setup metadata as headers.
+ */
+@Configuration
+public class MessageCodecConfig {
+	
+	@Bean
+	public RSocketStrategiesCustomizer messageCodecCustomizer(RelayMetrics metrics) {
+		return strategies -> strategies
+				.encoder(new MessageEncoder(), new MessageBatchEncoder())
+				.decoder(new MessageDecoder(metrics), new MessageBatchDecoder(metrics))
+				.metadataExtractorRegistry(registry -> {
+					registry.metadataToExtract(
+							MessageCodec.RECEIVER_MIME_TYPE, String.class, MessageCodec.RECEIVER_HEADER);
+					registry.metadataToExtract(
+							MessageCodec.CAPABILITIES_MIME_TYPE, String.class, MessageCodec.CAPABILITIES_HEADER);
+				});
+	}
+}
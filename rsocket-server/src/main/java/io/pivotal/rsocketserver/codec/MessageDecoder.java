@@ -0,0 +1,72 @@
+package io.pivotal.rsocketserver.codec;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.Priority;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractDataBufferDecoder;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Reads a {@link Message} in the {@link MessageCodec} layout straight from the
+ * payload buffer. Sender and receiver are decoded for routing, the content is
+ * kept as raw bytes and only turned into a String if someone reads it.
+ */
+public class MessageDecoder extends AbstractDataBufferDecoder<Message> {
+	
+	private final RelayMetrics metrics;
+	
+	public MessageDecoder() {
+		this(null);
+	}
+	
+	/**
+	 * @param metrics times every decoded message, may be null
+	 */
+	public MessageDecoder(RelayMetrics metrics) {
+		super(MessageCodec.MIME_TYPE);
+		this.metrics = metrics;
+	}
+	
+	@Override
+	public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+		return Message.class.isAssignableFrom(elementType.toClass()) && super.canDecode(elementType, mimeType);
+	}
+	
+	@Override
+	public Message decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+		long start = System.nanoTime();
+		try {
+			ByteBuffer source = buffer.asByteBuffer();
+			byte version = source.get();
+			Priority priority = null;
+			if (version == MessageCodec.PRIORITY_VERSION) {
+				priority = Priority.fromCode(source.get());
+			} else if (version != MessageCodec.VERSION) {
+				throw new DecodingException("Unsupported message version " + version);
+			}
+			String sender = MessageCodec.readString(source);
+			String receiver = MessageCodec.readString(source);
+			byte[] content = MessageCodec.readBytes(source);
+			Message message = Message.ofContentBytes(sender, receiver, content);
+			message.setPriority(priority);
+			return message;
+		} catch (RuntimeException e) {
+			if (e instanceof DecodingException) {
+				throw e;
+			}
+			throw new DecodingException("Malformed binary message", e);
+		} finally {
+			DataBufferUtils.release(buffer);
+			if (metrics != null) {
+				metrics.decoded(System.nanoTime() - start);
+			}
+		}
+	}
+}
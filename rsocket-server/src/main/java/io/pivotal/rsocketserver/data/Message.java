@@ -1,12 +1,11 @@
 package io.pivotal.rsocketserver.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.publisher.Flux;
 
-import java.awt.image.DataBuffer;
-import java.nio.ByteBuffer;
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
 
 @Data
 @Slf4j
@@ -19,10 +18,55 @@ public class Message {
     private String receiver;
     private String content;
     
+    // null for the default lane, so messages of clients that do not know priorities look the same
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Priority priority;
+    
+    // UTF-8 content as read by the binary codec, turned into a String only when asked for.
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient byte[] contentBytes;
+    
     public Message(String sender, String receiver, String content){
         this.sender = sender;
         this.receiver = receiver;
         this.content = content;
     }
     
+    public Message(String sender, String receiver, String content, Priority priority){
+        this(sender, receiver, content);
+        this.priority = priority;
+    }
+    
+    public static Message ofContentBytes(String sender, String receiver, byte[] contentBytes) {
+        Message message = new Message(sender, receiver, null);
+        message.contentBytes = contentBytes;
+        return message;
+    }
+    
+    public String getContent() {
+        if (content == null && contentBytes != null) {
+            content = new String(contentBytes, StandardCharsets.UTF_8);
+        }
+        return content;
+    }
+    
+    public void setContent(String content) {
+        this.content = content;
+        this.contentBytes = null;
+    }
+    
+    /**
+     * @return the UTF-8 content, without encoding it again if it arrived as bytes
+     */
+    public byte[] contentBytes() {
+        if (contentBytes == null && content != null) {
+            contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        }
+        return contentBytes;
+    }
+    
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package io.pivotal.rsocketserver.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Messages sent together as one payload on the "personal.batch" and
+ * "call.batch" routes.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageBatch {
+    
+    private List<Message> messages;
+}
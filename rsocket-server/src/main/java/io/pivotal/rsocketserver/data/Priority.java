@@ -0,0 +1,28 @@
+package io.pivotal.rsocketserver.data;
+
+/**
+ * The outbound lane a {@link Message} takes to its receiver. A message without
+ * a priority is {@link #INTERACTIVE}.
+ */
+public enum Priority {
+    
+    // call setup, hang-up and other signalling that must not wait
+    CONTROL,
+    // chat and everything else a user waits for
+    INTERACTIVE,
+    // media, file and other content that can take its time
+    BULK;
+    
+    private static final Priority[] VALUES = values();
+    
+    public static Priority of(Message message) {
+        return message.getPriority() == null ? INTERACTIVE : message.getPriority();
+    }
+    
+    public static Priority fromCode(int code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown priority " + code);
+        }
+        return VALUES[code];
+    }
+}
@@ -0,0 +1,79 @@
+package io.pivotal.rsocketserver.group;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.Priority;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.pivotal.rsocketserver.relay.RelaySession;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers one group message to every online member.
+ * <p>
+ * The message is encoded once per data mime type and the same buffer is handed,
+ * retained, to the channel of every member. Each member has its own bounded
+ * channel in the sender's {@link RelaySession}, so a slow member misses
+ * messages instead of holding back the rest of the group.
+ */
+@Component
+public class GroupFanout {
+	
+	private static final ResolvableType MESSAGE_TYPE = ResolvableType.forClass(Message.class);
+	
+	private final ClientRegistry clientRegistry;
+	private final RSocketStrategies strategies;
+	
+	public GroupFanout(ClientRegistry clientRegistry, RSocketStrategies strategies) {
+		this.clientRegistry = clientRegistry;
+		this.strategies = strategies;
+	}
+	
+	/**
+	 * Sends the message to all members except its sender.
+	 *
+	 * @param message the message to deliver
+	 * @param members the names of the group members
+	 * @param session the channels of the sender
+	 * @return the replies of the members whose channel was opened by this call
+	 */
+	public Flux<Message> fanout(Message message, Collection<String> members, RelaySession session) {
+		Map<MimeType, DataBuffer> encoded = new HashMap<>(2);
+		List<Flux<Message>> replies = new ArrayList<>(members.size());
+		try {
+			for (String member : members) {
+				if (member.equals(message.getSender())) {
+					continue;
+				}
+				RSocketRequester requester = clientRegistry.lookup(member);
+				if (requester == null) {
+					continue;
+				}
+				DataBuffer buffer = encoded.computeIfAbsent(requester.dataMimeType(), mimeType -> encode(message, mimeType));
+				replies.add(session.relay(member, Priority.of(message), DataBufferUtils.retain(buffer)));
+			}
+		} finally {
+			// Every channel holds its own reference, drop the one taken by encoding.
+			encoded.values().forEach(DataBufferUtils::release);
+		}
+		return Flux.merge(replies);
+	}
+	
+	private DataBuffer encode(Message message, MimeType mimeType) {
+		Encoder<Message> encoder = strategies.encoder(MESSAGE_TYPE, mimeType);
+		return encoder.encodeValue(message, strategies.dataBufferFactory(), MESSAGE_TYPE, mimeType, Collections.emptyMap());
+	}
+}
@@ -0,0 +1,69 @@
+package io.pivotal.rsocketserver.group;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the members of every group by name. Membership survives a member's
+ * disconnect, offline members are simply skipped when a message is fanned out.
+ */
+@Slf4j
+@Component
+public class GroupRegistry {
+	
+	private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param group the name of the group
+	 * @return true if the group did not exist yet
+	 */
+	public boolean create(String group) {
+		boolean created = groups.putIfAbsent(group, ConcurrentHashMap.newKeySet()) == null;
+		if (created) {
+			log.info("Group {} CREATED.", group);
+		}
+		return created;
+	}
+	
+	/**
+	 * Adds the client to the group, creating the group when it does not exist.
+	 *
+	 * @return true if the client was not a member yet
+	 */
+	public boolean join(String group, String client) {
+		boolean joined = groups.computeIfAbsent(group, name -> ConcurrentHashMap.newKeySet()).add(client);
+		if (joined) {
+			log.info("Client {} JOINED group {}.", client, group);
+		}
+		return joined;
+	}
+	
+	/**
+	 * @return true if the client was a member of the group
+	 */
+	public boolean leave(String group, String client) {
+		Set<String> members = groups.get(group);
+		boolean left = members != null && members.remove(client);
+		if (left) {
+			log.info("Client {} LEFT group {}.", client, group);
+		}
+		return left;
+	}
+	
+	public boolean delete(String group) {
+		return groups.remove(group) != null;
+	}
+	
+	/**
+	 * @return a live, read-only view of the members, empty for an unknown group
+	 */
+	public Set<String> members(String group) {
+		Set<String> members = groups.get(group);
+		return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+	}
+}
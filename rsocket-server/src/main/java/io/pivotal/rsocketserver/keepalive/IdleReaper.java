@@ -0,0 +1,176 @@
+package io.pivotal.rsocketserver.keepalive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.rsocket.DuplexConnection;
+import io.rsocket.RSocketErrorException;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.exceptions.ConnectionCloseException;
+import io.rsocket.plugins.DuplexConnectionInterceptor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closes connections that stayed silent for {@code rsocket.keepalive.max-idle},
+ * whatever keepalive the client asked for in its SETUP. A half-open connection,
+ * or one that never sent its SETUP, would otherwise hold its slot and keep its
+ * client in the registry forever; closing it runs the usual disconnect, which
+ * evicts the requester.
+ * <p>
+ * Every frame read counts as activity, keepalives included, and only stamps the
+ * time. The deadlines of all connections share one hashed timing wheel instead
+ * of a timer each: a connection costs one wheel entry, which is looked at once
+ * per idle period and moved to the new deadline while frames keep coming.
+ */
+@Slf4j
+@Component
+public class IdleReaper implements RSocketServerCustomizer, DuplexConnectionInterceptor {
+	
+	private final boolean enabled;
+	private final long maxIdleNanos;
+	private final HashedWheelTimer wheel;
+	private final RelayMetrics metrics;
+	private final AtomicInteger tracked = new AtomicInteger();
+	
+	public IdleReaper(@Value("${rsocket.keepalive.reaper-enabled:true}") boolean enabled,
+					  @Value("${rsocket.keepalive.max-idle:90s}") Duration maxIdle,
+					  @Value("${rsocket.keepalive.tick:1s}") Duration tick,
+					  @Value("${rsocket.keepalive.wheel-size:512}") int wheelSize,
+					  RelayMetrics metrics) {
+		this.enabled = enabled;
+		this.maxIdleNanos = maxIdle.toNanos();
+		this.wheel = new HashedWheelTimer(new DefaultThreadFactory("rsocket-idle-reaper", true),
+				tick.toNanos(), TimeUnit.NANOSECONDS, wheelSize);
+		this.metrics = metrics;
+		metrics.gauge("rsocket.keepalive.connections", "Connections watched for being idle", tracked, AtomicInteger::get);
+	}
+	
+	@PreDestroy
+	void stop() {
+		wheel.stop();
+	}
+	
+	@Override
+	public void customize(RSocketServer rSocketServer) {
+		if (enabled) {
+			rSocketServer.interceptors(registry -> registry.forConnection(this));
+		}
+	}
+	
+	@Override
+	public DuplexConnection apply(Type type, DuplexConnection connection) {
+		//the source sees every frame of the connection, keepalives too.
+		if (type != Type.SOURCE) {
+			return connection;
+		}
+		WatchedConnection watched = new WatchedConnection(connection);
+		watched.schedule(maxIdleNanos);
+		return watched;
+	}
+	
+	public int getTracked() {
+		return tracked.get();
+	}
+	
+	private final class WatchedConnection implements DuplexConnection, TimerTask {
+		
+		private final DuplexConnection delegate;
+		private volatile long lastRead = System.nanoTime();
+		private volatile Timeout timeout;
+		
+		WatchedConnection(DuplexConnection delegate) {
+			this.delegate = delegate;
+			tracked.incrementAndGet();
+			delegate.onClose()
+					.doFinally(signal -> {
+						tracked.decrementAndGet();
+						Timeout pending = timeout;
+						if (pending != null) {
+							pending.cancel();
+						}
+					})
+					.subscribe(null, error -> { });
+		}
+		
+		void schedule(long delayNanos) {
+			if (!delegate.isDisposed()) {
+				timeout = wheel.newTimeout(this, delayNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+		
+		@Override
+		public void run(Timeout expired) {
+			if (delegate.isDisposed()) {
+				return;
+			}
+			long idle = System.nanoTime() - lastRead;
+			if (idle < maxIdleNanos) {
+				schedule(maxIdleNanos - idle);
+				return;
+			}
+			metrics.reaped();
+			log.debug("Closing connection from {}, idle for {} ms.", delegate.remoteAddress(), TimeUnit.NANOSECONDS.toMillis(idle));
+			delegate.sendErrorAndClose(new ConnectionCloseException("Idle for " + TimeUnit.NANOSECONDS.toMillis(idle) + "ms"));
+		}
+		
+		@Override
+		public Flux<ByteBuf> receive() {
+			return delegate.receive().doOnNext(frame -> lastRead = System.nanoTime());
+		}
+		
+		@Override
+		public void sendFrame(int streamId, ByteBuf frame) {
+			delegate.sendFrame(streamId, frame);
+		}
+		
+		@Override
+		public void sendErrorAndClose(RSocketErrorException errorException) {
+			delegate.sendErrorAndClose(errorException);
+		}
+		
+		@Override
+		public ByteBufAllocator alloc() {
+			return delegate.alloc();
+		}
+		
+		@Override
+		public SocketAddress remoteAddress() {
+			return delegate.remoteAddress();
+		}
+		
+		@Override
+		public double availability() {
+			return delegate.availability();
+		}
+		
+		@Override
+		public Mono<Void> onClose() {
+			return delegate.onClose();
+		}
+		
+		@Override
+		public void dispose() {
+			delegate.dispose();
+		}
+		
+		@Override
+		public boolean isDisposed() {
+			return delegate.isDisposed();
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package io.pivotal.rsocketserver.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one step of a relayed message, recorded next to the matching
+ * {@link RelayMetrics} timer.
+ */
+@Name("io.pivotal.rsocketserver.RelayHop")
+@Label("Relay Hop")
+@Category({"RSocket", "Relay"})
+@Description("One step on the way of a message from the sender to the receiver")
+@StackTrace(false)
+class RelayHopEvent extends Event {
+	
+	@Label("Route")
+	String route;
+	
+	@Label("Hop")
+	String hop;
+	
+	@Label("Receiver")
+	String receiver;
+}
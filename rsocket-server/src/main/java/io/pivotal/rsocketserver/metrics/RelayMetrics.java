@@ -0,0 +1,310 @@
+package io.pivotal.rsocketserver.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.pivotal.rsocketserver.data.Priority;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Timers and counters for every hop of a relayed message, per inbound route:
+ * <ul>
+ * <li>{@code rsocket.message.decode}: decoding of a binary message</li>
+ * <li>{@code rsocket.relay.hop} tagged {@code hop=lookup}: finding the receiver</li>
+ * <li>{@code rsocket.relay.hop} tagged {@code hop=setup}: building and subscribing
+ * the outbound request</li>
+ * <li>{@code rsocket.relay.latency}: from a message leaving for the receiver to
+ * its reply, with a percentile histogram. A single call is timed from its outbound
+ * request, a message on a channel from the time it was queued for the receiver,
+ * see {@link ReplyClock}</li>
+ * <li>{@code rsocket.relay.inflight}: inbound streams being served</li>
+ * <li>{@code rsocket.relay.dropped} and {@code rsocket.relay.cancelled}</li>
+ * <li>{@code rsocket.relay.overflow} tagged with the overflow policy: messages
+ * that found a receiver's queue full</li>
+ * <li>{@code rsocket.relay.batch.size}: messages per batch sent to a receiver</li>
+ * <li>{@code rsocket.relay.lane.wait} tagged with the {@link Priority} lane: the
+ * time a message waited in its receiver's lane, with percentiles, and
+ * {@code rsocket.relay.lane.overflow}: messages that found their lane full</li>
+ * <li>{@code rsocket.admission.setups} tagged {@code outcome=admitted|queued|rejected}:
+ * connection setups passing admission control</li>
+ * <li>{@code rsocket.keepalive.reaped}: connections closed for being idle</li>
+ * </ul>
+ * Receivers are never a tag, there can be too many of them; the relay lists the
+ * slow ones itself.
+ * Every hop but the replies on a channel is also recorded as a {@link RelayHopEvent}
+ * and every inbound stream
+ * as a {@link RelayStreamEvent}, so a JFR recording shows them without an agent.
+ * Meters are looked up once per route and hop and kept, the hot path only reads
+ * the clock.
+ */
+@Component
+public class RelayMetrics {
+	
+	public static final String HOP_LOOKUP = "lookup";
+	public static final String HOP_SETUP = "setup";
+	public static final String HOP_REPLY = "reply";
+	static final String HOP_DECODE = "decode";
+	// messages of a channel whose send time is kept until their reply
+	static final int REPLY_CLOCK_SIZE = 1024;
+	
+	private final MeterRegistry registry;
+	private final Timer decode;
+	private final Counter reaped;
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+	private final Map<String, Counter> dropped = new ConcurrentHashMap<>();
+	private final Map<String, Counter> cancelled = new ConcurrentHashMap<>();
+	private final Map<String, Counter> overflows = new ConcurrentHashMap<>();
+	private final Map<String, DistributionSummary> batchSizes = new ConcurrentHashMap<>();
+	private final Map<String, Counter> admissions = new ConcurrentHashMap<>();
+	private final Map<Priority, Timer> laneWaits = new ConcurrentHashMap<>();
+	private final Map<Priority, Counter> laneOverflows = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> inflight = new ConcurrentHashMap<>();
+	
+	public RelayMetrics(MeterRegistry registry) {
+		this.registry = registry;
+		this.decode = Timer.builder("rsocket.message.decode")
+				.description("Decoding of one binary message")
+				.register(registry);
+		this.reaped = Counter.builder("rsocket.keepalive.reaped")
+				.description("Connections closed for being idle")
+				.register(registry);
+	}
+	
+	/**
+	 * Starts timing a hop. The hop is recorded once, by the first call to
+	 * {@link Hop#stop()}.
+	 *
+	 * @param route    the inbound route
+	 * @param hop      one of the HOP_ constants
+	 * @param receiver the receiving client, for the JFR event
+	 */
+	public Hop start(String route, String hop, String receiver) {
+		return new Hop(timer(route, hop), route, hop, receiver);
+	}
+	
+	/**
+	 * Stops the setup hop when the outbound request is subscribed.
+	 *
+	 * @param setup    the hop started before the request was built
+	 * @param outbound the replies of the receiver
+	 */
+	public <T> Flux<T> outbound(Hop setup, Flux<T> outbound) {
+		return outbound.doOnSubscribe(subscription -> setup.stop());
+	}
+	
+	/**
+	 * Same as {@link #outbound}, and records the time from the outbound request
+	 * to the first reply, or to completion without one, as the relay latency.
+	 */
+	public <T> Flux<T> reply(Hop setup, Flux<T> outbound) {
+		return Flux.defer(() -> {
+			setup.stop();
+			Hop reply = start(setup.route, HOP_REPLY, setup.receiver);
+			return outbound
+					.doOnNext(value -> reply.stop())
+					.doOnComplete(reply::stop);
+		});
+	}
+	
+	/**
+	 * Starts timing the replies of a channel to a receiver, message by message.
+	 *
+	 * @param route the inbound route
+	 */
+	public ReplyClock replyClock(String route) {
+		return new ReplyClock(timer(route, HOP_REPLY), REPLY_CLOCK_SIZE);
+	}
+	
+	/**
+	 * Counts the stream as in flight while it is subscribed, and as cancelled if
+	 * it ends that way.
+	 *
+	 * @param route  the inbound route
+	 * @param stream the stream answering the route
+	 */
+	public <T> Flux<T> track(String route, Flux<T> stream) {
+		AtomicInteger active = inflight.computeIfAbsent(route, key ->
+				registry.gauge("rsocket.relay.inflight", Tags.of("route", key), new AtomicInteger()));
+		return Flux.defer(() -> {
+			RelayStreamEvent event = new RelayStreamEvent();
+			event.begin();
+			active.incrementAndGet();
+			return stream.doFinally(signal -> {
+				active.decrementAndGet();
+				if (signal == SignalType.CANCEL) {
+					counter(cancelled, "rsocket.relay.cancelled", route).increment();
+				}
+				if (event.shouldCommit()) {
+					event.route = route;
+					event.signal = signal.name();
+					event.commit();
+				}
+			});
+		});
+	}
+	
+	public void dropped(String route) {
+		counter(dropped, "rsocket.relay.dropped", route).increment();
+	}
+	
+	/**
+	 * @param route  the inbound route
+	 * @param policy the overflow policy applied, by its name
+	 */
+	public void overflow(String route, String policy) {
+		overflows.computeIfAbsent(route + '/' + policy, key ->
+				registry.counter("rsocket.relay.overflow", "route", route, "policy", policy)).increment();
+	}
+	
+	public void batched(String route, int size) {
+		batchSizes.computeIfAbsent(route, key -> DistributionSummary.builder("rsocket.relay.batch.size")
+				.description("Messages per batch sent to a receiver")
+				.tag("route", key)
+				.register(registry)).record(size);
+	}
+	
+	public void laneSent(Priority lane, long waitedNanos) {
+		laneWaits.computeIfAbsent(lane, key -> Timer.builder("rsocket.relay.lane.wait")
+				.description("Time a message waited in its receiver's lane")
+				.tag("lane", key.name())
+				.publishPercentiles(0.5, 0.99, 0.999)
+				.register(registry)).record(waitedNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	public void laneOverflow(Priority lane) {
+		laneOverflows.computeIfAbsent(lane, key ->
+				registry.counter("rsocket.relay.lane.overflow", "lane", key.name())).increment();
+	}
+	
+	public void admission(String outcome) {
+		admissions.computeIfAbsent(outcome, key ->
+				registry.counter("rsocket.admission.setups", "outcome", key)).increment();
+	}
+	
+	public void reaped() {
+		reaped.increment();
+	}
+	
+	public <T> void gauge(String name, String description, T state, ToDoubleFunction<T> value) {
+		Gauge.builder(name, state, value)
+				.description(description)
+				.register(registry);
+	}
+	
+	public void decoded(long nanos) {
+		decode.record(nanos, TimeUnit.NANOSECONDS);
+		RelayHopEvent event = new RelayHopEvent();
+		if (event.shouldCommit()) {
+			event.hop = HOP_DECODE;
+			event.commit();
+		}
+	}
+	
+	private Timer timer(String route, String hop) {
+		return timers.computeIfAbsent(route + '/' + hop, key -> HOP_REPLY.equals(hop)
+				? Timer.builder("rsocket.relay.latency")
+						.description("From a message leaving for the receiver to its reply")
+						.tag("route", route)
+						.publishPercentiles(0.5, 0.95, 0.99)
+						.publishPercentileHistogram()
+						.minimumExpectedValue(Duration.ofNanos(100_000))
+						.maximumExpectedValue(Duration.ofSeconds(30))
+						.register(registry)
+				: Timer.builder("rsocket.relay.hop")
+						.tag("route", route)
+						.tag("hop", hop)
+						.register(registry));
+	}
+	
+	private Counter counter(Map<String, Counter> counters, String name, String route) {
+		return counters.computeIfAbsent(route, key -> registry.counter(name, "route", key));
+	}
+	
+	/**
+	 * A hop being timed, recorded into its timer and as a JFR event.
+	 */
+	public static final class Hop {
+		private final Timer timer;
+		private final String route;
+		private final String hop;
+		private final String receiver;
+		private final RelayHopEvent event = new RelayHopEvent();
+		private final long start = System.nanoTime();
+		private boolean stopped;
+		
+		private Hop(Timer timer, String route, String hop, String receiver) {
+			this.timer = timer;
+			this.route = route;
+			this.hop = hop;
+			this.receiver = receiver;
+			event.begin();
+		}
+		
+		public void stop() {
+			if (stopped) {
+				return;
+			}
+			stopped = true;
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			event.end();
+			if (event.shouldCommit()) {
+				event.route = route;
+				event.hop = hop;
+				event.receiver = receiver;
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * The relay latency of the messages of one channel. Receivers answer the
+	 * messages of a channel in order, one reply each, so the n-th reply belongs to
+	 * the n-th message sent. The send times of the latest messages are kept in a
+	 * ring; a reply to a message that fell out of it is not recorded.
+	 */
+	public static final class ReplyClock {
+		private final Timer timer;
+		private final long[] sentAt;
+		private long sent;
+		private long replied;
+		
+		ReplyClock(Timer timer, int size) {
+			this.timer = timer;
+			this.sentAt = new long[size];
+		}
+		
+		/**
+		 * @param since the {@link System#nanoTime()} the message's latency starts at
+		 */
+		public synchronized void sent(long since) {
+			sentAt[(int) (sent++ % sentAt.length)] = since;
+		}
+		
+		public void replied() {
+			long since;
+			synchronized (this) {
+				if (replied == sent) {
+					return;
+				}
+				long message = replied++;
+				if (sent - message > sentAt.length) {
+					return;
+				}
+				since = sentAt[(int) (message % sentAt.length)];
+			}
+			timer.record(System.nanoTime() - since, TimeUnit.NANOSECONDS);
+		}
+	}
+}
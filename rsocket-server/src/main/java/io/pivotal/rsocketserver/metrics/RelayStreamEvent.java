@@ -0,0 +1,26 @@
+package io.pivotal.rsocketserver.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event spanning one inbound stream of a route, from subscription to its
+ * final signal.
+ */
+@Name("io.pivotal.rsocketserver.RelayStream")
+@Label("Relay Stream")
+@Category({"RSocket", "Relay"})
+@Description("An inbound stream of a relay route")
+@StackTrace(false)
+class RelayStreamEvent extends Event {
+	
+	@Label("Route")
+	String route;
+	
+	@Label("Signal")
+	String signal;
+}
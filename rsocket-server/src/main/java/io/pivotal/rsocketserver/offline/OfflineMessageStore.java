@@ -0,0 +1,274 @@
+package io.pivotal.rsocketserver.offline;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Keeps messages for receivers that are not connected and replays them when the
+ * receiver connects again.
+ * <p>
+ * Every receiver has its own directory of memory-mapped segments plus a small
+ * in-memory tail. A periodic compaction writes idle tails to disk and deletes
+ * segments past the retention time; the oldest segments are also deleted when a
+ * receiver goes over its byte limit. Replay is at least once: segments are only
+ * deleted once all of their messages were handed to the receiver's channel.
+ */
+@Slf4j
+@Component
+public class OfflineMessageStore {
+	
+	private final boolean enabled;
+	private final Path directory;
+	private final Settings settings;
+	private final int replayBatchSize;
+	private final Duration compactionInterval;
+	private final ServerSchedulers schedulers;
+	
+	private final Map<String, ReceiverLog> logs = new ConcurrentHashMap<>();
+	private final LongAdder stored = new LongAdder();
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private Disposable compaction;
+	
+	public OfflineMessageStore(@Value("${rsocket.offline.enabled:true}") boolean enabled,
+							   @Value("${rsocket.offline.directory:${java.io.tmpdir}/rsocket-offline}") String directory,
+							   @Value("${rsocket.offline.tail-size:32}") int tailSize,
+							   @Value("${rsocket.offline.segment-size:1MB}") DataSize segmentSize,
+							   @Value("${rsocket.offline.max-size-per-receiver:16MB}") DataSize maxSizePerReceiver,
+							   @Value("${rsocket.offline.retention:24h}") Duration retention,
+							   @Value("${rsocket.offline.replay-batch-size:64}") int replayBatchSize,
+							   @Value("${rsocket.offline.compaction-interval:30s}") Duration compactionInterval,
+							   ServerSchedulers schedulers) {
+		this.enabled = enabled;
+		this.directory = Paths.get(directory);
+		this.settings = new Settings(tailSize, (int) segmentSize.toBytes(), maxSizePerReceiver.toBytes(), retention.toMillis());
+		this.replayBatchSize = replayBatchSize;
+		this.compactionInterval = compactionInterval;
+		this.schedulers = schedulers;
+	}
+	
+	@PostConstruct
+	void start() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		Files.createDirectories(directory);
+		try (Stream<Path> receivers = Files.list(directory)) {
+			receivers.filter(Files::isDirectory).forEach(this::recover);
+		}
+		compaction = Flux.interval(compactionInterval, compactionInterval, schedulers.persistence())
+				.subscribe(tick -> compact(), error -> log.error("Offline store compaction stopped.", error));
+		log.info("Offline store at {} holds messages for {} receivers.", directory, logs.size());
+	}
+	
+	@PreDestroy
+	void stop() {
+		if (compaction != null) {
+			compaction.dispose();
+		}
+		logs.values().forEach(receiverLog -> {
+			receiverLog.flush();
+			receiverLog.force();
+		});
+	}
+	
+	/**
+	 * Stores a message whose receiver is not connected.
+	 *
+	 * @return false if the store is disabled and the message was not kept
+	 */
+	public boolean store(Message message) {
+		if (!enabled) {
+			return false;
+		}
+		logs.compute(message.getReceiver(), (receiver, receiverLog) -> {
+			if (receiverLog == null) {
+				receiverLog = new ReceiverLog(receiver, directoryOf(receiver), settings);
+			}
+			expired.add(receiverLog.append(message));
+			return receiverLog;
+		});
+		stored.increment();
+		return true;
+	}
+	
+	/**
+	 * Sends everything stored for the client over a "call" channel, see
+	 * {@link #replay(String)}.
+	 *
+	 * @param client	the name of the client that connected
+	 * @param requester the requester of the new connection
+	 */
+	public void replay(String client, RSocketRequester requester) {
+		if (!holds(client)) {
+			return;
+		}
+		log.info("Replaying offline messages to {}.", client);
+		requester.route("call")
+				.data(replay(client))
+				.retrieveFlux(Message.class)
+				.subscribe(
+						reply -> log.debug("Replay reply from {}: {}", client, reply),
+						error -> log.warn("Replay to {} failed: {}", client, error.toString()));
+	}
+	
+	/**
+	 * Hands out everything stored for the client so far, oldest first, read from
+	 * disk in batches. Whatever is not emitted when the Flux ends is kept for the
+	 * next replay, in front of the messages stored meanwhile.
+	 *
+	 * @param client the name of the receiving client
+	 * @return the stored messages, or an empty Flux if there are none
+	 */
+	public Flux<Message> replay(String client) {
+		return Flux.defer(() -> {
+			ReceiverLog receiverLog = logs.get(client);
+			if (receiverLog == null || receiverLog.isEmpty()) {
+				return Flux.empty();
+			}
+			ReceiverLog.Replay replay = receiverLog.detach();
+			return Flux.fromIterable(new ArrayList<>(replay.segments))
+					.concatMap(segment -> batches(client, segment)
+							//segments are read off the event loop, page faults block.
+							.subscribeOn(schedulers.persistence())
+							.doOnComplete(() -> {
+								replay.segments.remove(segment);
+								segment.delete();
+							}))
+					.concatWith(Flux.defer(() -> Flux.fromIterable(replay.tail).buffer(replayBatchSize))
+							.doOnComplete(replay.tail::clear))
+					.concatMapIterable(batch -> batch)
+					.doOnNext(message -> replayed.increment())
+					.doFinally(signal -> receiverLog.finish(replay));
+		});
+	}
+	
+	/**
+	 * @return true if messages are stored for the client
+	 */
+	public boolean holds(String client) {
+		ReceiverLog receiverLog = logs.get(client);
+		return receiverLog != null && !receiverLog.isEmpty();
+	}
+	
+	public long getStored() {
+		return stored.sum();
+	}
+	
+	public long getReplayed() {
+		return replayed.sum();
+	}
+	
+	public long getExpired() {
+		return expired.sum();
+	}
+	
+	void compact() {
+		long now = System.currentTimeMillis();
+		for (String receiver : logs.keySet()) {
+			logs.computeIfPresent(receiver, (name, receiverLog) -> {
+				expired.add(receiverLog.compact(now));
+				if (!receiverLog.isIdle()) {
+					return receiverLog;
+				}
+				try {
+					Files.deleteIfExists(directoryOf(name));
+				} catch (IOException e) {
+					log.debug("Could not delete directory of {}: {}", name, e.toString());
+				}
+				return null;
+			});
+		}
+	}
+	
+	private Flux<List<Message>> batches(String client, Segment segment) {
+		return Flux.generate(() -> 0, (offset, sink) -> {
+			int[] next = new int[1];
+			List<Message> batch = segment.read(client, offset, replayBatchSize, next);
+			if (batch.isEmpty()) {
+				sink.complete();
+			} else {
+				sink.next(batch);
+			}
+			return next[0];
+		});
+	}
+	
+	private void recover(Path receiverDirectory) {
+		String receiver = fromHex(receiverDirectory.getFileName().toString());
+		ReceiverLog receiverLog = new ReceiverLog(receiver, receiverDirectory, settings);
+		try {
+			receiverLog.recover();
+		} catch (IOException e) {
+			log.warn("Could not recover offline messages of {}: {}", receiver, e.toString());
+			return;
+		}
+		if (!receiverLog.isEmpty()) {
+			logs.put(receiver, receiverLog);
+		}
+	}
+	
+	private Path directoryOf(String receiver) {
+		Path receiverDirectory = directory.resolve(toHex(receiver));
+		try {
+			Files.createDirectories(receiverDirectory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return receiverDirectory;
+	}
+	
+	// Client names become directory names, hex keeps them safe for any file system.
+	private static String toHex(String value) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+	
+	private static String fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	static final class Settings {
+		final int tailSize;
+		final int segmentBytes;
+		final long maxBytesPerReceiver;
+		final long retentionMillis;
+		
+		Settings(int tailSize, int segmentBytes, long maxBytesPerReceiver, long retentionMillis) {
+			this.tailSize = tailSize;
+			this.segmentBytes = segmentBytes;
+			this.maxBytesPerReceiver = maxBytesPerReceiver;
+			this.retentionMillis = retentionMillis;
+		}
+	}
+}
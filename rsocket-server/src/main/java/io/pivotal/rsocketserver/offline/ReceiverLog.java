@@ -0,0 +1,205 @@
+package io.pivotal.rsocketserver.offline;
+
+import io.pivotal.rsocketserver.data.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The undelivered messages of one receiver: sealed segments on disk, one active
+ * segment being appended to, and a small in-memory tail that is written to the
+ * active segment once it is full.
+ */
+@Slf4j
+final class ReceiverLog {
+	
+	private static final String SUFFIX = ".seg";
+	
+	final String receiver;
+	private final Path directory;
+	private final OfflineMessageStore.Settings settings;
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private List<Message> tail = new ArrayList<>();
+	private long nextId;
+	private int replays;
+	
+	ReceiverLog(String receiver, Path directory, OfflineMessageStore.Settings settings) {
+		this.receiver = receiver;
+		this.directory = directory;
+		this.settings = settings;
+	}
+	
+	/**
+	 * Maps the segments left on disk by a previous run.
+	 */
+	synchronized void recover() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+					.sorted()
+					.forEach(path -> {
+						String name = path.getFileName().toString();
+						long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+						try {
+							Segment segment = Segment.open(path, id);
+							segments.addLast(segment);
+							nextId = Math.max(nextId, id + 1);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+		}
+	}
+	
+	/**
+	 * @return the number of older messages dropped to stay within retention
+	 */
+	synchronized int append(Message message) {
+		tail.add(message);
+		if (tail.size() < settings.tailSize) {
+			return 0;
+		}
+		return flush();
+	}
+	
+	/**
+	 * Writes the in-memory tail to the active segment, rolling over to a new
+	 * segment when it is full, then applies the size limit.
+	 */
+	synchronized int flush() {
+		for (Message message : tail) {
+			Segment active = segments.peekLast();
+			if (active == null || !active.append(message)) {
+				active = roll(Segment.recordSize(message));
+				active.append(message);
+			}
+		}
+		tail = new ArrayList<>();
+		return enforceLimit();
+	}
+	
+	/**
+	 * Deletes segments older than the retention and writes an idle tail to disk,
+	 * so neither disk nor heap grow while the receiver stays away.
+	 *
+	 * @return the number of messages dropped
+	 */
+	synchronized int compact(long now) {
+		int dropped = 0;
+		while (!segments.isEmpty() && now - segments.peekFirst().lastModified() > settings.retentionMillis) {
+			dropped += deleteOldest();
+		}
+		if (!tail.isEmpty()) {
+			dropped += flush();
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Hands everything stored so far to a replay. The log starts empty again, new
+	 * messages for the receiver are stored as usual.
+	 */
+	synchronized Replay detach() {
+		Replay replay = new Replay(new ArrayDeque<>(segments), tail);
+		replays++;
+		segments.clear();
+		tail = new ArrayList<>();
+		return replay;
+	}
+	
+	/**
+	 * Ends a replay, putting back what it could not deliver in front of anything
+	 * stored since.
+	 */
+	synchronized void finish(Replay replay) {
+		replays--;
+		if (replay.isEmpty()) {
+			return;
+		}
+		replay.segments.descendingIterator().forEachRemaining(segments::addFirst);
+		if (!replay.tail.isEmpty()) {
+			List<Message> merged = new ArrayList<>(replay.tail);
+			merged.addAll(tail);
+			tail = merged;
+		}
+		enforceLimit();
+	}
+	
+	synchronized boolean isEmpty() {
+		return segments.isEmpty() && tail.isEmpty();
+	}
+	
+	/**
+	 * @return true if nothing is stored and no replay still holds segments
+	 */
+	synchronized boolean isIdle() {
+		return isEmpty() && replays == 0;
+	}
+	
+	synchronized int tailSize() {
+		return tail.size();
+	}
+	
+	synchronized long bytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.size();
+		}
+		return bytes;
+	}
+	
+	synchronized void force() {
+		segments.forEach(Segment::force);
+	}
+	
+	private Segment roll(int recordSize) {
+		long id = nextId++;
+		Path path = directory.resolve(String.format("%020d%s", id, SUFFIX));
+		try {
+			Segment segment = Segment.create(path, id, Math.max(settings.segmentBytes, recordSize + 8));
+			segments.addLast(segment);
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private int enforceLimit() {
+		int dropped = 0;
+		while (segments.size() > 1 && bytes() > settings.maxBytesPerReceiver) {
+			dropped += deleteOldest();
+		}
+		return dropped;
+	}
+	
+	private int deleteOldest() {
+		Segment oldest = segments.pollFirst();
+		oldest.delete();
+		log.info("Dropped {} offline messages of {} past retention.", oldest.count(), receiver);
+		return oldest.count();
+	}
+	
+	/**
+	 * The segments and tail taken out of a log for one replay.
+	 */
+	static final class Replay {
+		final Deque<Segment> segments;
+		final List<Message> tail;
+		
+		Replay(Deque<Segment> segments, List<Message> tail) {
+			this.segments = segments;
+			this.tail = tail;
+		}
+		
+		boolean isEmpty() {
+			return segments.isEmpty() && tail.isEmpty();
+		}
+	}
+}
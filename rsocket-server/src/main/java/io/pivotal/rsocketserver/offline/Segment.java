@@ -0,0 +1,189 @@
+package io.pivotal.rsocketserver.offline;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.Priority;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One memory-mapped, append-only file of messages for a single receiver.
+ * <p>
+ * Each record is {@code [int length][int senderLength][sender][content]} with
+ * -1 as the length of a null string. A message with a priority starts with a
+ * marker no sender length can have, followed by the priority code:
+ * <pre>
+ * [int length][int PRIORITY_MARKER][byte priority][int senderLength][sender][content]
+ * </pre>
+ * so segments written before priorities existed read as they are. The mapped
+ * file starts zero-filled, so a length of 0 marks the end of the written records.
+ */
+final class Segment {
+	
+	private static final int HEADER = 4;
+	static final int PRIORITY_MARKER = -2;
+	
+	final long id;
+	final Path path;
+	private final MappedByteBuffer buffer;
+	private int writePosition;
+	private int count;
+	private long lastModified;
+	
+	private Segment(long id, Path path, MappedByteBuffer buffer) {
+		this.id = id;
+		this.path = path;
+		this.buffer = buffer;
+		this.lastModified = System.currentTimeMillis();
+	}
+	
+	static Segment create(Path path, long id, int capacity) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+		}
+	}
+	
+	/**
+	 * Maps an existing segment and finds the end of its records.
+	 */
+	static Segment open(Path path, long id) throws IOException {
+		Segment segment;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+		}
+		ByteBuffer view = segment.buffer.duplicate();
+		while (view.remaining() >= HEADER) {
+			int length = view.getInt(view.position());
+			if (length <= 0 || length > view.remaining() - HEADER) {
+				break;
+			}
+			view.position(view.position() + HEADER + length);
+			segment.count++;
+		}
+		segment.writePosition = view.position();
+		segment.lastModified = Files.getLastModifiedTime(path).toMillis();
+		return segment;
+	}
+	
+	static int recordSize(Message message) {
+		return HEADER + HEADER + HEADER + 1 + utf8Length(message.getSender()) + utf8Length(message.getContent());
+	}
+	
+	/**
+	 * @return false if the record does not fit in the rest of the segment
+	 */
+	boolean append(Message message) {
+		byte[] sender = bytes(message.getSender());
+		byte[] content = message.contentBytes();
+		Priority priority = message.getPriority();
+		int length = (priority == null ? 0 : HEADER + 1) + HEADER + size(sender) + size(content);
+		if (buffer.capacity() - writePosition < HEADER + length) {
+			return false;
+		}
+		ByteBuffer view = buffer.duplicate();
+		view.position(writePosition);
+		view.putInt(length);
+		if (priority != null) {
+			view.putInt(PRIORITY_MARKER);
+			view.put((byte) priority.ordinal());
+		}
+		view.putInt(sender == null ? -1 : sender.length);
+		if (sender != null) {
+			view.put(sender);
+		}
+		if (content != null) {
+			view.put(content);
+		}
+		writePosition = view.position();
+		count++;
+		lastModified = System.currentTimeMillis();
+		return true;
+	}
+	
+	/**
+	 * Reads up to {@code max} records starting at {@code offset}.
+	 *
+	 * @param next receives the offset after the last record read
+	 */
+	List<Message> read(String receiver, int offset, int max, int[] next) {
+		List<Message> messages = new ArrayList<>(Math.min(max, count));
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(writePosition);
+		while (messages.size() < max && view.remaining() >= HEADER) {
+			int length = view.getInt();
+			int end = view.position() + length;
+			Priority priority = null;
+			int senderLength = view.getInt();
+			if (senderLength == PRIORITY_MARKER) {
+				priority = Priority.fromCode(view.get());
+				senderLength = view.getInt();
+			}
+			String sender = null;
+			if (senderLength >= 0) {
+				sender = string(view, senderLength);
+			}
+			// A null content is written as no bytes at all, read it back as empty.
+			String content = string(view, end - view.position());
+			messages.add(new Message(sender, receiver, content, priority));
+		}
+		next[0] = view.position();
+		return messages;
+	}
+	
+	boolean isEmpty() {
+		return count == 0;
+	}
+	
+	int size() {
+		return writePosition;
+	}
+	
+	int count() {
+		return count;
+	}
+	
+	long lastModified() {
+		return lastModified;
+	}
+	
+	void force() {
+		buffer.force();
+	}
+	
+	void delete() {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not delete segment " + path, e);
+		}
+	}
+	
+	private static String string(ByteBuffer view, int length) {
+		byte[] bytes = new byte[length];
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static byte[] bytes(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private static int size(byte[] bytes) {
+		return bytes == null ? 0 : bytes.length;
+	}
+	
+	private static int utf8Length(String value) {
+		// Upper bound, exact enough to size a dedicated segment.
+		return value == null ? 0 : value.length() * 3;
+	}
+}
@@ -0,0 +1,73 @@
+package io.pivotal.rsocketserver.presence;
+
+import io.pivotal.rsocketserver.data.Message;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Presence queries and subscriptions. Contacts are sent as one string of names
+ * separated by commas or white space, states come back as plain text lines.
+ */
+@Controller
+public class PresenceController {
+	
+	private final PresenceService presence;
+	
+	public PresenceController(PresenceService presence) {
+		this.presence = presence;
+	}
+	
+	/**
+	 * @return one bit per contact, in the order asked, set if it is online or
+	 * away; see {@link PresenceService#online(List)}
+	 */
+	@MessageMapping("presence.query")
+	Mono<ByteBuffer> query(@Payload String contacts) {
+		return Mono.fromSupplier(() -> ByteBuffer.wrap(presence.online(parse(contacts))));
+	}
+	
+	@MessageMapping("presence.watch")
+	Flux<String> watch(@Payload String contacts) {
+		return presence.watch(parse(contacts)).map(PresenceController::format);
+	}
+	
+	/**
+	 * Uses the message sender as the client and "AWAY" or "ONLINE" in the content
+	 * as its new state, like group management does.
+	 */
+	@MessageMapping("presence.set")
+	Mono<String> set(@Payload Message request) {
+		boolean away = PresenceState.AWAY.name().equalsIgnoreCase(request.getContent());
+		return Mono.fromSupplier(() -> presence.away(request.getSender(), away).name());
+	}
+	
+	@MessageMapping("presence.stats")
+	Mono<String> stats() {
+		return Mono.fromSupplier(() -> String.format("online=%d known=%d overflows=%d",
+				presence.getOnline(), presence.getKnown(), presence.getOverflows()));
+	}
+	
+	private static List<String> parse(String contacts) {
+		List<String> names = new ArrayList<>();
+		for (String name : contacts.split("[,\\s]+")) {
+			if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+	
+	private static String format(PresenceUpdate update) {
+		if (update.getLastSeen() == 0) {
+			return update.getClient() + " " + update.getState() + " never";
+		}
+		return String.format("%s %s %tFT%<tT", update.getClient(), update.getState(), update.getLastSeen());
+	}
+}
@@ -0,0 +1,102 @@
+package io.pivotal.rsocketserver.presence;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The presence state of every client seen since start, by dense id.
+ * <p>
+ * A client gets the next free id the first time it shows up and keeps it. Its
+ * state takes two bits, so one long holds 32 clients, and its last-seen time one
+ * long. Both live in pages of 4096 ids that are added as the index grows and are
+ * never moved, so a lookup is one hash probe and one word read without a lock.
+ * Ids are not reused; a client that leaves costs about a dozen bytes plus its
+ * map entry.
+ */
+final class PresenceIndex {
+	
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int BITS = 2;
+	private static final int PER_WORD = Long.SIZE / BITS;
+	private static final long STATE_MASK = (1L << BITS) - 1;
+	private static final PresenceState[] STATES = PresenceState.values();
+	
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private volatile Page[] pages = new Page[0];
+	private int nextId;
+	
+	int size() {
+		return ids.size();
+	}
+	
+	/**
+	 * @return the id of the client, or -1 if it was never seen
+	 */
+	int idOf(String client) {
+		Integer id = ids.get(client);
+		return id == null ? -1 : id;
+	}
+	
+	PresenceState state(int id) {
+		if (id < 0) {
+			return PresenceState.OFFLINE;
+		}
+		int slot = id & (PAGE_SIZE - 1);
+		long word = pages[id >>> PAGE_SHIFT].states.get(slot / PER_WORD);
+		return STATES[(int) (word >>> shift(slot) & STATE_MASK)];
+	}
+	
+	long lastSeen(int id) {
+		return id < 0 ? 0 : pages[id >>> PAGE_SHIFT].lastSeen.get(id & (PAGE_SIZE - 1));
+	}
+	
+	/**
+	 * Moves the client to the given state in one atomic step.
+	 *
+	 * @param whileConnected only change a client that is not OFFLINE
+	 * @return the state before the change
+	 */
+	PresenceState change(String client, PresenceState state, boolean whileConnected, long now) {
+		int id = whileConnected ? idOf(client) : ids.computeIfAbsent(client, key -> allocate());
+		if (id < 0) {
+			return PresenceState.OFFLINE;
+		}
+		Page page = pages[id >>> PAGE_SHIFT];
+		int slot = id & (PAGE_SIZE - 1);
+		int shift = shift(slot);
+		long previous;
+		long next;
+		do {
+			previous = page.states.get(slot / PER_WORD);
+			if (whileConnected && (previous >>> shift & STATE_MASK) == 0) {
+				return PresenceState.OFFLINE;
+			}
+			next = previous & ~(STATE_MASK << shift) | (long) state.ordinal() << shift;
+		} while (!page.states.compareAndSet(slot / PER_WORD, previous, next));
+		page.lastSeen.set(slot, now);
+		return STATES[(int) (previous >>> shift & STATE_MASK)];
+	}
+	
+	private static int shift(int slot) {
+		return slot % PER_WORD * BITS;
+	}
+	
+	// the page is in place before the id is published through the map
+	private synchronized int allocate() {
+		int id = nextId++;
+		if (id >>> PAGE_SHIFT == pages.length) {
+			Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+			grown[pages.length] = new Page();
+			pages = grown;
+		}
+		return id;
+	}
+	
+	private static final class Page {
+		final AtomicLongArray states = new AtomicLongArray(PAGE_SIZE / PER_WORD);
+		final AtomicLongArray lastSeen = new AtomicLongArray(PAGE_SIZE);
+	}
+}
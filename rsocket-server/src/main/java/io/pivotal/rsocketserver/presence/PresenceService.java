@@ -0,0 +1,161 @@
+package io.pivotal.rsocketserver.presence;
+
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks which clients are online, away or offline on this node and since when.
+ * <p>
+ * The connection lifecycle drives ONLINE and OFFLINE, the clients themselves
+ * switch between ONLINE and AWAY. States live in a {@link PresenceIndex}, so
+ * asking for thousands of contacts at once costs one hash probe each.
+ * <p>
+ * Watchers are kept per watched client, so a change is pushed only to those
+ * who asked for it. A watcher that falls more than
+ * {@code rsocket.presence.watch-buffer} changes behind is ended with an error
+ * rather than silently missing one; watching again starts with a fresh
+ * snapshot.
+ */
+@Slf4j
+@Component
+public class PresenceService {
+	
+	private final PresenceIndex index = new PresenceIndex();
+	private final Map<String, Set<Watcher>> watchers = new ConcurrentHashMap<>();
+	private final AtomicInteger online = new AtomicInteger();
+	private final LongAdder overflows = new LongAdder();
+	private final int watchBuffer;
+	
+	public PresenceService(@Value("${rsocket.presence.watch-buffer:256}") int watchBuffer,
+						   RelayMetrics metrics) {
+		this.watchBuffer = watchBuffer;
+		metrics.gauge("rsocket.presence.online", "Clients online or away on this node", online, AtomicInteger::get);
+	}
+	
+	public void connected(String client) {
+		change(client, PresenceState.ONLINE, false);
+	}
+	
+	public void disconnected(String client) {
+		change(client, PresenceState.OFFLINE, false);
+	}
+	
+	/**
+	 * Switches a connected client between ONLINE and AWAY.
+	 *
+	 * @return the new state, OFFLINE if the client is not connected
+	 */
+	public PresenceState away(String client, boolean away) {
+		return change(client, away ? PresenceState.AWAY : PresenceState.ONLINE, true);
+	}
+	
+	public PresenceUpdate current(String client) {
+		int id = index.idOf(client);
+		return new PresenceUpdate(client, index.state(id), index.lastSeen(id));
+	}
+	
+	/**
+	 * Answers for many contacts in one call.
+	 *
+	 * @param contacts the clients asked about
+	 * @return a bitmap with bit {@code i % 8} of byte {@code i / 8} set if
+	 * contact {@code i} is online or away
+	 */
+	public byte[] online(List<String> contacts) {
+		byte[] bitmap = new byte[(contacts.size() + 7) / 8];
+		for (int i = 0; i < contacts.size(); i++) {
+			if (index.state(index.idOf(contacts.get(i))) != PresenceState.OFFLINE) {
+				bitmap[i >>> 3] |= 1 << (i & 7);
+			}
+		}
+		return bitmap;
+	}
+	
+	/**
+	 * @param contacts the clients to watch
+	 * @return the current state of every contact, then every change of one of
+	 * them until cancelled
+	 */
+	public Flux<PresenceUpdate> watch(Collection<String> contacts) {
+		Set<String> watched = new LinkedHashSet<>(contacts);
+		return Flux.defer(() -> {
+			Watcher watcher = new Watcher();
+			//registered before the snapshot is taken, so no change falls in between.
+			watched.forEach(contact -> watchers.compute(contact, (key, set) -> {
+				Set<Watcher> present = set != null ? set : ConcurrentHashMap.newKeySet();
+				present.add(watcher);
+				return present;
+			}));
+			List<PresenceUpdate> snapshot = new ArrayList<>(watched.size());
+			watched.forEach(contact -> snapshot.add(current(contact)));
+			return Flux.fromIterable(snapshot)
+					.concatWith(watcher.sink.asFlux())
+					.doFinally(signal -> watched.forEach(contact -> watchers.computeIfPresent(contact, (key, set) -> {
+						set.remove(watcher);
+						return set.isEmpty() ? null : set;
+					})));
+		});
+	}
+	
+	public int getOnline() {
+		return online.get();
+	}
+	
+	public int getKnown() {
+		return index.size();
+	}
+	
+	public long getOverflows() {
+		return overflows.sum();
+	}
+	
+	private PresenceState change(String client, PresenceState state, boolean whileConnected) {
+		long now = System.currentTimeMillis();
+		PresenceState previous = index.change(client, state, whileConnected, now);
+		if (whileConnected && previous == PresenceState.OFFLINE) {
+			return PresenceState.OFFLINE;
+		}
+		if ((previous == PresenceState.OFFLINE) != (state == PresenceState.OFFLINE)) {
+			online.addAndGet(state == PresenceState.OFFLINE ? -1 : 1);
+		}
+		if (previous != state) {
+			Set<Watcher> interested = watchers.get(client);
+			if (interested != null) {
+				PresenceUpdate update = new PresenceUpdate(client, state, now);
+				interested.forEach(watcher -> watcher.push(update));
+			}
+		}
+		return state;
+	}
+	
+	private final class Watcher {
+		
+		final Sinks.Many<PresenceUpdate> sink = Sinks.many().unicast()
+				.onBackpressureBuffer(Queues.<PresenceUpdate>get(watchBuffer).get());
+		
+		//changes of different clients arrive on many threads, the sink takes one at a time.
+		synchronized void push(PresenceUpdate update) {
+			Sinks.EmitResult result = sink.tryEmitNext(update);
+			if (result == Sinks.EmitResult.FAIL_OVERFLOW || result == Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER) {
+				overflows.increment();
+				log.warn("Presence watcher fell behind, ending its watch.");
+				sink.tryEmitError(new IllegalStateException("Presence watch fell behind, watch again for a fresh snapshot"));
+			}
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package io.pivotal.rsocketserver.presence;
+
+/**
+ * What other clients see of a client. The order is the two-bit code the
+ * {@link PresenceIndex} stores, so OFFLINE must stay first.
+ */
+public enum PresenceState {
+	
+	OFFLINE,
+	
+	/**
+	 * Connected to this node.
+	 */
+	ONLINE,
+	
+	/**
+	 * Connected, but the client said it is away.
+	 */
+	AWAY
+}
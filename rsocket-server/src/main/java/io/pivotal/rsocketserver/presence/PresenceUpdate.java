@@ -0,0 +1,19 @@
+package io.pivotal.rsocketserver.presence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The state of one client and when it last changed, as pushed to watchers.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class PresenceUpdate {
+	
+	private final String client;
+	private final PresenceState state;
+	// epoch millis, 0 if the client was never seen
+	private final long lastSeen;
+}
@@ -0,0 +1,174 @@
+package io.pivotal.rsocketserver.registry;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Holds the requesters of all connected clients, keyed by client name.
+ * <p>
+ * The registry is split into a power-of-two number of shards, each one its own
+ * {@link ConcurrentHashMap} with its own counters, so a connect storm is spread
+ * over many independent tables instead of one. Register and evict are atomic per
+ * client, and a lookup checks liveness in the same step.
+ */
+@Slf4j
+@Component
+public class ClientRegistry {
+
+	private final Shard[] shards;
+	private final int mask;
+
+	public ClientRegistry(@Value("${rsocket.registry.shards:16}") int shardCount) {
+		int size = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+		this.shards = new Shard[size];
+		for (int i = 0; i < size; i++) {
+			shards[i] = new Shard(i);
+		}
+		this.mask = size - 1;
+		log.info("Client registry created with {} shards.", size);
+	}
+
+	/**
+	 * Registers the requester for the given client. If the client was already
+	 * registered with another requester, the stale one is disposed.
+	 *
+	 * @param client	the name of the client
+	 * @param requester the requester used to call back the client
+	 */
+	public void register(String client, RSocketRequester requester) {
+		Shard shard = shardFor(client);
+		RSocketRequester previous = shard.clients.put(client, requester);
+		shard.registered.increment();
+		if (previous != null && previous != requester) {
+			shard.replaced.increment();
+			previous.dispose();
+		}
+	}
+
+	/**
+	 * Removes the client only if it is still mapped to the given requester, so a
+	 * late disconnect of an old session never evicts a newer one.
+	 *
+	 * @param client	the name of the client
+	 * @param requester the requester that was closed
+	 * @return true if the client was removed
+	 */
+	public boolean evict(String client, RSocketRequester requester) {
+		Shard shard = shardFor(client);
+		boolean removed = shard.clients.remove(client, requester);
+		if (removed) {
+			shard.evicted.increment();
+		}
+		return removed;
+	}
+
+	/**
+	 * Looks up a live requester for the client. A disposed requester found on the
+	 * way is evicted and treated as missing.
+	 *
+	 * @param client the name of the client
+	 * @return the requester, or null if the client is not connected
+	 */
+	public RSocketRequester lookup(String client) {
+		Shard shard = shardFor(client);
+		shard.lookups.increment();
+		RSocketRequester requester = shard.clients.get(client);
+		if (requester == null) {
+			shard.misses.increment();
+			return null;
+		}
+		if (requester.isDisposed()) {
+			if (shard.clients.remove(client, requester)) {
+				shard.evicted.increment();
+			}
+			shard.misses.increment();
+			return null;
+		}
+		return requester;
+	}
+
+	public boolean isConnected(String client) {
+		return lookup(client) != null;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Shard shard : shards) {
+			size += shard.clients.size();
+		}
+		return size;
+	}
+
+	public void forEach(BiConsumer<String, RSocketRequester> action) {
+		for (Shard shard : shards) {
+			shard.clients.forEach(action);
+		}
+	}
+
+	public void clear() {
+		for (Shard shard : shards) {
+			shard.clients.clear();
+		}
+	}
+
+	public List<ShardStats> shardStats() {
+		List<ShardStats> stats = new ArrayList<>(shards.length);
+		for (Shard shard : shards) {
+			stats.add(new ShardStats(shard));
+		}
+		return stats;
+	}
+
+	private Shard shardFor(String client) {
+		int h = client.hashCode();
+		return shards[(h ^ (h >>> 16)) & mask];
+	}
+
+	private static final class Shard {
+		final int index;
+		final Map<String, RSocketRequester> clients = new ConcurrentHashMap<>();
+		final LongAdder registered = new LongAdder();
+		final LongAdder replaced = new LongAdder();
+		final LongAdder evicted = new LongAdder();
+		final LongAdder lookups = new LongAdder();
+		final LongAdder misses = new LongAdder();
+
+		Shard(int index) {
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Point-in-time copy of the counters of one shard.
+	 */
+	@Getter
+	public static final class ShardStats {
+		private final int shard;
+		private final int clients;
+		private final long registered;
+		private final long replaced;
+		private final long evicted;
+		private final long lookups;
+		private final long misses;
+
+		private ShardStats(Shard shard) {
+			this.shard = shard.index;
+			this.clients = shard.clients.size();
+			this.registered = shard.registered.sum();
+			this.replaced = shard.replaced.sum();
+			this.evicted = shard.evicted.sum();
+			this.lookups = shard.lookups.sum();
+			this.misses = shard.misses.sum();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates {@link RelaySession}s and keeps the counters shared by all of them.
+ * <p>
+ * Flow control is credit based on both sides of the relay: a sender is granted
+ * a window of messages at a time, and every receiver has its own bounded
+ * {@link OutboundLanes}, one per priority, that it drains by its own requests.
+ * A receiver that falls behind only fills its own lanes, the
+ * {@link OverflowPolicy} decides what happens then, and the receiver is listed
+ * by {@link #slowReceivers()} for a while.
+ * <p>
+ * Receivers that announced the batch capability when they connected get their
+ * messages packed by a {@link MessageBatcher} on the "call.batch" route, if
+ * batching is enabled.
+ */
+@Component
+public class ChannelRelay {
+	
+	private final ClientRegistry clientRegistry;
+	private final OfflineMessageStore offlineStore;
+	private final ClusterNode clusterNode;
+	private final RelayMetrics metrics;
+	private final int channelBufferSize;
+	private final OverflowPolicy overflowPolicy;
+	private final int requestWindow;
+	private final long slowReceiverRetentionMillis;
+	private final int[] laneWeights;
+	private final Map<String, Lag> lagging = new ConcurrentHashMap<>();
+	private final MessageBatcher batcher;
+	private final Set<RSocketRequester> batchReceivers = ConcurrentHashMap.newKeySet();
+	
+	final LongAdder opened = new LongAdder();
+	final LongAdder closed = new LongAdder();
+	final LongAdder relayed = new LongAdder();
+	final LongAdder dropped = new LongAdder();
+	final LongAdder offline = new LongAdder();
+	final LongAdder remote = new LongAdder();
+	final LongAdder spilled = new LongAdder();
+	final LongAdder disconnected = new LongAdder();
+	
+	public ChannelRelay(ClientRegistry clientRegistry,
+						OfflineMessageStore offlineStore,
+						ClusterNode clusterNode,
+						RelayMetrics metrics,
+						ServerSchedulers schedulers,
+						@Value("${rsocket.relay.channel-buffer-size:256}") int channelBufferSize,
+						@Value("${rsocket.relay.overflow-policy:DROP_NEWEST}") OverflowPolicy overflowPolicy,
+						@Value("${rsocket.relay.request-window:64}") int requestWindow,
+						@Value("${rsocket.relay.slow-receiver-retention:10m}") Duration slowReceiverRetention,
+						@Value("${rsocket.relay.lane-weights:8,4,1}") int[] laneWeights,
+						@Value("${rsocket.batch.enabled:false}") boolean batchEnabled,
+						@Value("${rsocket.batch.max-size:64}") int batchMaxSize,
+						@Value("${rsocket.batch.max-delay:2ms}") Duration batchMaxDelay) {
+		this.clientRegistry = clientRegistry;
+		this.offlineStore = offlineStore;
+		this.clusterNode = clusterNode;
+		this.metrics = metrics;
+		this.channelBufferSize = channelBufferSize;
+		this.overflowPolicy = overflowPolicy;
+		this.requestWindow = requestWindow;
+		this.slowReceiverRetentionMillis = slowReceiverRetention.toMillis();
+		this.laneWeights = laneWeights;
+		this.batcher = batchEnabled ? new MessageBatcher(batchMaxSize, batchMaxDelay, schedulers.relay()) : null;
+		metrics.gauge("rsocket.relay.slow.receivers", "Receivers whose outbound queue overflowed recently",
+				this, relay -> relay.slowReceivers().size());
+	}
+	
+	/**
+	 * @param route the inbound route the session serves, for the metrics
+	 */
+	public RelaySession openSession(String route) {
+		return openSession(route, channelBufferSize);
+	}
+	
+	/**
+	 * @param route      the inbound route the session serves, for the metrics
+	 * @param bufferSize the number of messages each outbound channel may hold
+	 *                   before the overflow policy applies
+	 */
+	public RelaySession openSession(String route, int bufferSize) {
+		return new RelaySession(this, clientRegistry, offlineStore, clusterNode, metrics, route, bufferSize, overflowPolicy);
+	}
+	
+	/**
+	 * Opens a session that only reaches clients connected to this node, for
+	 * messages another node of the cluster relayed here.
+	 */
+	public RelaySession openLocalSession() {
+		return new RelaySession(this, clientRegistry, offlineStore, null, metrics, "cluster.call", channelBufferSize, overflowPolicy);
+	}
+	
+	/**
+	 * Grants the sender of an inbound stream a window of credits at a time,
+	 * instead of the unbounded demand of the relay's flatMap.
+	 *
+	 * @param inbound the messages of one sender
+	 * @return the same messages, requested {@code rsocket.relay.request-window} at a time
+	 */
+	public <T> Flux<T> window(Flux<T> inbound) {
+		return inbound.limitRate(requestWindow);
+	}
+	
+	int getRequestWindow() {
+		return requestWindow;
+	}
+	
+	/**
+	 * @return the turns per round of the CONTROL, INTERACTIVE and BULK lanes
+	 */
+	int[] getLaneWeights() {
+		return laneWeights;
+	}
+	
+	/**
+	 * Marks the connection of a client as able to unpack batches, until
+	 * {@link #forget} is called for it.
+	 */
+	public void acceptBatches(RSocketRequester requester) {
+		if (batcher != null) {
+			batchReceivers.add(requester);
+		}
+	}
+	
+	public void forget(RSocketRequester requester) {
+		batchReceivers.remove(requester);
+	}
+	
+	/**
+	 * @return the batcher for messages to this connection, or null to send them
+	 * one by one
+	 */
+	MessageBatcher batcherFor(RSocketRequester requester) {
+		return batcher != null && batchReceivers.contains(requester) ? batcher : null;
+	}
+	
+	/**
+	 * Records that a message for the receiver found its outbound queue full.
+	 */
+	void overflowed(String receiver, OverflowPolicy policy) {
+		Lag lag = lagging.computeIfAbsent(receiver, key -> new Lag());
+		lag.overflows.increment();
+		lag.policy = policy;
+		lag.lastOverflow = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return the receivers that overflowed within the retention, the most
+	 * overflowed first
+	 */
+	public List<SlowReceiver> slowReceivers() {
+		long oldest = System.currentTimeMillis() - slowReceiverRetentionMillis;
+		List<SlowReceiver> slow = new ArrayList<>();
+		lagging.forEach((receiver, lag) -> {
+			if (lag.lastOverflow < oldest) {
+				lagging.remove(receiver, lag);
+			} else {
+				slow.add(new SlowReceiver(receiver, lag.overflows.sum(), lag.lastOverflow, lag.policy));
+			}
+		});
+		slow.sort(Comparator.comparingLong(SlowReceiver::getOverflows).reversed());
+		return slow;
+	}
+	
+	public long getOpened() {
+		return opened.sum();
+	}
+	
+	public long getClosed() {
+		return closed.sum();
+	}
+	
+	public long getRelayed() {
+		return relayed.sum();
+	}
+	
+	public long getDropped() {
+		return dropped.sum();
+	}
+	
+	public long getOffline() {
+		return offline.sum();
+	}
+	
+	public long getRemote() {
+		return remote.sum();
+	}
+	
+	public long getSpilled() {
+		return spilled.sum();
+	}
+	
+	public long getDisconnected() {
+		return disconnected.sum();
+	}
+	
+	private static final class Lag {
+		final LongAdder overflows = new LongAdder();
+		volatile long lastOverflow;
+		volatile OverflowPolicy policy;
+	}
+}
@@ -0,0 +1,145 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays payloads whose receiver is named in the metadata, without looking at
+ * the payload itself.
+ * <p>
+ * When sender and receiver use the same data mime type the received buffers are
+ * passed on as they are, and so are the replies. Only when the mime types
+ * differ, or the receiver is offline, are the payloads decoded into messages.
+ * A receiver on another node of the cluster is reached through that node's
+ * "cluster.forward" route, with the node's connection as the receiving side.
+ */
+@Slf4j
+@Component
+public class ForwardRelay {
+	
+	private static final ResolvableType MESSAGE_TYPE = ResolvableType.forClass(Message.class);
+	
+	private final ClientRegistry clientRegistry;
+	private final OfflineMessageStore offlineStore;
+	private final ClusterNode clusterNode;
+	private final RSocketStrategies strategies;
+	private final RelayMetrics metrics;
+	
+	private final LongAdder forwarded = new LongAdder();
+	private final LongAdder transcoded = new LongAdder();
+	private final LongAdder stored = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	
+	public ForwardRelay(ClientRegistry clientRegistry,
+						OfflineMessageStore offlineStore,
+						ClusterNode clusterNode,
+						RSocketStrategies strategies,
+						RelayMetrics metrics) {
+		this.clientRegistry = clientRegistry;
+		this.offlineStore = offlineStore;
+		this.clusterNode = clusterNode;
+		this.strategies = strategies;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @param receiver   the receiver named in the metadata of the first payload
+	 * @param senderType the data mime type of the sender's connection
+	 * @param payloads   the raw payloads of the sender
+	 * @return the raw replies of the receiver
+	 */
+	public Flux<DataBuffer> forward(String receiver, MimeType senderType, Flux<DataBuffer> payloads) {
+		return forward(receiver, senderType, payloads, false);
+	}
+	
+	/**
+	 * Same as {@link #forward}, for payloads another node of the cluster sent
+	 * here. They only go to a client connected to this node.
+	 */
+	public Flux<DataBuffer> forwardLocal(String receiver, MimeType senderType, Flux<DataBuffer> payloads) {
+		return forward(receiver, senderType, payloads, true);
+	}
+	
+	private Flux<DataBuffer> forward(String receiver, MimeType senderType, Flux<DataBuffer> payloads, boolean local) {
+		String routeName = local ? "cluster.forward" : "personal.forward";
+		RelayMetrics.Hop lookup = metrics.start(routeName, RelayMetrics.HOP_LOOKUP, receiver);
+		RSocketRequester target = clientRegistry.lookup(receiver);
+		RSocketRequester peer = target == null && !local ? clusterNode.peerFor(receiver) : null;
+		lookup.stop();
+		if (target == null && peer == null) {
+			//keep the payloads as messages until the receiver connects again.
+			return payloads
+					.doOnNext(buffer -> {
+						if (offlineStore.store(decode(buffer, senderType))) {
+							stored.increment();
+						} else {
+							dropped.increment();
+							metrics.dropped(routeName);
+						}
+					})
+					.thenMany(Flux.empty());
+		}
+		
+		RelayMetrics.Hop setup = metrics.start(routeName, RelayMetrics.HOP_SETUP, receiver);
+		RSocketRequester.RequestSpec route = target != null
+				? target.route("call")
+				: peer.route("cluster.forward").metadata(receiver, MessageCodec.RECEIVER_MIME_TYPE);
+		MimeType receiverType = (target != null ? target : peer).dataMimeType();
+		boolean sameType = receiverType.equals(senderType);
+		RelayMetrics.ReplyClock clock = metrics.replyClock(routeName);
+		Flux<DataBuffer> outbound = (sameType
+				? payloads.doOnNext(buffer -> forwarded.increment())
+				: payloads.map(buffer -> transcode(buffer, senderType, receiverType)))
+				.doOnNext(buffer -> clock.sent(System.nanoTime()));
+		
+		Flux<DataBuffer> replies = metrics.outbound(setup, route
+				.data(outbound)
+				.retrieveFlux(DataBuffer.class))
+				.doOnNext(buffer -> clock.replied());
+		return sameType ? replies : replies.map(buffer -> transcode(buffer, receiverType, senderType));
+	}
+	
+	public long getForwarded() {
+		return forwarded.sum();
+	}
+	
+	public long getTranscoded() {
+		return transcoded.sum();
+	}
+	
+	public long getStored() {
+		return stored.sum();
+	}
+	
+	public long getDropped() {
+		return dropped.sum();
+	}
+	
+	private DataBuffer transcode(DataBuffer buffer, MimeType from, MimeType to) {
+		transcoded.increment();
+		Encoder<Message> encoder = strategies.encoder(MESSAGE_TYPE, to);
+		return encoder.encodeValue(decode(buffer, from), strategies.dataBufferFactory(), MESSAGE_TYPE, to, Collections.emptyMap());
+	}
+	
+	private Message decode(DataBuffer buffer, MimeType mimeType) {
+		Decoder<Message> decoder = strategies.decoder(MESSAGE_TYPE, mimeType);
+		return decoder.decode(buffer, MESSAGE_TYPE, mimeType, Collections.emptyMap());
+	}
+}
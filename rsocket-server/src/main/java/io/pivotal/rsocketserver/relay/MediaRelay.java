@@ -0,0 +1,80 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays binary media frames to the "media" route of the receiver.
+ * <p>
+ * Frames are passed on as the received buffers, the server never reads them.
+ * The sender is asked for at most {@code rsocket.media.request-window} frames at
+ * a time, so the receiver's pace decides how fast the sender may go.
+ */
+@Slf4j
+@Component
+public class MediaRelay {
+	
+	private static final String ROUTE = "media.stream";
+	
+	private final ClientRegistry clientRegistry;
+	private final RelayMetrics metrics;
+	private final int requestWindow;
+	
+	private final LongAdder frames = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	
+	public MediaRelay(ClientRegistry clientRegistry,
+					  RelayMetrics metrics,
+					  @Value("${rsocket.media.request-window:64}") int requestWindow) {
+		this.clientRegistry = clientRegistry;
+		this.metrics = metrics;
+		this.requestWindow = requestWindow;
+	}
+	
+	/**
+	 * @param receiver the receiver named in the metadata
+	 * @param payloads the encoded media frames
+	 * @return the replies of the receiver
+	 */
+	public Flux<DataBuffer> relay(String receiver, Flux<DataBuffer> payloads) {
+		RelayMetrics.Hop lookup = metrics.start(ROUTE, RelayMetrics.HOP_LOOKUP, receiver);
+		RSocketRequester target = clientRegistry.lookup(receiver);
+		lookup.stop();
+		if (target == null) {
+			metrics.dropped(ROUTE);
+			//live media is not worth keeping, release the first frame and refuse.
+			return payloads
+					.take(1)
+					.doOnNext(DataBufferUtils::release)
+					.thenMany(Flux.error(new IllegalStateException("Receiver " + receiver + " is not connected")));
+		}
+		//the replies only end the stream, so only the setup is timed.
+		RelayMetrics.Hop setup = metrics.start(ROUTE, RelayMetrics.HOP_SETUP, receiver);
+		return metrics.outbound(setup, target
+				.route("media")
+				.data(payloads
+						.limitRate(requestWindow)
+						.doOnNext(buffer -> {
+							frames.increment();
+							bytes.add(buffer.readableByteCount());
+						}))
+				.retrieveFlux(DataBuffer.class));
+	}
+	
+	public long getFrames() {
+		return frames.sum();
+	}
+	
+	public long getBytes() {
+		return bytes.sum();
+	}
+}
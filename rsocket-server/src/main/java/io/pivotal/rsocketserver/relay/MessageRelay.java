@@ -0,0 +1,215 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays the messages of a sender stream to their receivers according to a
+ * {@link RelayPolicy}, and counts what every {@link RelayMode} relayed, queued
+ * and dropped.
+ */
+@Slf4j
+@Component
+public class MessageRelay {
+	
+	private final ClientRegistry clientRegistry;
+	private final ChannelRelay channelRelay;
+	private final OfflineMessageStore offlineStore;
+	private final ClusterNode clusterNode;
+	private final RelayMetrics metrics;
+	private final Map<RelayMode, Counters> counters = new EnumMap<>(RelayMode.class);
+	
+	public MessageRelay(ClientRegistry clientRegistry,
+						ChannelRelay channelRelay,
+						OfflineMessageStore offlineStore,
+						ClusterNode clusterNode,
+						RelayMetrics metrics) {
+		this.clientRegistry = clientRegistry;
+		this.channelRelay = channelRelay;
+		this.offlineStore = offlineStore;
+		this.clusterNode = clusterNode;
+		this.metrics = metrics;
+		for (RelayMode mode : RelayMode.values()) {
+			counters.put(mode, new Counters());
+		}
+	}
+	
+	/**
+	 * @param route    the inbound route the messages came in on, for the metrics
+	 * @param messages the messages of one sender
+	 * @param policy   the settings of the route
+	 * @return the replies of the receivers
+	 */
+	public Flux<Message> relay(String route, Flux<Message> messages, RelayPolicy policy) {
+		switch (policy.getMode()) {
+			case ORDERED:
+				return ordered(route, messages, policy);
+			case PARALLEL:
+				return parallel(route, messages, policy);
+			case LATEST:
+				return latest(route, messages);
+			default:
+				return channel(route, messages, false);
+		}
+	}
+	
+	/**
+	 * Relays messages another node of the cluster sent here, over one channel per
+	 * receiver, to clients connected to this node only.
+	 *
+	 * @param messages the messages relayed by the other node
+	 * @return the replies of the receivers
+	 */
+	public Flux<Message> relayLocal(Flux<Message> messages) {
+		return channel("cluster.call", messages, true);
+	}
+	
+	public RelayStats stats(RelayMode mode) {
+		if (mode == RelayMode.CHANNEL) {
+			return new RelayStats(mode,
+					channelRelay.getRelayed(),
+					channelRelay.getSpilled(),
+					channelRelay.getDropped() + channelRelay.getOffline());
+		}
+		Counters c = counters.get(mode);
+		return new RelayStats(mode, c.relayed.sum(), c.queued.sum(), c.dropped.sum());
+	}
+	
+	public List<RelayStats> stats() {
+		List<RelayStats> stats = new ArrayList<>();
+		for (RelayMode mode : RelayMode.values()) {
+			stats.add(stats(mode));
+		}
+		return stats;
+	}
+	
+	private Flux<Message> channel(String route, Flux<Message> messages, boolean local) {
+		return Flux.defer(() -> {
+			RelaySession session = local ? channelRelay.openLocalSession() : channelRelay.openSession(route);
+			//the sender gets credits a window at a time, the receivers' queues absorb the rest.
+			return channelRelay.window(messages)
+					//once the sender is done, complete the channels to all of its receivers.
+					.doOnComplete(session::complete)
+					.flatMap(message -> session.relay(message.getReceiver(), message), Integer.MAX_VALUE);
+		});
+	}
+	
+	private Flux<Message> ordered(String route, Flux<Message> messages, RelayPolicy policy) {
+		Counters c = counters.get(RelayMode.ORDERED);
+		return Flux.defer(() -> {
+			AtomicInteger active = new AtomicInteger();
+			return messages
+					.doOnNext(message -> {
+						if (active.getAndIncrement() > 0) {
+							c.queued.increment();
+						}
+					})
+					.concatMap(message -> call(route, message, c, new AtomicBoolean(true))
+							.doFinally(signal -> active.decrementAndGet()), policy.getPrefetch());
+		});
+	}
+	
+	private Flux<Message> parallel(String route, Flux<Message> messages, RelayPolicy policy) {
+		Counters c = counters.get(RelayMode.PARALLEL);
+		return Flux.defer(() -> {
+			AtomicInteger active = new AtomicInteger();
+			return messages
+					.doOnNext(message -> {
+						if (active.getAndIncrement() >= policy.getMaxConcurrency()) {
+							c.queued.increment();
+						}
+					})
+					.flatMap(message -> call(route, message, c, new AtomicBoolean(true))
+									.doFinally(signal -> active.decrementAndGet()),
+							policy.getMaxConcurrency(), policy.getPrefetch());
+		});
+	}
+	
+	private Flux<Message> latest(String route, Flux<Message> messages) {
+		Counters c = counters.get(RelayMode.LATEST);
+		return Flux.defer(() -> {
+			AtomicReference<AtomicBoolean> current = new AtomicReference<>();
+			return messages
+					//switchMap cancels the previous call next, its message is lost unless it got through already.
+					.doOnNext(message -> {
+						AtomicBoolean previous = current.get();
+						if (previous != null && previous.compareAndSet(true, false)) {
+							c.dropped.increment();
+							metrics.dropped(route);
+						}
+					})
+					.switchMap(message -> {
+						AtomicBoolean pending = new AtomicBoolean(true);
+						current.set(pending);
+						return call(route, message, c, pending);
+					});
+		});
+	}
+	
+	/**
+	 * Calls the receiver of one message. The message counts as relayed once the
+	 * receiver replied or completed the call.
+	 *
+	 * @param pending true until the message is counted, as relayed, dropped or stored
+	 */
+	private Flux<Message> call(String route, Message message, Counters c, AtomicBoolean pending) {
+		RelayMetrics.Hop lookup = metrics.start(route, RelayMetrics.HOP_LOOKUP, message.getReceiver());
+		RSocketRequester requester = clientRegistry.lookup(message.getReceiver());
+		RSocketRequester peer = requester == null ? clusterNode.peerFor(message.getReceiver()) : null;
+		lookup.stop();
+		if (requester == null && peer == null) {
+			pending.set(false);
+			//keep the message until the receiver connects again.
+			if (!offlineStore.store(message)) {
+				c.dropped.increment();
+				metrics.dropped(route);
+				log.warn("Receiver {} is not connected, message dropped.", message.getReceiver());
+			}
+			return Flux.empty();
+		}
+		RelayMetrics.Hop setup = metrics.start(route, RelayMetrics.HOP_SETUP, message.getReceiver());
+		RSocketRequester.RequestSpec request = requester != null
+				? requester.route("call")
+				: peer.route("cluster.call");
+		Runnable relayed = () -> {
+			if (pending.compareAndSet(true, false)) {
+				c.relayed.increment();
+			}
+		};
+		return metrics.reply(setup, request
+						.data(Flux.just(message))
+						.retrieveFlux(Message.class))
+				.doOnNext(reply -> relayed.run())
+				.doOnComplete(relayed)
+				.onErrorResume(error -> {
+					if (pending.compareAndSet(true, false)) {
+						c.dropped.increment();
+						metrics.dropped(route);
+					}
+					log.warn("Call to {} failed: {}", message.getReceiver(), error.toString());
+					return Flux.empty();
+				});
+	}
+	
+	private static final class Counters {
+		final LongAdder relayed = new LongAdder();
+		final LongAdder queued = new LongAdder();
+		final LongAdder dropped = new LongAdder();
+	}
+}
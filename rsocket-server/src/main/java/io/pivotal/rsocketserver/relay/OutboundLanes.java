@@ -0,0 +1,247 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.data.Priority;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The outbound queue of one receiver channel, split into a bounded lane per
+ * {@link Priority}.
+ * <p>
+ * The receiver's requests are served by weighted round robin: in every round a
+ * lane sends up to its weight in payloads, CONTROL first, and the round ends
+ * once no lane holding payloads has turns left. A control message therefore
+ * waits behind at most the interactive and bulk weights, however far behind the
+ * receiver is on bulk content, and no busy lane starves the others. Each lane
+ * fills up and overflows on its own.
+ * <p>
+ * Offers come from the serial relay calls and requests from the receiver. The
+ * lanes are guarded by their lock, payloads are emitted outside of it by
+ * whichever side drains.
+ */
+final class OutboundLanes implements Subscription {
+	
+	private static final Priority[] PRIORITIES = Priority.values();
+	
+	private final int capacity;
+	private final int[] weights;
+	private final RelayMetrics metrics;
+	private final RelayMetrics.ReplyClock replies;
+	private final Consumer<Object> discard;
+	private final Runnable emptied;
+	
+	// one ring per lane, with the time every payload was queued
+	private final Object[][] payloads;
+	private final long[][] queuedAt;
+	private final int[] heads;
+	private final int[] counts;
+	private final int[] turns;
+	private int size;
+	
+	private final AtomicInteger wip = new AtomicInteger();
+	private final AtomicLong requested = new AtomicLong();
+	private volatile Subscriber<? super Object> actual;
+	private volatile boolean done;
+	private volatile boolean cancelled;
+	private boolean completed;
+	
+	/**
+	 * @param capacity the payloads each lane holds before it overflows
+	 * @param weights  the turns per round of every lane, in {@link Priority} order
+	 * @param metrics  records the time payloads spent in their lane
+	 * @param replies  times every sent payload from its lane to the receiver's reply
+	 * @param discard  releases the payloads left behind on cancel
+	 * @param emptied  called whenever the receiver took the last queued payload
+	 */
+	OutboundLanes(int capacity, int[] weights, RelayMetrics metrics, RelayMetrics.ReplyClock replies,
+				  Consumer<Object> discard, Runnable emptied) {
+		this.capacity = Math.max(1, capacity);
+		this.weights = new int[PRIORITIES.length];
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			this.weights[i] = Math.max(1, i < weights.length ? weights[i] : 1);
+		}
+		this.metrics = metrics;
+		this.replies = replies;
+		this.discard = discard;
+		this.emptied = emptied;
+		this.payloads = new Object[PRIORITIES.length][this.capacity];
+		this.queuedAt = new long[PRIORITIES.length][this.capacity];
+		this.heads = new int[PRIORITIES.length];
+		this.counts = new int[PRIORITIES.length];
+		this.turns = this.weights.clone();
+	}
+	
+	/**
+	 * @return the payloads, for a single subscriber
+	 */
+	Flux<Object> flux() {
+		return Flux.from(subscriber -> {
+			if (actual != null) {
+				Operators.error(subscriber, new IllegalStateException("Outbound lanes allow only one subscriber"));
+				return;
+			}
+			actual = subscriber;
+			subscriber.onSubscribe(this);
+			drain();
+		});
+	}
+	
+	/**
+	 * @return OK, FAIL_OVERFLOW if the lane is full, FAIL_TERMINATED or
+	 * FAIL_CANCELLED if the channel is over
+	 */
+	Sinks.EmitResult offer(Priority priority, Object payload) {
+		if (cancelled) {
+			return Sinks.EmitResult.FAIL_CANCELLED;
+		}
+		if (done) {
+			return Sinks.EmitResult.FAIL_TERMINATED;
+		}
+		int lane = priority.ordinal();
+		synchronized (this) {
+			if (counts[lane] == capacity) {
+				return Sinks.EmitResult.FAIL_OVERFLOW;
+			}
+			int tail = (heads[lane] + counts[lane]) % capacity;
+			payloads[lane][tail] = payload;
+			queuedAt[lane][tail] = System.nanoTime();
+			counts[lane]++;
+			size++;
+		}
+		drain();
+		return Sinks.EmitResult.OK;
+	}
+	
+	/**
+	 * Removes the payload that waited longest in the lane, for DROP_OLDEST.
+	 *
+	 * @return the payload, or null if the lane is empty
+	 */
+	synchronized Object pollOldest(Priority priority) {
+		int lane = priority.ordinal();
+		return counts[lane] == 0 ? null : take(lane);
+	}
+	
+	synchronized boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Completes the channel once the payloads queued so far are sent.
+	 */
+	void complete() {
+		done = true;
+		drain();
+	}
+	
+	@Override
+	public void request(long n) {
+		if (Operators.validate(n)) {
+			requested.getAndUpdate(current -> Operators.addCap(current, n));
+			drain();
+		}
+	}
+	
+	@Override
+	public void cancel() {
+		cancelled = true;
+		drain();
+	}
+	
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			Subscriber<? super Object> subscriber = actual;
+			if (cancelled) {
+				clear();
+			} else if (subscriber != null) {
+				long emitted = 0;
+				long wanted = requested.get();
+				Object next;
+				while (emitted != wanted && !cancelled && (next = next()) != null) {
+					subscriber.onNext(next);
+					emitted++;
+				}
+				if (emitted != 0) {
+					long sent = emitted;
+					requested.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - sent);
+					if (!done && isEmpty()) {
+						emptied.run();
+					}
+				}
+				if (done && !cancelled && !completed && isEmpty()) {
+					completed = true;
+					subscriber.onComplete();
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+	
+	/**
+	 * @return the next payload in the weighted order, or null if all lanes are empty
+	 */
+	private synchronized Object next() {
+		if (size == 0) {
+			return null;
+		}
+		for (int lane = 0; lane < PRIORITIES.length; lane++) {
+			if (counts[lane] > 0 && turns[lane] > 0) {
+				return send(lane);
+			}
+		}
+		//no lane holding payloads has turns left, a new round begins.
+		System.arraycopy(weights, 0, turns, 0, weights.length);
+		for (int lane = 0; lane < PRIORITIES.length; lane++) {
+			if (counts[lane] > 0) {
+				return send(lane);
+			}
+		}
+		return null;
+	}
+	
+	private Object send(int lane) {
+		turns[lane]--;
+		long queued = queuedAt[lane][heads[lane]];
+		metrics.laneSent(PRIORITIES[lane], System.nanoTime() - queued);
+		replies.sent(queued);
+		return take(lane);
+	}
+	
+	private Object take(int lane) {
+		int head = heads[lane];
+		Object payload = payloads[lane][head];
+		payloads[lane][head] = null;
+		heads[lane] = (head + 1) % capacity;
+		counts[lane]--;
+		size--;
+		return payload;
+	}
+	
+	private void clear() {
+		Object payload;
+		while ((payload = pollAny()) != null) {
+			discard.accept(payload);
+		}
+	}
+	
+	private synchronized Object pollAny() {
+		for (int lane = 0; lane < PRIORITIES.length; lane++) {
+			if (counts[lane] > 0) {
+				return take(lane);
+			}
+		}
+		return null;
+	}
+}
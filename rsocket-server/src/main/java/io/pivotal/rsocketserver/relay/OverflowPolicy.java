@@ -0,0 +1,32 @@
+package io.pivotal.rsocketserver.relay;
+
+/**
+ * What a {@link RelaySession} does with a message for a receiver whose outbound
+ * queue is full. Channels to another node of the cluster always drop the newest
+ * message, that node applies its own policy to the receiver.
+ */
+public enum OverflowPolicy {
+	
+	/**
+	 * The new message is dropped, the queue keeps what it has.
+	 */
+	DROP_NEWEST,
+	
+	/**
+	 * The oldest queued message is dropped to make room for the new one.
+	 */
+	DROP_OLDEST,
+	
+	/**
+	 * The receiver's connection is closed. The new message, and every following
+	 * one, is kept in the offline store until the receiver connects again.
+	 */
+	DISCONNECT,
+	
+	/**
+	 * The new message, and every following one, goes to the offline store until
+	 * the receiver has drained its queue; then the stored messages are replayed.
+	 * Encoded buffers cannot be stored and are dropped instead.
+	 */
+	SPILL
+}
@@ -0,0 +1,53 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+
+/**
+ * Queries over the relay counters, answered as plain text lines.
+ */
+@Controller
+public class RelayController {
+	
+	private final MessageRelay messageRelay;
+	private final ChannelRelay channelRelay;
+	private final ClientRegistry clientRegistry;
+	
+	public RelayController(MessageRelay messageRelay, ChannelRelay channelRelay, ClientRegistry clientRegistry) {
+		this.messageRelay = messageRelay;
+		this.channelRelay = channelRelay;
+		this.clientRegistry = clientRegistry;
+	}
+	
+	@MessageMapping("relay.stats")
+	Flux<String> stats() {
+		return Flux.defer(() -> Flux.fromIterable(messageRelay.stats())
+				.map(stats -> String.format("%s relayed=%d queued=%d dropped=%d",
+						stats.getMode(), stats.getRelayed(), stats.getQueued(), stats.getDropped()))
+				.concatWith(Flux.just(String.format("CHANNEL spilled=%d disconnected=%d",
+						channelRelay.getSpilled(), channelRelay.getDisconnected()))));
+	}
+	
+	/**
+	 * @return the receivers that could not keep up recently, the slowest first
+	 */
+	@MessageMapping("relay.slow")
+	Flux<String> slowReceivers() {
+		return Flux.defer(() -> Flux.fromIterable(channelRelay.slowReceivers())
+				.map(slow -> String.format("%s overflows=%d policy=%s last=%tFT%<tT",
+						slow.getReceiver(), slow.getOverflows(), slow.getPolicy(), slow.getLastOverflow())));
+	}
+	
+	/**
+	 * @return the counters of every registry shard, to spot a skewed spread of clients
+	 */
+	@MessageMapping("relay.shards")
+	Flux<String> shards() {
+		return Flux.defer(() -> Flux.fromIterable(clientRegistry.shardStats())
+				.map(shard -> String.format("shard=%d clients=%d registered=%d replaced=%d evicted=%d lookups=%d misses=%d",
+						shard.getShard(), shard.getClients(), shard.getRegistered(), shard.getReplaced(),
+						shard.getEvicted(), shard.getLookups(), shard.getMisses())));
+	}
+}
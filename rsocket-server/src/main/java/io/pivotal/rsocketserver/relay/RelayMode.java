@@ -0,0 +1,28 @@
+package io.pivotal.rsocketserver.relay;
+
+/**
+ * How the messages of one sender stream are relayed to their receivers.
+ */
+public enum RelayMode {
+	
+	/**
+	 * One long-lived channel per receiver, messages are never cancelled.
+	 */
+	CHANNEL,
+	
+	/**
+	 * One call per message, the next message waits until the previous call is
+	 * done. Nothing is dropped, replies keep the order of the messages.
+	 */
+	ORDERED,
+	
+	/**
+	 * One call per message, up to a maximum number of calls at the same time.
+	 */
+	PARALLEL,
+	
+	/**
+	 * One call per message, a new message cancels the call of the previous one.
+	 */
+	LATEST
+}
@@ -0,0 +1,22 @@
+package io.pivotal.rsocketserver.relay;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The relay settings of one route.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class RelayPolicy {
+	
+	private final RelayMode mode;
+	
+	// Calls running at the same time in PARALLEL mode.
+	private final int maxConcurrency;
+	
+	// Messages requested ahead from the sender in ORDERED and PARALLEL mode.
+	private final int prefetch;
+}
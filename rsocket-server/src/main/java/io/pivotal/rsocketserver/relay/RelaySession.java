@@ -0,0 +1,394 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.MessageBatch;
+import io.pivotal.rsocketserver.data.Priority;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.reactivestreams.Subscription;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outbound channels opened on behalf of one sender stream.
+ * <p>
+ * The first message for a receiver opens a single "call" channel to it, fed by
+ * bounded {@link OutboundLanes}; every following message for that receiver goes
+ * into the lane of its {@link Priority} instead of opening a new stream. The
+ * receiver drains its lanes by its own requests, control messages first, so a
+ * slow receiver only ever fills its own lanes; when a lane is full the session's
+ * {@link OverflowPolicy} applies to it. A payload is either a {@link Message}
+ * or an already encoded {@link DataBuffer}.
+ * <p>
+ * Under SPILL, a receiver whose lane overflowed gets its newer messages stored
+ * in the {@link OfflineMessageStore} until it caught up. Whenever it has taken
+ * everything queued, the next stored messages move into its lanes, up to a
+ * lane's capacity at a time, so they reach it in order on the same channel.
+ * Spilling ends once nothing is stored for the receiver any more.
+ * <p>
+ * A receiver that accepts batches gets its channel on the "call.batch" route,
+ * with the messages packed by the relay's {@link MessageBatcher}.
+ * <p>
+ * A receiver connected to another node of the cluster gets its channel through
+ * that node's "cluster.call" route instead. Only messages go that way, buffers
+ * are encoded for a local connection.
+ * <p>
+ * {@link #relay} must be called serially, as it is from a Flux's onNext.
+ */
+@Slf4j
+public class RelaySession {
+	
+	private final ChannelRelay relay;
+	private final ClientRegistry clientRegistry;
+	private final OfflineMessageStore offlineStore;
+	private final ClusterNode clusterNode;
+	private final RelayMetrics metrics;
+	private final String routeName;
+	private final int bufferSize;
+	private final OverflowPolicy overflowPolicy;
+	private final Map<String, Outbound> outbounds = new ConcurrentHashMap<>();
+	
+	RelaySession(ChannelRelay relay,
+				 ClientRegistry clientRegistry,
+				 OfflineMessageStore offlineStore,
+				 ClusterNode clusterNode,
+				 RelayMetrics metrics,
+				 String routeName,
+				 int bufferSize,
+				 OverflowPolicy overflowPolicy) {
+		this.relay = relay;
+		this.clientRegistry = clientRegistry;
+		this.offlineStore = offlineStore;
+		this.clusterNode = clusterNode;
+		this.metrics = metrics;
+		this.routeName = routeName;
+		this.bufferSize = bufferSize;
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Relays the payload to the receiver.
+	 *
+	 * @param receiver the name of the receiving client
+	 * @param payload  the message or encoded buffer to send
+	 * @return the replies of the receiver if this call opened its channel,
+	 * otherwise an empty Flux
+	 */
+	public Flux<Message> relay(String receiver, Object payload) {
+		return relay(receiver, payload instanceof Message ? Priority.of((Message) payload) : Priority.INTERACTIVE, payload);
+	}
+	
+	/**
+	 * Relays the payload to the receiver in the lane of the given priority.
+	 *
+	 * @param receiver the name of the receiving client
+	 * @param priority the lane to queue the payload in
+	 * @param payload  the message or encoded buffer to send
+	 * @return the replies of the receiver if this call opened its channel,
+	 * otherwise an empty Flux
+	 */
+	public Flux<Message> relay(String receiver, Priority priority, Object payload) {
+		Outbound outbound = outbounds.get(receiver);
+		if (outbound != null) {
+			//control messages are not held back behind the spilled ones.
+			if (outbound.spilling && priority != Priority.CONTROL && outbound.spill(payload, false)) {
+				return Flux.empty();
+			}
+			Sinks.EmitResult result = outbound.lanes.offer(priority, payload);
+			if (result.isSuccess()) {
+				relay.relayed.increment();
+				return Flux.empty();
+			}
+			if (result == Sinks.EmitResult.FAIL_OVERFLOW) {
+				overflow(receiver, outbound, priority, payload);
+				return Flux.empty();
+			}
+			// The channel is terminated, open a new one below.
+			outbounds.remove(receiver, outbound);
+		}
+		
+		RSocketRequester.RequestSpec route;
+		RelayMetrics.Hop lookup = metrics.start(routeName, RelayMetrics.HOP_LOOKUP, receiver);
+		RSocketRequester requester = clientRegistry.lookup(receiver);
+		RSocketRequester peer = requester == null && payload instanceof Message && clusterNode != null
+				? clusterNode.peerFor(receiver)
+				: null;
+		lookup.stop();
+		RelayMetrics.Hop setup = metrics.start(routeName, RelayMetrics.HOP_SETUP, receiver);
+		MessageBatcher batcher = requester != null && payload instanceof Message ? relay.batcherFor(requester) : null;
+		if (batcher != null) {
+			route = requester.route("call.batch");
+		} else if (requester != null) {
+			route = requester.route("call");
+		} else if (peer != null) {
+			relay.remote.increment();
+			route = peer.route("cluster.call");
+		} else {
+			//personal messages are kept until the receiver connects again.
+			if (payload instanceof Message && offlineStore.store((Message) payload)) {
+				return Flux.empty();
+			}
+			relay.offline.increment();
+			metrics.dropped(routeName);
+			log.warn("Receiver {} is not connected, message dropped.", receiver);
+			release(payload);
+			return Flux.empty();
+		}
+		
+		RelayMetrics.ReplyClock replies = metrics.replyClock(routeName);
+		Outbound opened = new Outbound(receiver, requester, replies);
+		outbounds.put(receiver, opened);
+		opened.lanes.offer(priority, payload);
+		relay.opened.increment();
+		relay.relayed.increment();
+		
+		Flux<Object> payloads = opened.lanes.flux();
+		return metrics.outbound(setup, route
+						.data(batcher == null ? payloads : batcher.batch(payloads.cast(Message.class))
+								.doOnNext(batch -> metrics.batched(routeName, batch.size()))
+								.map(MessageBatch::new))
+						.retrieveFlux(Message.class)
+						.limitRate(relay.getRequestWindow()))
+				//the receiver answers every message, batched or not, in the order sent.
+				.doOnNext(reply -> replies.replied())
+				.onErrorResume(error -> {
+					log.warn("Channel to {} failed: {}", receiver, error.toString());
+					return Flux.empty();
+				})
+				.doFinally(signal -> {
+					outbounds.remove(receiver, opened);
+					opened.stopReplay();
+					relay.closed.increment();
+				});
+	}
+	
+	/**
+	 * Completes every outbound channel once the sender has no more messages. The
+	 * channels stay open until the receivers are done replying, a spilling
+	 * channel completes once its stored messages are sent.
+	 */
+	public void complete() {
+		outbounds.values().forEach(Outbound::complete);
+	}
+	
+	public int size() {
+		return outbounds.size();
+	}
+	
+	/**
+	 * Applies the overflow policy to a payload that found its lane of the
+	 * receiver full. Channels to another node always drop the newest payload.
+	 */
+	private void overflow(String receiver, Outbound outbound, Priority priority, Object payload) {
+		OverflowPolicy policy = outbound.requester != null ? overflowPolicy : OverflowPolicy.DROP_NEWEST;
+		relay.overflowed(receiver, policy);
+		metrics.overflow(routeName, policy.name());
+		metrics.laneOverflow(priority);
+		switch (policy) {
+			case DROP_OLDEST:
+				Object oldest = outbound.lanes.pollOldest(priority);
+				if (oldest != null) {
+					relay.dropped.increment();
+					metrics.dropped(routeName);
+					release(oldest);
+				}
+				if (outbound.lanes.offer(priority, payload).isSuccess()) {
+					relay.relayed.increment();
+					return;
+				}
+				break;
+			case SPILL:
+				if (outbound.spill(payload, true)) {
+					return;
+				}
+				break;
+			case DISCONNECT:
+				log.warn("Receiver {} is {} {} messages behind, disconnecting it.", receiver, bufferSize, priority);
+				outbounds.remove(receiver, outbound);
+				relay.disconnected.increment();
+				outbound.requester.dispose();
+				//personal messages are kept until the receiver connects again.
+				if (payload instanceof Message && offlineStore.store((Message) payload)) {
+					return;
+				}
+				break;
+			default:
+				break;
+		}
+		relay.dropped.increment();
+		metrics.dropped(routeName);
+		log.debug("Channel to {} is full, message dropped.", receiver);
+		release(payload);
+	}
+	
+	private static void release(Object payload) {
+		if (payload instanceof DataBuffer) {
+			DataBufferUtils.release((DataBuffer) payload);
+		}
+	}
+	
+	private final class Outbound {
+		final String receiver;
+		// null for a channel to another node of the cluster
+		final RSocketRequester requester;
+		final OutboundLanes lanes;
+		// read without the lock by the serial relay calls, written with it
+		volatile boolean spilling;
+		// guarded by this
+		private boolean completed;
+		private SpillReplay replay;
+		
+		Outbound(String receiver, RSocketRequester requester, RelayMetrics.ReplyClock replies) {
+			this.receiver = receiver;
+			this.requester = requester;
+			this.lanes = new OutboundLanes(bufferSize, relay.getLaneWeights(), metrics, replies,
+					RelaySession::release, this::emptied);
+		}
+		
+		/**
+		 * Stores the payload behind the messages spilled before it.
+		 *
+		 * @param overflowed true if the payload found its lane full, which starts
+		 *                   spilling
+		 * @return false if the payload still has to be emitted or dropped
+		 */
+		boolean spill(Object payload, boolean overflowed) {
+			if (!(payload instanceof Message)) {
+				return false;
+			}
+			synchronized (this) {
+				if (!spilling && !overflowed || !offlineStore.store((Message) payload)) {
+					return false;
+				}
+				spilling = true;
+				//the receiver may have taken its last queued message already.
+				if (overflowed && lanes.isEmpty()) {
+					emptied();
+				}
+			}
+			relay.spilled.increment();
+			return true;
+		}
+		
+		synchronized void complete() {
+			completed = true;
+			if (!spilling) {
+				lanes.complete();
+			}
+		}
+		
+		synchronized void stopReplay() {
+			if (replay != null) {
+				replay.dispose();
+			}
+		}
+		
+		/**
+		 * The receiver took everything queued: moves the next stored messages into
+		 * the lanes, or ends spilling if there are none left.
+		 */
+		private void emptied() {
+			if (!spilling) {
+				return;
+			}
+			synchronized (this) {
+				if (!spilling) {
+					return;
+				}
+				if (replay == null) {
+					if (!offlineStore.holds(receiver)) {
+						stopSpilling();
+						return;
+					}
+					replay = new SpillReplay(this);
+					offlineStore.replay(receiver).subscribe(replay);
+				}
+				replay.next();
+			}
+		}
+		
+		/**
+		 * A replay ended. Messages spilled while it ran are replayed next, once the
+		 * lanes are empty again.
+		 */
+		private synchronized void replayed(boolean failed) {
+			replay = null;
+			if (failed) {
+				//what is still stored goes to the receiver when it connects again.
+				stopSpilling();
+			} else if (lanes.isEmpty()) {
+				emptied();
+			}
+		}
+		
+		private void stopSpilling() {
+			spilling = false;
+			if (completed) {
+				lanes.complete();
+			}
+		}
+	}
+	
+	/**
+	 * Moves stored messages into the lanes of a spilling channel, requesting the
+	 * next ones only once the previous ones were sent.
+	 */
+	private final class SpillReplay extends BaseSubscriber<Message> {
+		private final Outbound outbound;
+		// guarded by the outbound
+		private int pending;
+		
+		SpillReplay(Outbound outbound) {
+			this.outbound = outbound;
+		}
+		
+		/**
+		 * Requests as many messages as a lane holds, unless some are still on
+		 * their way.
+		 */
+		void next() {
+			if (pending == 0) {
+				pending = bufferSize;
+				request(bufferSize);
+			}
+		}
+		
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+			//requested once the lanes are empty
+		}
+		
+		@Override
+		protected void hookOnNext(Message message) {
+			synchronized (outbound) {
+				pending--;
+			}
+			if (!outbound.lanes.offer(Priority.of(message), message).isSuccess()) {
+				relay.dropped.increment();
+				metrics.dropped(routeName);
+				log.debug("Channel to {} is over, spilled message dropped.", outbound.receiver);
+			}
+		}
+		
+		@Override
+		protected void hookOnComplete() {
+			outbound.replayed(false);
+		}
+		
+		@Override
+		protected void hookOnError(Throwable error) {
+			log.warn("Replay of spilled messages to {} failed: {}", outbound.receiver, error.toString());
+			outbound.replayed(true);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package io.pivotal.rsocketserver.relay;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Point-in-time counters of one relay mode.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class RelayStats {
+	
+	private final RelayMode mode;
+	
+	// Messages handed to a receiver.
+	private final long relayed;
+	
+	// Messages that had to wait for an earlier call, or were spilled to disk
+	// because their receiver fell behind, before being relayed.
+	private final long queued;
+	
+	// Messages that never reached a receiver: cancelled, overflowed or offline.
+	private final long dropped;
+}
@@ -0,0 +1,25 @@
+package io.pivotal.rsocketserver.relay;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Point-in-time counters of one receiver whose outbound queue overflowed.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class SlowReceiver {
+	
+	private final String receiver;
+	
+	// Messages that found the receiver's queue full.
+	private final long overflows;
+	
+	// Epoch millis of the last overflow.
+	private final long lastOverflow;
+	
+	// The policy applied on the last overflow.
+	private final OverflowPolicy policy;
+}
@@ -0,0 +1,118 @@
+package io.pivotal.rsocketserver.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.rsocket.resume.ResumableFramesStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Creates the frame stores of resumable sessions and counts what became of them.
+ * <p>
+ * Each session keeps up to {@code memory-size-per-session} of unacknowledged
+ * frames on the heap. Older frames move to a memory-mapped spill file of the
+ * session until {@code max-size-per-session} is reached; past that the oldest
+ * frames are dropped and the session can no longer resume from before them.
+ * A session does not outlive the server, so spill files left by a previous run
+ * are deleted on start.
+ * <p>
+ * The counters are published as {@code rsocket.resumption.*} gauges.
+ */
+@Slf4j
+@Component
+public class ResumptionStore {
+	
+	private final Path directory;
+	private final int memoryLimit;
+	private final int diskLimit;
+	
+	private final AtomicLong spillFiles = new AtomicLong();
+	final LongAdder created = new LongAdder();
+	final LongAdder resumed = new LongAdder();
+	final LongAdder lost = new LongAdder();
+	final LongAdder closed = new LongAdder();
+	final LongAdder spilled = new LongAdder();
+	final LongAdder evicted = new LongAdder();
+	
+	public ResumptionStore(@Value("${rsocket.resumption.directory:${java.io.tmpdir}/rsocket-resume}") String directory,
+						   @Value("${rsocket.resumption.memory-size-per-session:256KB}") DataSize memorySize,
+						   @Value("${rsocket.resumption.max-size-per-session:16MB}") DataSize maxSize,
+						   RelayMetrics metrics) {
+		this.directory = Paths.get(directory);
+		this.memoryLimit = (int) memorySize.toBytes();
+		this.diskLimit = (int) Math.max(0, maxSize.toBytes() - memorySize.toBytes());
+		metrics.gauge("rsocket.resumption.created", "Resumable sessions created", created, LongAdder::sum);
+		metrics.gauge("rsocket.resumption.resumed", "Sessions resumed on a new connection", resumed, LongAdder::sum);
+		metrics.gauge("rsocket.resumption.lost", "Sessions that lost their connection", lost, LongAdder::sum);
+		metrics.gauge("rsocket.resumption.closed", "Sessions closed for good", closed, LongAdder::sum);
+		metrics.gauge("rsocket.resumption.spilled", "Frames moved to a spill file", spilled, LongAdder::sum);
+		metrics.gauge("rsocket.resumption.evicted", "Frames dropped past the size limit of a session", evicted, LongAdder::sum);
+	}
+	
+	@PostConstruct
+	void start() throws IOException {
+		Files.createDirectories(directory);
+		try (Stream<Path> files = Files.list(directory)) {
+			files.filter(file -> file.toString().endsWith(".spill")).forEach(file -> file.toFile().delete());
+		}
+		log.info("Resumption store at {} keeps {} bytes per session on the heap and {} on disk.",
+				directory, memoryLimit, diskLimit);
+	}
+	
+	/**
+	 * The store factory handed to {@code Resume}.
+	 *
+	 * @param token the resume token of the new session
+	 */
+	public ResumableFramesStore create(ByteBuf token) {
+		created.increment();
+		return new SpillingFramesStore(this, ByteBufUtil.hexDump(token), memoryLimit, diskLimit);
+	}
+	
+	Path nextSpillFile() {
+		return directory.resolve(String.format("%016x.spill", spillFiles.incrementAndGet()));
+	}
+	
+	public long getCreated() {
+		return created.sum();
+	}
+	
+	/**
+	 * @return the number of times a session was resumed on a new connection
+	 */
+	public long getResumed() {
+		return resumed.sum();
+	}
+	
+	/**
+	 * @return the number of sessions that ended without a connection, waiting
+	 * to be resumed
+	 */
+	public long getLost() {
+		return lost.sum();
+	}
+	
+	public long getClosed() {
+		return closed.sum();
+	}
+	
+	public long getSpilled() {
+		return spilled.sum();
+	}
+	
+	public long getEvicted() {
+		return evicted.sum();
+	}
+}
@@ -0,0 +1,166 @@
+package io.pivotal.rsocketserver.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A memory-mapped ring of frames, the oldest first.
+ * <p>
+ * Each record is {@code [int length][frame]}. A record that does not fit before
+ * the end of the file starts again at 0; a length of -1, or less than four bytes
+ * left, marks that jump. The file is mapped once at its full size and only the
+ * pages written to take up disk space.
+ */
+final class SpillFile {
+	
+	private static final int HEADER = 4;
+	private static final int WRAP = -1;
+	
+	private final Path path;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private int head;
+	private int tail;
+	private int count;
+	private long bytes;
+	
+	private SpillFile(Path path, MappedByteBuffer buffer, int capacity) {
+		this.path = path;
+		this.buffer = buffer;
+		this.capacity = capacity;
+	}
+	
+	static SpillFile create(Path path, int capacity) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new SpillFile(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), capacity);
+		}
+	}
+	
+	/**
+	 * Copies the readable bytes of the frame to the end of the ring.
+	 *
+	 * @return false if the ring has no room for the frame
+	 */
+	boolean offer(ByteBuf frame) {
+		int length = frame.readableBytes();
+		int need = HEADER + length;
+		int position;
+		if (count == 0) {
+			position = 0;
+			head = 0;
+		} else if (tail > head) {
+			if (capacity - tail >= need) {
+				position = tail;
+			} else if (head >= need) {
+				if (capacity - tail >= HEADER) {
+					buffer.putInt(tail, WRAP);
+				}
+				position = 0;
+			} else {
+				return false;
+			}
+		} else if (head - tail >= need) {
+			position = tail;
+		} else {
+			return false;
+		}
+		if (position + need > capacity) {
+			return false;
+		}
+		buffer.putInt(position, length);
+		frame.getBytes(frame.readerIndex(), buffer.duplicate().position(position + HEADER).limit(position + need));
+		tail = position + need;
+		count++;
+		bytes += length;
+		return true;
+	}
+	
+	/**
+	 * Removes the oldest frame and returns a copy of it.
+	 *
+	 * @return the frame, or null if the ring is empty
+	 */
+	ByteBuf poll(ByteBufAllocator allocator) {
+		if (count == 0) {
+			return null;
+		}
+		int length = lengthAtHead();
+		ByteBuf frame = allocator.buffer(length);
+		frame.writeBytes(buffer.duplicate().position(head + HEADER).limit(head + HEADER + length));
+		remove(length);
+		return frame;
+	}
+	
+	/**
+	 * Removes the oldest frame without reading it.
+	 *
+	 * @return the length of the removed frame, or -1 if the ring is empty
+	 */
+	int skip() {
+		if (count == 0) {
+			return -1;
+		}
+		int length = lengthAtHead();
+		remove(length);
+		return length;
+	}
+	
+	/**
+	 * Copies every frame, oldest first, without removing any.
+	 */
+	void forEach(ByteBufAllocator allocator, Consumer<ByteBuf> action) {
+		int position = head;
+		for (int i = 0; i < count; i++) {
+			if (capacity - position < HEADER || buffer.getInt(position) == WRAP) {
+				position = 0;
+			}
+			int length = buffer.getInt(position);
+			ByteBuf frame = allocator.buffer(length);
+			frame.writeBytes(buffer.duplicate().position(position + HEADER).limit(position + HEADER + length));
+			action.accept(frame);
+			position += HEADER + length;
+		}
+	}
+	
+	int size() {
+		return count;
+	}
+	
+	long bytes() {
+		return bytes;
+	}
+	
+	void delete() {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			// the mapping keeps the file alive until it is unmapped, nothing left to do.
+		}
+	}
+	
+	private int lengthAtHead() {
+		if (capacity - head < HEADER || buffer.getInt(head) == WRAP) {
+			head = 0;
+		}
+		return buffer.getInt(head);
+	}
+	
+	private void remove(int length) {
+		head += HEADER + length;
+		count--;
+		bytes -= length;
+		if (count == 0) {
+			head = 0;
+			tail = 0;
+		}
+	}
+}
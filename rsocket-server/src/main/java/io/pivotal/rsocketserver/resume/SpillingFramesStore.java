@@ -0,0 +1,291 @@
+package io.pivotal.rsocketserver.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import io.rsocket.frame.FrameHeaderCodec;
+import io.rsocket.resume.ResumableFramesStore;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The unacknowledged frames of one resumable session, the newest on the heap and
+ * the older ones in a {@link SpillFile}.
+ * <p>
+ * Frames on stream 0 are only sent, never kept, and are dropped while the session
+ * is disconnected. Every other method runs under the store's lock; only the
+ * implied position, updated for every received frame, is kept outside of it.
+ */
+@Slf4j
+final class SpillingFramesStore implements ResumableFramesStore {
+	
+	private final ResumptionStore owner;
+	private final String session;
+	private final int memoryLimit;
+	private final int diskLimit;
+	private final ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+	
+	private final Deque<ByteBuf> memory = new ArrayDeque<>();
+	private int memoryBytes;
+	private SpillFile spill;
+	private boolean spillFailed;
+	private volatile long position;
+	// negative while no connection is attached, received frames are not counted then.
+	private final AtomicLong impliedPosition = new AtomicLong(Long.MIN_VALUE);
+	
+	private FluxSink<ByteBuf> actual;
+	private int connections;
+	private boolean disposed;
+	private final Sinks.Empty<Void> onClose = Sinks.empty();
+	
+	SpillingFramesStore(ResumptionStore owner, String session, int memoryLimit, int diskLimit) {
+		this.owner = owner;
+		this.session = session;
+		this.memoryLimit = memoryLimit;
+		this.diskLimit = diskLimit;
+	}
+	
+	@Override
+	public Mono<Void> saveFrames(Flux<ByteBuf> frames) {
+		return frames
+				.doOnNext(this::save)
+				.doOnError(this::terminate)
+				.doOnComplete(() -> terminate(null))
+				.then();
+	}
+	
+	@Override
+	public synchronized void releaseFrames(long remoteImpliedPosition) {
+		long toDrop = remoteImpliedPosition - position;
+		long dropped = 0;
+		while (dropped < toDrop) {
+			int length = spill != null ? spill.skip() : -1;
+			if (length < 0) {
+				ByteBuf frame = memory.poll();
+				if (frame == null) {
+					break;
+				}
+				length = frame.readableBytes();
+				memoryBytes -= length;
+				frame.release();
+			}
+			dropped += length;
+		}
+		position += dropped;
+		if (dropped != Math.max(0, toDrop)) {
+			close(new IllegalStateException("Local and remote state disagreement: asked to release "
+					+ toDrop + " bytes, released " + dropped));
+		}
+	}
+	
+	@Override
+	public Flux<ByteBuf> resumeStream() {
+		return Flux.<ByteBuf>create(this::connect)
+				.doOnDiscard(ByteBuf.class, ReferenceCountUtil::safeRelease);
+	}
+	
+	@Override
+	public long framePosition() {
+		return position;
+	}
+	
+	@Override
+	public long frameImpliedPosition() {
+		return impliedPosition.get() & Long.MAX_VALUE;
+	}
+	
+	@Override
+	public boolean resumableFrameReceived(ByteBuf frame) {
+		int size = frame.readableBytes();
+		for (;;) {
+			long implied = impliedPosition.get();
+			if (implied < 0) {
+				return false;
+			}
+			if (impliedPosition.compareAndSet(implied, implied + size)) {
+				return true;
+			}
+		}
+	}
+	
+	@Override
+	public Mono<Void> onClose() {
+		return onClose.asMono();
+	}
+	
+	@Override
+	public synchronized void dispose() {
+		close(new CancellationException("Disposed"));
+	}
+	
+	@Override
+	public synchronized boolean isDisposed() {
+		return disposed;
+	}
+	
+	private synchronized void save(ByteBuf frame) {
+		if (disposed) {
+			frame.release();
+			return;
+		}
+		if (FrameHeaderCodec.streamId(frame) == 0) {
+			if (actual != null) {
+				actual.next(frame);
+			} else {
+				frame.release();
+			}
+			return;
+		}
+		boolean kept = cache(frame);
+		if (actual != null) {
+			actual.next(kept ? frame.retainedSlice() : frame);
+		} else if (!kept) {
+			frame.release();
+		}
+	}
+	
+	private synchronized void connect(FluxSink<ByteBuf> sink) {
+		if (disposed) {
+			sink.error(new CancellationException("Disposed"));
+			return;
+		}
+		if (connections++ > 0) {
+			owner.resumed.increment();
+			log.debug("Session {} resumed at position {}.", session, position);
+		}
+		if (spill != null) {
+			spill.forEach(allocator, sink::next);
+		}
+		memory.forEach(frame -> sink.next(frame.retainedSlice()));
+		actual = sink;
+		impliedPosition.getAndUpdate(implied -> implied & Long.MAX_VALUE);
+		sink.onDispose(() -> disconnect(sink));
+	}
+	
+	private synchronized void disconnect(FluxSink<ByteBuf> sink) {
+		if (actual == sink) {
+			actual = null;
+			impliedPosition.getAndUpdate(implied -> implied | Long.MIN_VALUE);
+		}
+	}
+	
+	private synchronized void terminate(Throwable error) {
+		close(error);
+	}
+	
+	/**
+	 * Ends the session. A session without a connection at that point was waiting
+	 * to be resumed and is counted as lost.
+	 *
+	 * @param error the error for the attached connection, null to complete it
+	 */
+	private void close(Throwable error) {
+		if (disposed) {
+			return;
+		}
+		disposed = true;
+		if (actual == null) {
+			owner.lost.increment();
+			log.info("Session {} was not resumed, {} bytes of frames lost.", session, cachedBytes());
+		} else {
+			owner.closed.increment();
+			FluxSink<ByteBuf> sink = actual;
+			actual = null;
+			if (error != null) {
+				sink.error(error);
+			} else {
+				sink.complete();
+			}
+		}
+		memory.forEach(ByteBuf::release);
+		memory.clear();
+		memoryBytes = 0;
+		if (spill != null) {
+			spill.delete();
+			spill = null;
+		}
+		onClose.tryEmitEmpty();
+	}
+	
+	/**
+	 * Keeps the frame on the heap, moving the oldest frames to disk as needed.
+	 *
+	 * @return false if the frame is larger than everything the session may keep
+	 */
+	private boolean cache(ByteBuf frame) {
+		int size = frame.readableBytes();
+		if (size > memoryLimit + diskLimit) {
+			evictAll();
+			position += size;
+			owner.evicted.increment();
+			return false;
+		}
+		memory.offer(frame);
+		memoryBytes += size;
+		while (memoryBytes > memoryLimit) {
+			ByteBuf oldest = memory.poll();
+			memoryBytes -= oldest.readableBytes();
+			spill(oldest);
+		}
+		return true;
+	}
+	
+	private void spill(ByteBuf frame) {
+		if (spill == null && diskLimit > 0 && !spillFailed) {
+			try {
+				spill = SpillFile.create(owner.nextSpillFile(), diskLimit);
+			} catch (IOException e) {
+				spillFailed = true;
+				log.warn("No spill file for session {}, keeping frames on the heap only: {}", session, e.toString());
+			}
+		}
+		boolean written = false;
+		if (spill != null) {
+			while (!(written = spill.offer(frame))) {
+				int length = spill.skip();
+				if (length < 0) {
+					break;
+				}
+				position += length;
+				owner.evicted.increment();
+			}
+		}
+		if (written) {
+			owner.spilled.increment();
+		} else {
+			position += frame.readableBytes();
+			owner.evicted.increment();
+		}
+		frame.release();
+	}
+	
+	private void evictAll() {
+		if (spill != null) {
+			int length;
+			while ((length = spill.skip()) >= 0) {
+				position += length;
+				owner.evicted.increment();
+			}
+		}
+		ByteBuf frame;
+		while ((frame = memory.poll()) != null) {
+			position += frame.readableBytes();
+			memoryBytes -= frame.readableBytes();
+			owner.evicted.increment();
+			frame.release();
+		}
+	}
+	
+	private long cachedBytes() {
+		return memoryBytes + (spill != null ? spill.bytes() : 0);
+	}
+}
@@ -0,0 +1,78 @@
+package io.pivotal.rsocketserver.scheduling;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The schedulers for the server's own work, so the event loops only read and
+ * write frames.
+ * <ul>
+ * <li>{@link #relay()}: a fixed pool for the timers and background work of the
+ * relay, such as closing batches and probing telemetry;</li>
+ * <li>{@link #persistence()}: a bounded pool with a bounded queue for work that
+ * may block on the disk, such as replaying offline messages and reading files
+ * to transfer. With {@code rsocket.scheduler.virtual-threads} it runs every task
+ * on a virtual thread instead, on runtimes that have them (Java 21 and later);
+ * elsewhere the setting is logged and ignored.</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class ServerSchedulers {
+	
+	private final Scheduler relay;
+	private final Scheduler persistence;
+	
+	public ServerSchedulers(@Value("${rsocket.scheduler.relay-threads:0}") int relayThreads,
+							@Value("${rsocket.scheduler.persistence-threads:0}") int persistenceThreads,
+							@Value("${rsocket.scheduler.persistence-queue-size:10000}") int persistenceQueueSize,
+							@Value("${rsocket.scheduler.virtual-threads:false}") boolean virtualThreads) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		this.relay = Schedulers.newParallel("rsocket-relay", relayThreads > 0 ? relayThreads : cores, true);
+		ExecutorService virtual = virtualThreads ? virtualThreadExecutor() : null;
+		if (virtual != null) {
+			this.persistence = Schedulers.fromExecutorService(virtual, "rsocket-persistence");
+			log.info("Server schedulers: {} relay threads, persistence on virtual threads.", relayThreads > 0 ? relayThreads : cores);
+		} else {
+			int threads = persistenceThreads > 0 ? persistenceThreads : 2 * cores;
+			this.persistence = Schedulers.newBoundedElastic(threads, persistenceQueueSize, "rsocket-persistence", 60, true);
+			log.info("Server schedulers: {} relay threads, {} persistence threads.", relayThreads > 0 ? relayThreads : cores, threads);
+		}
+	}
+	
+	@PreDestroy
+	void stop() {
+		relay.dispose();
+		persistence.dispose();
+	}
+	
+	public Scheduler relay() {
+		return relay;
+	}
+	
+	public Scheduler persistence() {
+		return persistence;
+	}
+	
+	/**
+	 * The project is built for Java 11, so the executor is looked up at run time.
+	 *
+	 * @return an executor starting a virtual thread per task, or null if the
+	 * runtime has none
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			log.warn("Virtual threads are not available on Java {}, using a bounded pool.", System.getProperty("java.version"));
+			return null;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last samples of one client, in arrays allocated once, so a client costs
+ * the same memory however long it stays connected.
+ */
+public final class ClientTelemetry {
+	
+	private final long[] timestamps;
+	private final long[] heapUsed;
+	private final long[] heapMax;
+	private final short[] cpuPermille;
+	private final int[] queueDepth;
+	private final int[] rttMicros;
+	private int next;
+	private int size;
+	private int lastRttMicros = -1;
+	
+	ClientTelemetry(int capacity) {
+		this.timestamps = new long[capacity];
+		this.heapUsed = new long[capacity];
+		this.heapMax = new long[capacity];
+		this.cpuPermille = new short[capacity];
+		this.queueDepth = new int[capacity];
+		this.rttMicros = new int[capacity];
+	}
+	
+	/**
+	 * @param rttMicros the round trip time measured with this sample, or -1 to
+	 *                  keep the last one
+	 */
+	synchronized void record(TelemetrySample sample, int rttMicros) {
+		if (rttMicros >= 0) {
+			lastRttMicros = rttMicros;
+		}
+		timestamps[next] = sample.getTimestamp();
+		heapUsed[next] = sample.getHeapUsed();
+		heapMax[next] = sample.getHeapMax();
+		cpuPermille[next] = sample.getCpuPermille();
+		queueDepth[next] = sample.getQueueDepth();
+		this.rttMicros[next] = lastRttMicros;
+		next = (next + 1) % timestamps.length;
+		size = Math.min(size + 1, timestamps.length);
+	}
+	
+	/**
+	 * @return the samples, oldest first, as lines of text
+	 */
+	public synchronized List<String> describe() {
+		List<String> lines = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			int index = (next - size + i + timestamps.length) % timestamps.length;
+			lines.add("time=" + timestamps[index] +
+					" heap=" + heapUsed[index] + "/" + heapMax[index] +
+					" cpu=" + cpuPermille[index] / 10.0 + "%" +
+					" rtt=" + rttMicros[index] + "us" +
+					" queue=" + queueDepth[index]);
+		}
+		return lines;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+}
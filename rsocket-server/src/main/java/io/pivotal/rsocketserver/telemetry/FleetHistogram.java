@@ -0,0 +1,86 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the samples of all clients in fixed buckets: heap use and CPU load in
+ * steps of 10%, round trip time and queue depth in powers of two.
+ */
+public final class FleetHistogram {
+	
+	private static final int PERCENT_BUCKETS = 10;
+	private static final int LOG_BUCKETS = 32;
+	
+	private final AtomicLongArray heap = new AtomicLongArray(PERCENT_BUCKETS);
+	private final AtomicLongArray cpu = new AtomicLongArray(PERCENT_BUCKETS);
+	private final AtomicLongArray rttMicros = new AtomicLongArray(LOG_BUCKETS);
+	private final AtomicLongArray queueDepth = new AtomicLongArray(LOG_BUCKETS);
+	
+	void record(TelemetrySample sample, int rtt) {
+		if (sample.getHeapMax() > 0) {
+			heap.incrementAndGet(percentBucket(sample.getHeapUsed() * 1000 / sample.getHeapMax()));
+		}
+		if (sample.getCpuPermille() >= 0) {
+			cpu.incrementAndGet(percentBucket(sample.getCpuPermille()));
+		}
+		if (rtt >= 0) {
+			rttMicros.incrementAndGet(logBucket(rtt));
+		}
+		queueDepth.incrementAndGet(logBucket(sample.getQueueDepth()));
+	}
+	
+	/**
+	 * @param quantile between 0 and 1
+	 * @return the upper bound of the round trip bucket holding the quantile, in
+	 * microseconds, or -1 without any measurement
+	 */
+	public long rttQuantile(double quantile) {
+		long total = 0;
+		for (int i = 0; i < LOG_BUCKETS; i++) {
+			total += rttMicros.get(i);
+		}
+		if (total == 0) {
+			return -1;
+		}
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < LOG_BUCKETS; i++) {
+			seen += rttMicros.get(i);
+			if (seen >= rank) {
+				return 1L << i;
+			}
+		}
+		return 1L << (LOG_BUCKETS - 1);
+	}
+	
+	public String describe() {
+		return "heap%=" + counts(heap) +
+				" cpu%=" + counts(cpu) +
+				" rtt(us,log2)=" + counts(rttMicros) +
+				" queue(log2)=" + counts(queueDepth) +
+				" rtt p50=" + rttQuantile(0.5) + "us p99=" + rttQuantile(0.99) + "us";
+	}
+	
+	private static int percentBucket(long permille) {
+		return (int) Math.max(0, Math.min(PERCENT_BUCKETS - 1, permille / 100));
+	}
+	
+	private static int logBucket(long value) {
+		return value <= 1 ? 0 : Math.min(LOG_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value - 1));
+	}
+	
+	private static String counts(AtomicLongArray buckets) {
+		int last = buckets.length() - 1;
+		while (last > 0 && buckets.get(last) == 0) {
+			last--;
+		}
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i <= last; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(buckets.get(i));
+		}
+		return builder.append(']').toString();
+	}
+}
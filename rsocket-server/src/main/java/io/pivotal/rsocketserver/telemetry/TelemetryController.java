@@ -0,0 +1,40 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Queries over the collected telemetry, answered as plain text lines.
+ */
+@Controller
+public class TelemetryController {
+	
+	private final TelemetryService telemetry;
+	
+	public TelemetryController(TelemetryService telemetry) {
+		this.telemetry = telemetry;
+	}
+	
+	@MessageMapping("telemetry.fleet")
+	Mono<String> fleet() {
+		return Mono.fromSupplier(telemetry::describeFleet);
+	}
+	
+	@MessageMapping("telemetry.client")
+	Flux<String> client(@Payload String client) {
+		return Flux.defer(() -> Flux.fromIterable(telemetry.describe(client)));
+	}
+	
+	/**
+	 * @param interval the new base sampling interval, such as "10s"
+	 */
+	@MessageMapping("telemetry.interval")
+	Mono<String> interval(@Payload String interval) {
+		telemetry.setInterval(DurationStyle.detectAndParse(interval));
+		return Mono.just("INTERVAL " + telemetry.interval() + "ms");
+	}
+}
@@ -0,0 +1,49 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One telemetry record sent by a client.
+ * <p>
+ * Layout: {@code [long timestamp][long heapUsed][long heapMax][short cpuPermille]
+ * [int queueDepth][long echo]}, 38 bytes. The echo is the probe of the last
+ * command the client received, see {@link TelemetryService}.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TelemetrySample {
+	
+	public static final int SIZE = Long.BYTES * 3 + Short.BYTES + Integer.BYTES + Long.BYTES;
+	
+	private final long timestamp;
+	private final long heapUsed;
+	private final long heapMax;
+	private final short cpuPermille;
+	private final int queueDepth;
+	private final long echo;
+	
+	public static TelemetrySample from(ByteBuffer buffer) {
+		return new TelemetrySample(
+				buffer.getLong(),
+				buffer.getLong(),
+				buffer.getLong(),
+				buffer.getShort(),
+				buffer.getInt(),
+				buffer.getLong());
+	}
+	
+	/**
+	 * The command that sets the sampling interval of a client and probes its
+	 * round trip time: {@code [int intervalMillis][long probe]}.
+	 */
+	static ByteBuffer command(long intervalMillis, long probe) {
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Long.BYTES);
+		buffer.putInt((int) Math.min(Integer.MAX_VALUE, intervalMillis)).putLong(probe);
+		return buffer.flip();
+	}
+}
@@ -0,0 +1,195 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the telemetry of every connected client over a "client-telemetry"
+ * channel.
+ * <p>
+ * The server side of the channel carries commands: the sampling interval and a
+ * probe, the server's clock at the time of sending. The client answers every
+ * command with a sample right away, echoing the probe, which gives the round
+ * trip time, and then samples at the interval. The interval grows with the
+ * number of clients so the whole fleet sends at most
+ * {@code rsocket.telemetry.max-samples-per-second}.
+ * <p>
+ * Samples go to a fixed ring per client and to the {@link FleetHistogram}; none
+ * of them is logged.
+ */
+@Slf4j
+@Component
+public class TelemetryService {
+	
+	private final int ringSize;
+	private final int maxSamplesPerSecond;
+	private final Duration probeInterval;
+	private final ServerSchedulers schedulers;
+	private volatile long baseIntervalMillis;
+	
+	private final Map<String, Link> links = new ConcurrentHashMap<>();
+	private final FleetHistogram fleet = new FleetHistogram();
+	private final LongAdder samples = new LongAdder();
+	private Disposable prober;
+	
+	public TelemetryService(@Value("${rsocket.telemetry.interval:5s}") Duration interval,
+							@Value("${rsocket.telemetry.probe-interval:30s}") Duration probeInterval,
+							@Value("${rsocket.telemetry.max-samples-per-second:1000}") int maxSamplesPerSecond,
+							@Value("${rsocket.telemetry.ring-size:64}") int ringSize,
+							ServerSchedulers schedulers) {
+		this.baseIntervalMillis = interval.toMillis();
+		this.probeInterval = probeInterval;
+		this.maxSamplesPerSecond = maxSamplesPerSecond;
+		this.ringSize = ringSize;
+		this.schedulers = schedulers;
+	}
+	
+	@PostConstruct
+	void start() {
+		prober = Flux.interval(probeInterval, probeInterval, schedulers.relay())
+				.subscribe(tick -> probeAll(), error -> log.error("Telemetry probes stopped.", error));
+	}
+	
+	@PreDestroy
+	void stop() {
+		if (prober != null) {
+			prober.dispose();
+		}
+		links.values().forEach(Link::dispose);
+	}
+	
+	/**
+	 * Opens the telemetry channel of a client that connected. The first command,
+	 * and its probe, go out only once the channel opens, so the delay does not
+	 * count into the round trip time.
+	 *
+	 * @param delay how long to wait before opening it
+	 */
+	public void attach(String client, RSocketRequester requester, Duration delay) {
+		Link link = new Link(requester, new ClientTelemetry(ringSize));
+		Link previous = links.put(client, link);
+		if (previous != null) {
+			previous.dispose();
+		}
+		link.subscription = requester
+				.route("client-telemetry")
+				.data(link.commands.asFlux())
+				.retrieveFlux(ByteBuffer.class)
+				.doOnSubscribe(subscription -> link.open(interval()))
+				.delaySubscription(delay)
+				.subscribe(buffer -> record(link, TelemetrySample.from(buffer)),
+						error -> log.debug("Telemetry of {} ended: {}", client, error.toString()));
+	}
+	
+	public void detach(String client, RSocketRequester requester) {
+		Link link = links.get(client);
+		if (link != null && link.requester == requester && links.remove(client, link)) {
+			link.dispose();
+		}
+	}
+	
+	/**
+	 * Changes the base sampling interval and tells every client at once.
+	 */
+	public void setInterval(Duration interval) {
+		baseIntervalMillis = interval.toMillis();
+		probeAll();
+	}
+	
+	/**
+	 * @return the interval the clients sample at right now
+	 */
+	public long interval() {
+		long fleetMillis = (long) Math.ceil(links.size() * 1000.0 / maxSamplesPerSecond);
+		return Math.max(baseIntervalMillis, fleetMillis);
+	}
+	
+	public List<String> describe(String client) {
+		Link link = links.get(client);
+		return link == null ? Collections.emptyList() : link.telemetry.describe();
+	}
+	
+	public String describeFleet() {
+		return "clients=" + links.size() +
+				" interval=" + interval() + "ms" +
+				" samples=" + samples.sum() +
+				" " + fleet.describe();
+	}
+	
+	public FleetHistogram getFleet() {
+		return fleet;
+	}
+	
+	public long getSamples() {
+		return samples.sum();
+	}
+	
+	private void probeAll() {
+		long interval = interval();
+		links.values().forEach(link -> link.send(interval));
+	}
+	
+	private void record(Link link, TelemetrySample sample) {
+		int rtt = -1;
+		long echo = sample.getEcho();
+		if (echo != 0 && link.pendingProbe.compareAndSet(echo, 0)) {
+			rtt = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - echo) / 1000);
+		}
+		link.telemetry.record(sample, rtt);
+		fleet.record(sample, rtt);
+		samples.increment();
+	}
+	
+	private static final class Link {
+		final RSocketRequester requester;
+		final ClientTelemetry telemetry;
+		final Sinks.Many<ByteBuffer> commands = Sinks.many().unicast().onBackpressureBuffer();
+		final AtomicLong pendingProbe = new AtomicLong();
+		volatile Disposable subscription;
+		// probes sent before the channel opens would time the delay as well
+		private boolean open;
+		
+		Link(RSocketRequester requester, ClientTelemetry telemetry) {
+			this.requester = requester;
+			this.telemetry = telemetry;
+		}
+		
+		synchronized void open(long intervalMillis) {
+			open = true;
+			send(intervalMillis);
+		}
+		
+		synchronized void send(long intervalMillis) {
+			if (!open) {
+				return;
+			}
+			long probe = System.nanoTime();
+			pendingProbe.set(probe);
+			commands.tryEmitNext(TelemetrySample.command(intervalMillis, probe));
+		}
+		
+		void dispose() {
+			commands.tryEmitComplete();
+			if (subscription != null) {
+				subscription.dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package io.pivotal.rsocketserver.transfer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * Serves the files of {@code rsocket.transfer.directory} over request-stream.
+ * <p>
+ * A file is memory-mapped {@code rsocket.transfer.map-size} at a time and every
+ * chunk is a slice of that mapping wrapped in a Netty buffer, so the bytes go
+ * from the page cache to the socket without being copied onto the heap. Chunks
+ * are generated on demand, one per request-n, so a slow receiver never has more
+ * than its window mapped and in flight.
+ * <p>
+ * Each chunk is laid out as [long offset][long fileSize][int crc32c][bytes]. A
+ * receiver checks every chunk and, after a broken transfer, asks again from the
+ * offset it has.
+ */
+@Slf4j
+@Component
+public class FileTransferService {
+	
+	public static final int HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+	
+	private final Path directory;
+	private final int chunkSize;
+	private final long mapSize;
+	private final ServerSchedulers schedulers;
+	private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+	
+	private final LongAdder transfers = new LongAdder();
+	private final LongAdder chunks = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	
+	public FileTransferService(@Value("${rsocket.transfer.directory:${java.io.tmpdir}/rsocket-files}") String directory,
+							   @Value("${rsocket.transfer.chunk-size:64KB}") DataSize chunkSize,
+							   @Value("${rsocket.transfer.map-size:4MB}") DataSize mapSize,
+							   ServerSchedulers schedulers) {
+		this.directory = Paths.get(directory).toAbsolutePath().normalize();
+		this.chunkSize = (int) Math.max(1, chunkSize.toBytes());
+		//a window always holds whole chunks.
+		this.mapSize = Math.max(1, mapSize.toBytes() / this.chunkSize) * this.chunkSize;
+		this.schedulers = schedulers;
+	}
+	
+	/**
+	 * @param name   the file, relative to the transfer directory
+	 * @param offset where to start, 0 for the whole file
+	 * @return the chunks from the offset to the end of the file
+	 */
+	public Flux<DataBuffer> stream(String name, long offset) {
+		return Flux.defer(() -> {
+			Path file = resolve(name);
+			log.info("Sending {} from offset {}.", file, offset);
+			transfers.increment();
+			return Flux.using(
+					() -> FileChannel.open(file, StandardOpenOption.READ),
+					channel -> chunks(channel, offset),
+					FileTransferService::close);
+		//opening, mapping and checksumming wait on the disk, off the event loop.
+		}).subscribeOn(schedulers.persistence());
+	}
+	
+	public long getTransfers() {
+		return transfers.sum();
+	}
+	
+	public long getChunks() {
+		return chunks.sum();
+	}
+	
+	public long getBytes() {
+		return bytes.sum();
+	}
+	
+	private Path resolve(String name) {
+		Path file = directory.resolve(name).normalize();
+		//names must not lead out of the transfer directory.
+		if (!file.startsWith(directory) || !Files.isRegularFile(file)) {
+			throw new IllegalArgumentException("No file " + name);
+		}
+		return file;
+	}
+	
+	private Flux<DataBuffer> chunks(FileChannel channel, long offset) {
+		long size;
+		try {
+			size = channel.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (offset < 0 || offset > size) {
+			return Flux.error(new IllegalArgumentException("Offset " + offset + " is outside of the file of " + size + " bytes"));
+		}
+		return Flux.generate(() -> new Cursor(offset), (cursor, sink) -> {
+			if (cursor.position >= size) {
+				sink.complete();
+				return cursor;
+			}
+			try {
+				sink.next(cursor.next(channel, size));
+			} catch (IOException e) {
+				sink.error(e);
+			}
+			return cursor;
+		});
+	}
+	
+	private static void close(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Could not close a transferred file.", e);
+		}
+	}
+	
+	/**
+	 * Position of one transfer and the mapped window it is reading.
+	 */
+	private final class Cursor {
+		
+		private final CRC32C crc = new CRC32C();
+		private MappedByteBuffer window;
+		private long windowStart;
+		private long position;
+		
+		Cursor(long position) {
+			this.position = position;
+		}
+		
+		DataBuffer next(FileChannel channel, long size) throws IOException {
+			if (window == null || position >= windowStart + window.capacity()) {
+				windowStart = position;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mapSize, size - position));
+			}
+			int start = (int) (position - windowStart);
+			int length = (int) Math.min(chunkSize, window.capacity() - start);
+			ByteBuffer slice = window.duplicate().position(start).limit(start + length).slice();
+			
+			crc.reset();
+			crc.update(slice.duplicate());
+			ByteBuf header = ByteBufAllocator.DEFAULT.buffer(HEADER_SIZE)
+					.writeLong(position)
+					.writeLong(size)
+					.writeInt((int) crc.getValue());
+			
+			position += length;
+			chunks.increment();
+			bytes.add(length);
+			return bufferFactory.wrap(Unpooled.wrappedBuffer(header, Unpooled.wrappedBuffer(slice)));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package io.pivotal.rsocketserver;
+
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.data.Message;
+import io.rsocket.core.RSocketConnector;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * A client logged in to a running server, answering every message on its
+ * "call" route with "Hello from" its name, like the shell clients do.
+ */
+public class TestClient {
+
+    private final String name;
+    private final List<Message> received = new CopyOnWriteArrayList<>();
+    private RSocketRequester requester;
+
+    public TestClient(String name) {
+        this.name = name;
+    }
+
+    public TestClient connect(RSocketRequester.Builder builder, RSocketStrategies strategies, int port) {
+        return connect(builder, strategies, port, connector -> {
+        });
+    }
+
+    public TestClient connect(RSocketRequester.Builder builder, RSocketStrategies strategies, int port,
+                              Consumer<RSocketConnector> configurer) {
+        requester = builder
+                .setupRoute("connect")
+                .setupData(name)
+                .dataMimeType(MessageCodec.MIME_TYPE)
+                .rsocketConnector(connector -> {
+                    connector.acceptor(RSocketMessageHandler.responder(strategies, this));
+                    configurer.accept(connector);
+                })
+                .websocket(URI.create("ws://localhost:" + port + "/rsocket"));
+        requester.rsocketClient().source().block();
+        return this;
+    }
+
+    @MessageMapping("call")
+    Flux<Message> call(@Payload Flux<Message> messages) {
+        return messages
+                .doOnNext(received::add)
+                .map(message -> new Message(name, message.getSender(), "Hello from " + name));
+    }
+
+    public RSocketRequester requester() {
+        return requester;
+    }
+
+    public List<Message> received() {
+        return received;
+    }
+
+    public void dispose() {
+        if (requester != null) {
+            requester.dispose();
+        }
+    }
+
+    /**
+     * Polls the condition until it holds, instead of sleeping for a fixed time.
+     */
+    public static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 10s");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.pivotal.rsocketserver.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.rsocket.RSocket;
+import io.rsocket.exceptions.RejectedSetupException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdmissionControlTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AdmissionControl admission(int maxConnections, double setupsPerSecond, int burst, int clientBurst) {
+        return new AdmissionControl(true, maxConnections, setupsPerSecond, burst, 1, clientBurst,
+                Duration.ofSeconds(1), Duration.ofSeconds(2), new RelayMetrics(registry));
+    }
+
+    private static RSocket socket(Mono<Void> onClose) {
+        RSocket socket = mock(RSocket.class);
+        when(socket.onClose()).thenReturn(onClose);
+        return socket;
+    }
+
+    @Test
+    void rejectsAboveConnectionBudgetUntilOneCloses() {
+        AdmissionControl admission = admission(2, 1000, 1000, 5);
+        Sinks.Empty<Void> closed = Sinks.empty();
+
+        StepVerifier.create(admission.admit("Client1", socket(closed.asMono()))).verifyComplete();
+        StepVerifier.create(admission.admit("Client2", socket(Mono.never()))).verifyComplete();
+        StepVerifier.create(admission.admit("Client3", socket(Mono.never())))
+                .expectErrorSatisfies(error -> assertThat(error)
+                        .isInstanceOf(RejectedSetupException.class)
+                        .hasMessageContaining(AdmissionControl.RETRY_AFTER))
+                .verify();
+
+        closed.tryEmitEmpty();
+        StepVerifier.create(admission.admit("Client3", socket(Mono.never()))).verifyComplete();
+        assertThat(admission.getConnections()).isEqualTo(2);
+    }
+
+    @Test
+    void clientReconnectingInALoopIsRejectedAlone() {
+        AdmissionControl admission = admission(100, 1000, 1000, 2);
+
+        StepVerifier.create(admission.admit("Client1", socket(Mono.empty()))).verifyComplete();
+        StepVerifier.create(admission.admit("Client1", socket(Mono.empty()))).verifyComplete();
+        StepVerifier.create(admission.admit("Client1", socket(Mono.empty())))
+                .expectError(RejectedSetupException.class)
+                .verify();
+        StepVerifier.create(admission.admit("Client2", socket(Mono.empty()))).verifyComplete();
+
+        assertThat(registry.get("rsocket.admission.setups").tag("outcome", AdmissionControl.REJECTED).counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void queuesSetupsAboveNodeRateWithinMaxWait() {
+        AdmissionControl admission = admission(100, 10, 1, 5);
+
+        StepVerifier.create(admission.admit("Client1", socket(Mono.never()))).verifyComplete();
+        StepVerifier.withVirtualTime(() -> admission.admit("Client2", socket(Mono.never())))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenAwait(Duration.ofMillis(100))
+                .verifyComplete();
+
+        assertThat(registry.get("rsocket.admission.setups").tag("outcome", AdmissionControl.QUEUED).counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsWhenTheQueueWouldTakeLongerThanMaxWait() {
+        AdmissionControl admission = admission(100, 1, 1, 5);
+
+        StepVerifier.create(admission.admit("Client1", socket(Mono.never()))).verifyComplete();
+        admission.admit("Client2", socket(Mono.never())).subscribe();
+        StepVerifier.create(admission.admit("Client3", socket(Mono.never())))
+                .expectError(RejectedSetupException.class)
+                .verify();
+        assertThat(admission.getConnections()).isEqualTo(2);
+    }
+
+    @Test
+    void clientRejectedByTheNodeKeepsItsToken() {
+        AdmissionControl admission = admission(100, 1, 1, 1);
+
+        StepVerifier.create(admission.admit("Client1", socket(Mono.never()))).verifyComplete();
+        admission.admit("Client2", socket(Mono.never())).subscribe();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            StepVerifier.create(admission.admit("Client3", socket(Mono.never())))
+                    .expectErrorSatisfies(error -> assertThat(error).hasMessageStartingWith("Server is busy"))
+                    .verify();
+        }
+    }
+
+    @Test
+    void bucketStartsFullAtNegativeNanoTime() {
+        long now = -5_000_000_000L;
+        TokenBucket bucket = new TokenBucket(1, 2, now);
+
+        assertThat(bucket.isFull(now)).isTrue();
+        assertThat(bucket.reserve(now, 0)).isZero();
+        assertThat(bucket.reserve(now, 0)).isZero();
+        assertThat(bucket.reserve(now, 0)).isEqualTo(-1);
+        assertThat(bucket.waitFor(now)).isEqualTo(1_000_000_000L);
+    }
+}
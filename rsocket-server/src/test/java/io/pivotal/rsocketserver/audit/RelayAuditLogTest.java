@@ -0,0 +1,68 @@
+package io.pivotal.rsocketserver.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelayAuditLogTest {
+
+    @Test
+    void drainsRecordsInOrderAndWrapsAround() {
+        RelayAuditLog audit = new RelayAuditLog(true, 4, 1, 0, Duration.ofMillis(10));
+        List<String> drained = new ArrayList<>();
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertThat(audit.record(AuditRoute.PERSONAL_CALL, "Client" + round, "Client" + i)).isTrue();
+            }
+            audit.drain((timestamp, route, sender, receiver) -> drained.add(sender + "->" + receiver));
+        }
+
+        assertThat(drained).hasSize(9).startsWith("Client0->Client0").endsWith("Client2->Client2");
+    }
+
+    @Test
+    void fullRingDropsInsteadOfWaiting() {
+        RelayAuditLog audit = new RelayAuditLog(true, 2, 1, 0, Duration.ofMillis(10));
+
+        audit.record(AuditRoute.GROUP_CALL, "Client1", "room");
+        audit.record(AuditRoute.GROUP_CALL, "Client1", "room");
+
+        assertThat(audit.record(AuditRoute.GROUP_CALL, "Client1", "room")).isFalse();
+        assertThat(audit.getOverflow()).isEqualTo(1);
+    }
+
+    @Test
+    void namesAreCutAndKeptAscii() {
+        RelayAuditLog audit = new RelayAuditLog(true, 2, 1, 0, Duration.ofMillis(10));
+        List<String> names = new ArrayList<>();
+
+        audit.record(AuditRoute.PERSONAL_CALL, "Zoë", "x".repeat(40));
+        audit.record(AuditRoute.PERSONAL_CALL, null, "Client2");
+        audit.drain((timestamp, route, sender, receiver) -> {
+            names.add(sender);
+            names.add(receiver);
+        });
+
+        assertThat(names).containsExactly("Zo?", "x".repeat(RelayAuditLog.NAME_SIZE), null, "Client2");
+    }
+
+    @Test
+    void samplesAndLimitsRate() {
+        RelayAuditLog sampled = new RelayAuditLog(true, 16, 4, 0, Duration.ofMillis(10));
+        RelayAuditLog limited = new RelayAuditLog(true, 16, 1, 2, Duration.ofMillis(10));
+
+        for (int i = 0; i < 8; i++) {
+            sampled.record(AuditRoute.PERSONAL_CALL, "Client1", "Client2");
+            limited.record(AuditRoute.PERSONAL_CALL, "Client1", "Client2");
+        }
+
+        assertThat(sampled.getRecorded()).isEqualTo(2);
+        assertThat(limited.getRecorded()).isLessThanOrEqualTo(4);
+        assertThat(limited.getRateLimited()).isGreaterThanOrEqualTo(4);
+    }
+}
@@ -0,0 +1,33 @@
+package io.pivotal.rsocketserver.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterDirectoryTest {
+
+    @Test
+    void lateOfflineOfOldNodeKeepsNewNode() {
+        ClusterDirectory directory = new ClusterDirectory();
+
+        directory.online("Client1", "7077");
+        directory.online("Client1", "7078");
+
+        assertThat(directory.offline("Client1", "7077")).isFalse();
+        assertThat(directory.nodeOf("Client1")).isEqualTo("7078");
+    }
+
+    @Test
+    void removeNodeForgetsOnlyItsClients() {
+        ClusterDirectory directory = new ClusterDirectory();
+
+        directory.online("Client1", "7077");
+        directory.online("Client2", "7078");
+        directory.online("Client3", "7078");
+
+        assertThat(directory.removeNode("7078")).isEqualTo(2);
+        assertThat(directory.nodeOf("Client1")).isEqualTo("7077");
+        assertThat(directory.nodeOf("Client2")).isNull();
+        assertThat(directory.size()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,56 @@
+package io.pivotal.rsocketserver.cluster;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+
+public class ClusterNodeTest {
+
+    private final ClientRegistry registry = new ClientRegistry(1);
+    private final ClusterNode node = new ClusterNode(true, "7077", List.of(), Duration.ofSeconds(1),
+            registry, new ClusterDirectory(), mock(RSocketRequester.Builder.class));
+
+    @Test
+    void presenceStartsWithLocalClientsThenBuffersChangesUntilRequested() {
+        registry.register("alice", mock(RSocketRequester.class));
+
+        StepVerifier.create(node.presence("7078"), 0)
+                .thenRequest(1)
+                .expectNext(new Message("alice", "7077", ClusterNode.ONLINE))
+                .then(() -> {
+                    node.announce("bob", true);
+                    node.announce("bob", false);
+                })
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(2)
+                .expectNext(new Message("bob", "7077", ClusterNode.ONLINE))
+                .expectNext(new Message("bob", "7077", ClusterNode.OFFLINE))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void everyPeerGetsEveryChange() {
+        StepVerifier first = StepVerifier.create(node.presence("7078"))
+                .expectNext(new Message("bob", "7077", ClusterNode.ONLINE))
+                .thenCancel()
+                .verifyLater();
+        StepVerifier second = StepVerifier.create(node.presence("7079"), 0)
+                .thenRequest(1)
+                .expectNext(new Message("bob", "7077", ClusterNode.ONLINE))
+                .thenCancel()
+                .verifyLater();
+
+        node.announce("bob", true);
+
+        first.verify(Duration.ofSeconds(1));
+        second.verify(Duration.ofSeconds(1));
+    }
+}
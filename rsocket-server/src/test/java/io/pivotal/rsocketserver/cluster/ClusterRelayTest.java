@@ -0,0 +1,126 @@
+package io.pivotal.rsocketserver.cluster;
+
+import io.pivotal.rsocketserver.RsocketServerApplication;
+import io.pivotal.rsocketserver.TestClient;
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two nodes linked to each other, with a client on each.
+ */
+public class ClusterRelayTest {
+
+    private static int port1;
+    private static int port2;
+    private static ConfigurableApplicationContext node1;
+    private static ConfigurableApplicationContext node2;
+    private static TestClient alice;
+    private static TestClient bob;
+
+    @BeforeAll
+    static void startNodes(@TempDir Path directory) throws IOException {
+        port1 = freePort();
+        port2 = freePort();
+        node1 = node(port1, port2, directory);
+        node2 = node(port2, port1, directory);
+        alice = connect(node1, "alice", port1);
+        bob = connect(node2, "bob", port2);
+        TestClient.await(() -> String.valueOf(port2).equals(directory(node1).nodeOf("bob")));
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        alice.dispose();
+        bob.dispose();
+        node1.close();
+        node2.close();
+    }
+
+    @Test
+    void callReachesClientOnPeerNode() {
+        Message reply = alice.requester()
+                .route("personal.call")
+                .data(Flux.just(new Message("alice", "bob", "call")))
+                .retrieveFlux(Message.class)
+                .blockFirst(Duration.ofSeconds(5));
+
+        assertThat(reply).isEqualTo(new Message("bob", "alice", "Hello from bob"));
+        assertThat(bob.received()).contains(new Message("alice", "bob", "call"));
+        assertThat(node1.getBean(ClusterNode.class).getForwarded()).isPositive();
+    }
+
+    @Test
+    void forwardReachesClientOnPeerNode() {
+        Message reply = alice.requester()
+                .route("personal.forward")
+                .metadata("bob", MessageCodec.RECEIVER_MIME_TYPE)
+                .data(Flux.just(new Message("alice", "bob", "forward")))
+                .retrieveFlux(Message.class)
+                .blockFirst(Duration.ofSeconds(5));
+
+        assertThat(reply).isEqualTo(new Message("bob", "alice", "Hello from bob"));
+        assertThat(bob.received()).contains(new Message("alice", "bob", "forward"));
+    }
+
+    @Test
+    void clientLeavingPeerNodeIsForgottenAndItsMessagesKept() {
+        TestClient carol = connect(node2, "carol", port2);
+        TestClient.await(() -> directory(node1).nodeOf("carol") != null);
+
+        carol.dispose();
+        TestClient.await(() -> directory(node1).nodeOf("carol") == null);
+        OfflineMessageStore offline = node1.getBean(OfflineMessageStore.class);
+        long stored = offline.getStored();
+        alice.requester()
+                .route("personal.call")
+                .data(Flux.just(new Message("alice", "carol", "later")))
+                .retrieveFlux(Message.class)
+                .subscribe();
+
+        TestClient.await(() -> offline.getStored() == stored + 1);
+        assertThat(carol.received()).isEmpty();
+    }
+
+    private static ConfigurableApplicationContext node(int port, int peer, Path directory) {
+        return new SpringApplicationBuilder(RsocketServerApplication.class).run(
+                "--spring.rsocket.server.port=" + port,
+                "--server.port=0",
+                "--rsocket.tcp.enabled=false",
+                "--rsocket.cluster.enabled=true",
+                "--rsocket.cluster.peers=ws://localhost:" + peer + "/rsocket",
+                "--rsocket.cluster.retry-interval=200ms",
+                "--rsocket.offline.directory=" + directory.resolve("offline-" + port));
+    }
+
+    private static TestClient connect(ConfigurableApplicationContext node, String name, int port) {
+        return new TestClient(name).connect(node.getBean(RSocketRequester.Builder.class),
+                node.getBean(RSocketStrategies.class), port);
+    }
+
+    private static ClusterDirectory directory(ConfigurableApplicationContext node) {
+        return node.getBean(ClusterDirectory.class);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
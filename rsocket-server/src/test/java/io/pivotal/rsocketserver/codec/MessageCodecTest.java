@@ -0,0 +1,88 @@
+package io.pivotal.rsocketserver.codec;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.Priority;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MessageCodecTest {
+
+    private static final ResolvableType MESSAGE_TYPE = ResolvableType.forClass(Message.class);
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final MessageEncoder encoder = new MessageEncoder();
+    private final MessageDecoder decoder = new MessageDecoder();
+
+    @Test
+    void roundTripKeepsEveryField() {
+        Message message = new Message("alice", "bob", "héllo");
+
+        Message decoded = decode(encode(message));
+
+        assertThat(decoded).isEqualTo(message);
+        assertThat(decoded.getContent()).isEqualTo("héllo");
+    }
+
+    @Test
+    void nullFieldsStayNull() {
+        Message decoded = decode(encode(new Message(null, null, null)));
+
+        assertThat(decoded.getSender()).isNull();
+        assertThat(decoded.getReceiver()).isNull();
+        assertThat(decoded.getContent()).isNull();
+    }
+
+    @Test
+    void onlyPrioritizedMessagesUseThePriorityVersion() {
+        byte[] plain = encode(new Message("alice", "bob", "chat"));
+        byte[] bulk = encode(new Message("alice", "bob", "media", Priority.BULK));
+
+        assertThat(plain[0]).isEqualTo(MessageCodec.VERSION);
+        assertThat(bulk[0]).isEqualTo(MessageCodec.PRIORITY_VERSION);
+        assertThat(bulk).hasSize(plain.length + 2);
+        assertThat(decode(plain).getPriority()).isNull();
+        assertThat(decode(bulk).getPriority()).isEqualTo(Priority.BULK);
+    }
+
+    @Test
+    void truncatedMessageIsRejected() {
+        byte[] encoded = encode(new Message("alice", "bob", "chat"));
+        byte[] truncated = new byte[encoded.length - 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertThatThrownBy(() -> decode(truncated)).isInstanceOf(DecodingException.class);
+    }
+
+    @Test
+    void lengthBeyondThePayloadIsRejected() {
+        ByteBuffer hostile = ByteBuffer.allocate(9)
+            .put(MessageCodec.VERSION)
+            .putInt(Integer.MAX_VALUE)
+            .putInt(0);
+
+        assertThatThrownBy(() -> decode(hostile.array()))
+            .isInstanceOf(DecodingException.class)
+            .hasMessageContaining("Invalid field length " + Integer.MAX_VALUE);
+    }
+
+    private byte[] encode(Message message) {
+        DataBuffer buffer = encoder.encodeValue(message, bufferFactory, MESSAGE_TYPE, MessageCodec.MIME_TYPE,
+            Collections.emptyMap());
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        return bytes;
+    }
+
+    private Message decode(byte[] bytes) {
+        return decoder.decode(bufferFactory.wrap(bytes), MESSAGE_TYPE, MessageCodec.MIME_TYPE, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,121 @@
+package io.pivotal.rsocketserver.group;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.codec.MessageEncoder;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.Priority;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.pivotal.rsocketserver.relay.RelaySession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GroupFanoutTest {
+
+    private final ClientRegistry clientRegistry = new ClientRegistry(1);
+    private final MessageEncoder binaryEncoder = spy(new MessageEncoder());
+    private final Jackson2JsonEncoder jsonEncoder = spy(new Jackson2JsonEncoder());
+    private final RelaySession session = mock(RelaySession.class);
+    private final List<DataBuffer> delivered = new ArrayList<>();
+    private GroupFanout fanout;
+
+    @BeforeEach
+    void connectMembers() {
+        RSocketStrategies strategies = RSocketStrategies.builder()
+                .encoder(binaryEncoder, jsonEncoder)
+                .dataBufferFactory(new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT))
+                .build();
+        fanout = new GroupFanout(clientRegistry, strategies);
+        connect("alice", MessageCodec.MIME_TYPE);
+        connect("bob", MessageCodec.MIME_TYPE);
+        connect("carol", MessageCodec.MIME_TYPE);
+        connect("dave", MimeTypeUtils.APPLICATION_JSON);
+        when(session.relay(anyString(), any(Priority.class), any())).thenAnswer(invocation -> {
+            delivered.add(invocation.getArgument(2));
+            return Flux.empty();
+        });
+    }
+
+    @Test
+    void encodesOncePerMimeType() {
+        fanout.fanout(message(), Set.of("alice", "bob", "carol", "dave", "erin"), session).blockLast();
+
+        verify(binaryEncoder, times(1)).encodeValue(any(), any(), any(), eq(MessageCodec.MIME_TYPE), anyMap());
+        verify(jsonEncoder, times(1)).encodeValue(any(), any(), any(), any(), anyMap());
+        verify(session, never()).relay(eq("alice"), any(Priority.class), any());
+        verify(session, never()).relay(eq("erin"), any(Priority.class), any());
+        assertThat(delivered).hasSize(3);
+        assertThat(delivered.stream().map(GroupFanoutTest::nativeBuffer).distinct()).hasSize(2);
+        delivered.forEach(DataBufferUtils::release);
+    }
+
+    @Test
+    void sharedBufferIsReleasedOnceByEveryChannel() {
+        fanout.fanout(message(), Set.of("bob", "carol"), session).blockLast();
+
+        assertThat(delivered).hasSize(2);
+        ByteBuf shared = nativeBuffer(delivered.get(0));
+        assertThat(nativeBuffer(delivered.get(1))).isSameAs(shared);
+        // one reference per channel, the one taken by encoding is gone
+        assertThat(shared.refCnt()).isEqualTo(2);
+
+        delivered.forEach(DataBufferUtils::release);
+
+        assertThat(shared.refCnt()).isZero();
+    }
+
+    @Test
+    void leavingTheGroupStopsDelivery() {
+        GroupRegistry groups = new GroupRegistry();
+        groups.join("team", "bob");
+        groups.join("team", "carol");
+
+        groups.leave("team", "carol");
+        fanout.fanout(message(), groups.members("team"), session).blockLast();
+
+        verify(session).relay(eq("bob"), any(Priority.class), any());
+        verify(session, never()).relay(eq("carol"), any(Priority.class), any());
+        delivered.forEach(DataBufferUtils::release);
+    }
+
+    private void connect(String client, MimeType dataMimeType) {
+        RSocketRequester requester = mock(RSocketRequester.class);
+        when(requester.dataMimeType()).thenReturn(dataMimeType);
+        clientRegistry.register(client, requester);
+    }
+
+    private static ByteBuf nativeBuffer(DataBuffer buffer) {
+        return ((NettyDataBuffer) buffer).getNativeBuffer();
+    }
+
+    private static Message message() {
+        return new Message("alice", "team", "hello");
+    }
+}
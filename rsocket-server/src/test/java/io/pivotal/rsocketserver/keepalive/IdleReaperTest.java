@@ -0,0 +1,88 @@
+package io.pivotal.rsocketserver.keepalive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.rsocket.DuplexConnection;
+import io.rsocket.exceptions.ConnectionCloseException;
+import io.rsocket.plugins.DuplexConnectionInterceptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IdleReaperTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final IdleReaper reaper = new IdleReaper(true, Duration.ofMillis(200), Duration.ofMillis(10), 64,
+            new RelayMetrics(registry));
+
+    private final Sinks.Many<ByteBuf> frames = Sinks.many().unicast().onBackpressureBuffer();
+    private final Sinks.Empty<Void> closed = Sinks.empty();
+
+    @AfterEach
+    void stop() {
+        reaper.stop();
+    }
+
+    private DuplexConnection connection() {
+        DuplexConnection connection = mock(DuplexConnection.class);
+        when(connection.receive()).thenReturn(frames.asFlux());
+        when(connection.onClose()).thenReturn(closed.asMono());
+        return connection;
+    }
+
+    @Test
+    void closesSilentConnection() {
+        DuplexConnection connection = connection();
+        reaper.apply(DuplexConnectionInterceptor.Type.SOURCE, connection).receive().subscribe();
+
+        verify(connection, timeout(2000)).sendErrorAndClose(any(ConnectionCloseException.class));
+        assertThat(registry.counter("rsocket.keepalive.reaped").count()).isEqualTo(1);
+    }
+
+    @Test
+    void keepsConnectionThatKeepsSendingFrames() throws InterruptedException {
+        DuplexConnection connection = connection();
+        reaper.apply(DuplexConnectionInterceptor.Type.SOURCE, connection).receive().subscribe(ByteBuf::release);
+
+        for (int i = 0; i < 20; i++) {
+            frames.tryEmitNext(Unpooled.buffer(1));
+            Thread.sleep(25);
+        }
+        verify(connection, never()).sendErrorAndClose(any());
+        verify(connection, timeout(2000)).sendErrorAndClose(any(ConnectionCloseException.class));
+    }
+
+    @Test
+    void forgetsClosedConnection() {
+        DuplexConnection connection = connection();
+        reaper.apply(DuplexConnectionInterceptor.Type.SOURCE, connection).receive().subscribe();
+        assertThat(reaper.getTracked()).isEqualTo(1);
+
+        when(connection.isDisposed()).thenReturn(true);
+        closed.tryEmitEmpty();
+
+        assertThat(reaper.getTracked()).isZero();
+        verify(connection, after(400).never()).sendErrorAndClose(any());
+    }
+
+    @Test
+    void leavesOtherConnectionTypesAlone() {
+        DuplexConnection connection = connection();
+
+        assertThat(reaper.apply(DuplexConnectionInterceptor.Type.SERVER, connection)).isSameAs(connection);
+        assertThat(reaper.getTracked()).isZero();
+    }
+}
@@ -0,0 +1,85 @@
+package io.pivotal.rsocketserver.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelayMetricsTest {
+
+    @Test
+    void hopIsRecordedOnce() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RelayMetrics metrics = new RelayMetrics(registry);
+
+        RelayMetrics.Hop hop = metrics.start("personal.call", RelayMetrics.HOP_LOOKUP, "Client1");
+        hop.stop();
+        hop.stop();
+
+        assertThat(registry.get("rsocket.relay.hop").tag("hop", "lookup").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void replyRecordsSetupAndFirstReply() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RelayMetrics metrics = new RelayMetrics(registry);
+
+        RelayMetrics.Hop setup = metrics.start("personal.call", RelayMetrics.HOP_SETUP, "Client1");
+        StepVerifier.create(metrics.reply(setup, Flux.just(1, 2, 3)))
+                .expectNext(1, 2, 3)
+                .verifyComplete();
+
+        assertThat(registry.get("rsocket.relay.hop").tag("hop", "setup").timer().count()).isEqualTo(1);
+        assertThat(registry.get("rsocket.relay.latency").tag("route", "personal.call").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void replyClockTimesEveryMessageByItsReply() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RelayMetrics.ReplyClock clock = new RelayMetrics(registry).replyClock("personal.call");
+
+        clock.sent(System.nanoTime() - 3_000_000);
+        clock.sent(System.nanoTime());
+        clock.replied();
+        clock.replied();
+        // no message left to answer
+        clock.replied();
+
+        Timer latency = registry.get("rsocket.relay.latency").tag("route", "personal.call").timer();
+        assertThat(latency.count()).isEqualTo(2);
+        assertThat(latency.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    void replyClockSkipsMessagesOutOfItsRing() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RelayMetrics.ReplyClock clock = new RelayMetrics(registry).replyClock("personal.call");
+
+        for (int i = 0; i <= RelayMetrics.REPLY_CLOCK_SIZE; i++) {
+            clock.sent(System.nanoTime());
+        }
+        clock.replied();
+        clock.replied();
+
+        assertThat(registry.get("rsocket.relay.latency").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void trackCountsInflightAndCancelledStreams() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RelayMetrics metrics = new RelayMetrics(registry);
+
+        StepVerifier.create(metrics.track("group.call", Flux.never()))
+                .then(() -> assertThat(registry.get("rsocket.relay.inflight").gauge().value()).isEqualTo(1))
+                .thenCancel()
+                .verify();
+
+        assertThat(registry.get("rsocket.relay.inflight").gauge().value()).isEqualTo(0);
+        assertThat(registry.get("rsocket.relay.cancelled").tag("route", "group.call").counter().count()).isEqualTo(1);
+    }
+}
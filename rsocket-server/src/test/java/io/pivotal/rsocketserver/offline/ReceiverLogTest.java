@@ -0,0 +1,76 @@
+package io.pivotal.rsocketserver.offline;
+
+import io.pivotal.rsocketserver.data.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReceiverLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void messagesSurviveRestartInOrder() throws Exception {
+        OfflineMessageStore.Settings settings = new OfflineMessageStore.Settings(4, 128, 1 << 20, 60_000);
+        ReceiverLog receiverLog = new ReceiverLog("Client2", directory, settings);
+        for (int i = 0; i < 10; i++) {
+            receiverLog.append(new Message("Client1", "Client2", "Hello " + i));
+        }
+        receiverLog.flush();
+        receiverLog.force();
+
+        ReceiverLog recovered = new ReceiverLog("Client2", directory, settings);
+        recovered.recover();
+
+        assertThat(contents(recovered.detach())).containsExactly(
+                "Hello 0", "Hello 1", "Hello 2", "Hello 3", "Hello 4",
+                "Hello 5", "Hello 6", "Hello 7", "Hello 8", "Hello 9");
+    }
+
+    @Test
+    void oldestSegmentsAreDroppedOverTheSizeLimit() {
+        OfflineMessageStore.Settings settings = new OfflineMessageStore.Settings(1, 64, 128, 60_000);
+        ReceiverLog receiverLog = new ReceiverLog("Client2", directory, settings);
+        int dropped = 0;
+        for (int i = 0; i < 20; i++) {
+            dropped += receiverLog.append(new Message("Client1", "Client2", "Hello " + i));
+        }
+
+        assertThat(dropped).isPositive();
+        assertThat(receiverLog.bytes()).isLessThanOrEqualTo(128 + 64);
+        List<String> kept = contents(receiverLog.detach());
+        assertThat(kept).hasSize(20 - dropped).endsWith("Hello 19");
+    }
+
+    @Test
+    void unfinishedReplayIsPutBack() {
+        OfflineMessageStore.Settings settings = new OfflineMessageStore.Settings(2, 128, 1 << 20, 60_000);
+        ReceiverLog receiverLog = new ReceiverLog("Client2", directory, settings);
+        receiverLog.append(new Message("Client1", "Client2", "first"));
+        receiverLog.append(new Message("Client1", "Client2", "second"));
+
+        ReceiverLog.Replay replay = receiverLog.detach();
+        assertThat(receiverLog.isEmpty()).isTrue();
+        assertThat(receiverLog.isIdle()).isFalse();
+
+        receiverLog.finish(replay);
+        assertThat(receiverLog.isIdle()).isFalse();
+        assertThat(contents(receiverLog.detach())).containsExactly("first", "second");
+    }
+
+    private static List<String> contents(ReceiverLog.Replay replay) {
+        List<String> contents = new ArrayList<>();
+        int[] next = new int[1];
+        for (Segment segment : replay.segments) {
+            segment.read("Client2", 0, Integer.MAX_VALUE, next).forEach(message -> contents.add(message.getContent()));
+        }
+        replay.tail.forEach(message -> contents.add(message.getContent()));
+        return contents;
+    }
+}
@@ -0,0 +1,64 @@
+package io.pivotal.rsocketserver.offline;
+
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.Priority;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void priorityRoundTripsThroughTheFile() throws Exception {
+        Path path = directory.resolve("1.seg");
+        Segment segment = Segment.create(path, 1, 256);
+        segment.append(new Message("Client1", "Client2", "hang up", Priority.CONTROL));
+        segment.append(new Message("Client1", "Client2", "Hello"));
+        segment.append(new Message(null, "Client2", "file", Priority.BULK));
+        segment.force();
+
+        Segment reopened = Segment.open(path, 1);
+
+        assertThat(reopened.count()).isEqualTo(3);
+        assertThat(reopened.read("Client2", 0, 10, new int[1])).containsExactly(
+                new Message("Client1", "Client2", "hang up", Priority.CONTROL),
+                new Message("Client1", "Client2", "Hello"),
+                new Message(null, "Client2", "file", Priority.BULK));
+    }
+
+    @Test
+    void segmentWrittenWithoutPrioritiesStillReads() throws Exception {
+        Path path = directory.resolve("1.seg");
+        ByteBuffer file = ByteBuffer.allocate(256);
+        oldRecord(file, "Client1", "Hello 0");
+        oldRecord(file, null, "Hello 1");
+        Files.write(path, file.array());
+
+        Segment segment = Segment.open(path, 1);
+        segment.append(new Message("Client1", "Client2", "Hello 2", Priority.BULK));
+
+        assertThat(segment.read("Client2", 0, 10, new int[1])).containsExactly(
+                new Message("Client1", "Client2", "Hello 0"),
+                new Message(null, "Client2", "Hello 1"),
+                new Message("Client1", "Client2", "Hello 2", Priority.BULK));
+    }
+
+    // [int length][int senderLength][sender][content]
+    private static void oldRecord(ByteBuffer file, String sender, String content) {
+        byte[] senderBytes = sender == null ? new byte[0] : sender.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        file.putInt(4 + senderBytes.length + contentBytes.length);
+        file.putInt(sender == null ? -1 : senderBytes.length);
+        file.put(senderBytes);
+        file.put(contentBytes);
+    }
+}
@@ -0,0 +1,98 @@
+package io.pivotal.rsocketserver.presence;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PresenceServiceTest {
+
+    private final PresenceService presence = new PresenceService(4, new RelayMetrics(new SimpleMeterRegistry()));
+
+    @Test
+    void lifecycleDrivesOnlineAndOffline() {
+        presence.connected("Client1");
+        assertThat(presence.current("Client1").getState()).isEqualTo(PresenceState.ONLINE);
+        assertThat(presence.away("Client1", true)).isEqualTo(PresenceState.AWAY);
+        assertThat(presence.getOnline()).isEqualTo(1);
+
+        presence.disconnected("Client1");
+        PresenceUpdate update = presence.current("Client1");
+        assertThat(update.getState()).isEqualTo(PresenceState.OFFLINE);
+        assertThat(update.getLastSeen()).isPositive();
+        assertThat(presence.getOnline()).isZero();
+    }
+
+    @Test
+    void awayNeedsAConnection() {
+        assertThat(presence.away("Client1", true)).isEqualTo(PresenceState.OFFLINE);
+        assertThat(presence.getKnown()).isZero();
+
+        presence.connected("Client1");
+        presence.disconnected("Client1");
+        assertThat(presence.away("Client1", true)).isEqualTo(PresenceState.OFFLINE);
+        assertThat(presence.current("Client1").getState()).isEqualTo(PresenceState.OFFLINE);
+    }
+
+    @Test
+    void answersManyContactsAsBitmap() {
+        List<String> contacts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            contacts.add("Client" + i);
+            if (i % 3 == 0) {
+                presence.connected("Client" + i);
+            }
+        }
+        presence.away("Client9", true);
+
+        byte[] bitmap = presence.online(contacts);
+
+        assertThat(bitmap).hasSize(1250);
+        for (int i = 0; i < contacts.size(); i++) {
+            assertThat((bitmap[i / 8] >> (i % 8) & 1) == 1).as("contact %d", i).isEqualTo(i % 3 == 0);
+        }
+    }
+
+    @Test
+    void watchStartsWithSnapshotThenPushesChanges() {
+        presence.connected("Client1");
+
+        StepVerifier.create(presence.watch(Arrays.asList("Client1", "Client2")).map(PresenceUpdate::getState))
+                .expectNext(PresenceState.ONLINE, PresenceState.OFFLINE)
+                .then(() -> {
+                    presence.connected("Client2");
+                    presence.connected("Client3");
+                    presence.away("Client1", true);
+                })
+                .expectNext(PresenceState.ONLINE, PresenceState.AWAY)
+                .thenCancel()
+                .verify();
+
+        // the cancelled watcher is gone
+        presence.disconnected("Client1");
+    }
+
+    @Test
+    void watcherThatFallsBehindIsEnded() {
+        StepVerifier.create(presence.watch(Arrays.asList("Client1")), 1)
+                .expectNextCount(1)
+                .then(() -> {
+                    for (int i = 0; i < 10; i++) {
+                        presence.connected("Client1");
+                        presence.disconnected("Client1");
+                    }
+                })
+                .thenRequest(Long.MAX_VALUE)
+                .thenConsumeWhile(update -> true)
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        assertThat(presence.getOverflows()).isEqualTo(1);
+    }
+}
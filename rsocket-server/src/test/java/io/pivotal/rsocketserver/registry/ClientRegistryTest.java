@@ -0,0 +1,52 @@
+package io.pivotal.rsocketserver.registry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClientRegistryTest {
+
+    @Test
+    void lookupReturnsRegisteredRequester() {
+        ClientRegistry registry = new ClientRegistry(4);
+        RSocketRequester requester = mock(RSocketRequester.class);
+
+        registry.register("Client1", requester);
+
+        assertThat(registry.lookup("Client1")).isSameAs(requester);
+        assertThat(registry.lookup("Client2")).isNull();
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    void staleDisconnectDoesNotEvictNewSession() {
+        ClientRegistry registry = new ClientRegistry(4);
+        RSocketRequester oldSession = mock(RSocketRequester.class);
+        RSocketRequester newSession = mock(RSocketRequester.class);
+
+        registry.register("Client1", oldSession);
+        registry.register("Client1", newSession);
+
+        verify(oldSession).dispose();
+        assertThat(registry.evict("Client1", oldSession)).isFalse();
+        assertThat(registry.lookup("Client1")).isSameAs(newSession);
+    }
+
+    @Test
+    void lookupEvictsDisposedRequester() {
+        ClientRegistry registry = new ClientRegistry(3);
+        RSocketRequester requester = mock(RSocketRequester.class);
+        when(requester.isDisposed()).thenReturn(true);
+
+        registry.register("Client1", requester);
+
+        assertThat(registry.lookup("Client1")).isNull();
+        assertThat(registry.size()).isZero();
+        assertThat(registry.shardStats()).hasSize(4);
+        assertThat(registry.shardStats().stream().mapToLong(ClientRegistry.ShardStats::getEvicted).sum()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,135 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.codec.MessageCodec;
+import io.pivotal.rsocketserver.codec.MessageDecoder;
+import io.pivotal.rsocketserver.codec.MessageEncoder;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ForwardRelayTest {
+
+    private static final ResolvableType MESSAGE_TYPE = ResolvableType.forClass(Message.class);
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+    private final RSocketStrategies strategies = RSocketStrategies.builder()
+            .encoder(new MessageEncoder(), new Jackson2JsonEncoder())
+            .decoder(new MessageDecoder(), new Jackson2JsonDecoder())
+            .dataBufferFactory(bufferFactory)
+            .build();
+    private final ClientRegistry registry = new ClientRegistry(1);
+    private final OfflineMessageStore offlineStore = mock(OfflineMessageStore.class);
+    private final RSocketRequester requester = mock(RSocketRequester.class);
+    private final RSocketRequester.RequestSpec call = mock(RSocketRequester.RequestSpec.class);
+    private final ArgumentCaptor<Publisher<DataBuffer>> outbound = ArgumentCaptor.forClass(Publisher.class);
+    private ForwardRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        relay = new ForwardRelay(registry, offlineStore, mock(ClusterNode.class), strategies,
+                new RelayMetrics(new SimpleMeterRegistry()));
+        when(requester.route("call")).thenReturn(call);
+        when(call.data(outbound.capture())).thenReturn(call);
+        when(offlineStore.store(any())).thenReturn(true);
+    }
+
+    @Test
+    void sameMimeTypePassesBuffersAndRepliesThrough() {
+        connect(MessageCodec.MIME_TYPE);
+        NettyDataBuffer payload = encode(message("m1"), MessageCodec.MIME_TYPE);
+        NettyDataBuffer reply = encode(message("r1"), MessageCodec.MIME_TYPE);
+        when(call.retrieveFlux(DataBuffer.class)).thenReturn(Flux.just(reply));
+
+        List<DataBuffer> replies = relay.forward("bob", MessageCodec.MIME_TYPE, Flux.just(payload)).collectList().block();
+        List<DataBuffer> sent = Flux.from(outbound.getValue()).collectList().block();
+
+        assertThat(sent).containsExactly(payload);
+        assertThat(replies).containsExactly(reply);
+        // each buffer still holds the one reference the transport releases
+        assertThat(payload.getNativeBuffer().refCnt()).isEqualTo(1);
+        assertThat(reply.getNativeBuffer().refCnt()).isEqualTo(1);
+        assertThat(relay.getForwarded()).isEqualTo(1);
+        assertThat(relay.getTranscoded()).isZero();
+    }
+
+    @Test
+    void transcodingReleasesTheReceivedBuffers() {
+        connect(MessageCodec.MIME_TYPE);
+        NettyDataBuffer payload = encode(message("m1"), MimeTypeUtils.APPLICATION_JSON);
+        NettyDataBuffer reply = encode(message("r1"), MessageCodec.MIME_TYPE);
+        when(call.retrieveFlux(DataBuffer.class)).thenReturn(Flux.just(reply));
+
+        List<DataBuffer> replies = relay.forward("bob", MimeTypeUtils.APPLICATION_JSON, Flux.just(payload))
+                .collectList().block();
+        List<DataBuffer> sent = Flux.from(outbound.getValue()).collectList().block();
+
+        assertThat(payload.getNativeBuffer().refCnt()).isZero();
+        assertThat(reply.getNativeBuffer().refCnt()).isZero();
+        assertThat(decode(sent.get(0), MessageCodec.MIME_TYPE)).isEqualTo(message("m1"));
+        assertThat(decode(replies.get(0), MimeTypeUtils.APPLICATION_JSON)).isEqualTo(message("r1"));
+        assertThat(relay.getTranscoded()).isEqualTo(2);
+    }
+
+    @Test
+    void offlineReceiverStoresTheMessageAndReleasesTheBuffer() {
+        NettyDataBuffer payload = encode(message("m1"), MessageCodec.MIME_TYPE);
+
+        relay.forward("bob", MessageCodec.MIME_TYPE, Flux.just(payload)).blockLast();
+
+        verify(offlineStore).store(message("m1"));
+        assertThat(payload.getNativeBuffer().refCnt()).isZero();
+        assertThat(relay.getStored()).isEqualTo(1);
+    }
+
+    private void connect(MimeType dataMimeType) {
+        when(requester.dataMimeType()).thenReturn(dataMimeType);
+        registry.register("bob", requester);
+    }
+
+    private NettyDataBuffer encode(Message message, MimeType mimeType) {
+        return (NettyDataBuffer) strategies.encoder(MESSAGE_TYPE, mimeType)
+                .encodeValue(message, bufferFactory, MESSAGE_TYPE, mimeType, Collections.emptyMap());
+    }
+
+    private Message decode(DataBuffer buffer, MimeType mimeType) {
+        try {
+            return (Message) strategies.decoder(MESSAGE_TYPE, mimeType)
+                    .decode(DataBufferUtils.retain(buffer), MESSAGE_TYPE, mimeType, Collections.emptyMap());
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static Message message(String content) {
+        return new Message("alice", "bob", content);
+    }
+}
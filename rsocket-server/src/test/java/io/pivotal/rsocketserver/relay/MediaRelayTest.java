@@ -0,0 +1,107 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MediaRelayTest {
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+    private final ClientRegistry registry = new ClientRegistry(1);
+    private final MediaRelay relay = new MediaRelay(registry, new RelayMetrics(new SimpleMeterRegistry()), 4);
+
+    @Test
+    void framesPassThroughAsTheReceivedBuffers() {
+        RSocketRequester requester = mock(RSocketRequester.class);
+        RSocketRequester.RequestSpec media = mock(RSocketRequester.RequestSpec.class);
+        ArgumentCaptor<Publisher<DataBuffer>> outbound = ArgumentCaptor.forClass(Publisher.class);
+        when(requester.route("media")).thenReturn(media);
+        when(media.data(outbound.capture())).thenReturn(media);
+        when(media.retrieveFlux(DataBuffer.class)).thenReturn(Flux.empty());
+        registry.register("bob", requester);
+        NettyDataBuffer first = frame(10);
+        NettyDataBuffer second = frame(20);
+
+        relay.relay("bob", Flux.just(first, second)).blockLast();
+        List<DataBuffer> sent = Flux.from(outbound.getValue()).collectList().block();
+
+        assertThat(sent).containsExactly(first, second);
+        assertThat(first.getNativeBuffer().refCnt()).isEqualTo(1);
+        assertThat(second.getNativeBuffer().refCnt()).isEqualTo(1);
+        assertThat(relay.getFrames()).isEqualTo(2);
+        assertThat(relay.getBytes()).isEqualTo(30);
+    }
+
+    @Test
+    void framesForAnOfflineReceiverAreReleasedAndRefused() {
+        NettyDataBuffer frame = frame(10);
+
+        StepVerifier.create(relay.relay("bob", Flux.just(frame)))
+                .expectErrorMessage("Receiver bob is not connected")
+                .verify();
+
+        assertThat(frame.getNativeBuffer().refCnt()).isZero();
+    }
+
+    @Test
+    void fragmentedFrameIsReassembled() {
+        List<byte[]> received = new CopyOnWriteArrayList<>();
+        CloseableChannel receiver = RSocketServer.create(SocketAcceptor.forRequestChannel(payloads ->
+                        Flux.from(payloads)
+                                .doOnNext(payload -> {
+                                    received.add(ByteBufUtil.getBytes(payload.data()));
+                                    payload.release();
+                                })
+                                .thenMany(Flux.empty())))
+                .fragment(64)
+                .bind(TcpServerTransport.create("localhost", 0))
+                .block();
+        RSocketRequester requester = RSocketRequester.builder()
+                .rsocketConnector(connector -> connector.fragment(64))
+                .tcp("localhost", receiver.address().getPort());
+        try {
+            registry.register("bob", requester);
+            NettyDataBuffer frame = frame(10_000);
+            byte[] expected = ByteBufUtil.getBytes(frame.getNativeBuffer());
+
+            relay.relay("bob", Flux.just(frame)).blockLast(Duration.ofSeconds(5));
+
+            assertThat(received).hasSize(1);
+            assertThat(received.get(0)).isEqualTo(expected);
+        } finally {
+            requester.dispose();
+            receiver.dispose();
+        }
+    }
+
+    private NettyDataBuffer frame(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bufferFactory.wrap(Unpooled.wrappedBuffer(bytes));
+    }
+}
@@ -0,0 +1,81 @@
+package io.pivotal.rsocketserver.relay;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageBatcherTest {
+
+    @Test
+    void busyStreamFillsBatches() {
+        MessageBatcher batcher = new MessageBatcher(4, Duration.ofSeconds(1));
+
+        StepVerifier.create(batcher.batch(Flux.range(0, 10)))
+            // the first element has no gap to judge the load by
+            .expectNext(List.of(0))
+            .expectNext(List.of(1, 2, 3, 4), List.of(5, 6, 7, 8))
+            .expectNext(List.of(9))
+            .verifyComplete();
+    }
+
+    @Test
+    void idleStreamSendsEveryElementAtOnce() {
+        VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+        MessageBatcher batcher = new MessageBatcher(4, Duration.ofMillis(2), scheduler);
+        Sinks.Many<Integer> source = Sinks.many().unicast().onBackpressureBuffer();
+
+        StepVerifier.create(batcher.batch(source.asFlux()))
+            .then(() -> source.tryEmitNext(1))
+            .expectNext(List.of(1))
+            .then(() -> sleep(10))
+            .then(() -> source.tryEmitNext(2))
+            .expectNext(List.of(2))
+            .then(source::tryEmitComplete)
+            .verifyComplete();
+    }
+
+    @Test
+    void partialBatchIsSentAfterMaxDelay() {
+        VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+        MessageBatcher batcher = new MessageBatcher(64, Duration.ofSeconds(1), scheduler);
+
+        StepVerifier.create(batcher.batch(Flux.range(0, 3).concatWith(Flux.never())))
+            .expectNext(List.of(0))
+            .expectNoEvent(Duration.ofMillis(100))
+            .then(() -> scheduler.advanceTimeBy(Duration.ofSeconds(1)))
+            .expectNext(List.of(1, 2))
+            .thenCancel()
+            .verify();
+    }
+
+    @Test
+    void sourceIsAskedForAtMostOneBatchPerRequest() {
+        MessageBatcher batcher = new MessageBatcher(4, Duration.ofSeconds(1));
+        AtomicLong requested = new AtomicLong();
+
+        StepVerifier.create(batcher.batch(Flux.range(0, 100).doOnRequest(requested::addAndGet)), 1)
+            .expectNext(List.of(0))
+            .then(() -> assertThat(requested.get()).isEqualTo(4))
+            .thenRequest(1)
+            .expectNext(List.of(1, 2, 3, 4))
+            .then(() -> assertThat(requested.get()).isLessThanOrEqualTo(8))
+            .thenCancel()
+            .verify();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.rsocketserver.cluster.ClusterNode;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageRelayTest {
+
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private final ClientRegistry registry = new ClientRegistry(1);
+    private final OfflineMessageStore offlineStore = mock(OfflineMessageStore.class);
+    private final RSocketRequester requester = mock(RSocketRequester.class);
+    private final RSocketRequester.RequestSpec call = mock(RSocketRequester.RequestSpec.class);
+    private final List<Publisher<?>> sent = new ArrayList<>();
+    private final List<Sinks.Many<Message>> replies = new ArrayList<>();
+    private MessageRelay relay;
+
+    @BeforeEach
+    void connectReceiver() {
+        RelayMetrics metrics = new RelayMetrics(meters);
+        ChannelRelay channelRelay = new ChannelRelay(registry, offlineStore, null, metrics,
+                new ServerSchedulers(1, 1, 16, false), 2, OverflowPolicy.DROP_NEWEST, 64, Duration.ofMinutes(10),
+                new int[]{8, 4, 1}, false, 64, Duration.ofMillis(2));
+        relay = new MessageRelay(registry, channelRelay, offlineStore, mock(ClusterNode.class), metrics);
+        when(requester.route("call")).thenReturn(call);
+        when(call.data(any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            return call;
+        });
+        when(call.retrieveFlux(Message.class)).thenAnswer(invocation -> {
+            Sinks.Many<Message> reply = Sinks.many().unicast().onBackpressureBuffer();
+            replies.add(reply);
+            return reply.asFlux();
+        });
+        registry.register("bob", requester);
+    }
+
+    @Test
+    void channelOpensOneStreamPerReceiver() {
+        relay.relay("personal.call", Flux.just(message("m1"), message("m2")), policy(RelayMode.CHANNEL)).subscribe();
+
+        verify(requester, times(1)).route("call");
+        StepVerifier.create(Flux.<Object>from(sent.get(0)))
+            .expectNext(message("m1"), message("m2"))
+            .verifyComplete();
+        assertThat(relay.stats(RelayMode.CHANNEL).getRelayed()).isEqualTo(2);
+    }
+
+    @Test
+    void channelTimesEveryMessageByItsReply() {
+        relay.relay("personal.call", Flux.just(message("m1"), message("m2")), policy(RelayMode.CHANNEL)).subscribe();
+        Flux.from(sent.get(0)).subscribe();
+
+        replies.get(0).tryEmitNext(message("r1"));
+        replies.get(0).tryEmitNext(message("r2"));
+
+        assertThat(meters.get("rsocket.relay.latency").tag("route", "personal.call").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void orderedWaitsForThePreviousCall() {
+        relay.relay("personal.call", Flux.just(message("m1"), message("m2")), policy(RelayMode.ORDERED)).subscribe();
+
+        assertThat(replies).hasSize(1);
+        replies.get(0).tryEmitComplete();
+
+        assertThat(replies).hasSize(2);
+        replies.get(1).tryEmitComplete();
+        assertThat(contents()).containsExactly("m1", "m2");
+        assertThat(relay.stats(RelayMode.ORDERED))
+            .extracting(RelayStats::getRelayed, RelayStats::getQueued, RelayStats::getDropped)
+            .containsExactly(2L, 1L, 0L);
+    }
+
+    @Test
+    void parallelRunsUpToMaxConcurrencyCalls() {
+        relay.relay("personal.call", Flux.just(message("m1"), message("m2"), message("m3")), policy(RelayMode.PARALLEL)).subscribe();
+
+        assertThat(replies).hasSize(2);
+        replies.get(1).tryEmitComplete();
+
+        assertThat(replies).hasSize(3);
+        assertThat(contents()).containsExactly("m1", "m2", "m3");
+        assertThat(relay.stats(RelayMode.PARALLEL))
+            .extracting(RelayStats::getRelayed, RelayStats::getQueued)
+            .containsExactly(1L, 1L);
+    }
+
+    @Test
+    void latestCountsOnlySupersededCallsAsDropped() {
+        Sinks.Many<Message> messages = Sinks.many().unicast().onBackpressureBuffer();
+        relay.relay("personal.call", messages.asFlux(), policy(RelayMode.LATEST)).subscribe();
+
+        messages.tryEmitNext(message("m1"));
+        messages.tryEmitNext(message("m2"));
+        replies.get(1).tryEmitNext(message("reply"));
+        messages.tryEmitNext(message("m3"));
+
+        assertThat(relay.stats(RelayMode.LATEST))
+            .extracting(RelayStats::getRelayed, RelayStats::getDropped)
+            .containsExactly(1L, 1L);
+    }
+
+    @Test
+    void latestSenderCancellingIsNoDrop() {
+        Disposable stream = relay.relay("personal.call", Flux.just(message("m1")).concatWith(Flux.never()), policy(RelayMode.LATEST))
+            .subscribe();
+
+        stream.dispose();
+
+        assertThat(replies).hasSize(1);
+        assertThat(relay.stats(RelayMode.LATEST))
+            .extracting(RelayStats::getRelayed, RelayStats::getDropped)
+            .containsExactly(0L, 0L);
+    }
+
+    @Test
+    void metricsAreTaggedWithTheInboundRoute() {
+        relay.relay("personal.batch", Flux.just(message("m1")), policy(RelayMode.ORDERED)).subscribe();
+
+        assertThat(meters.find("rsocket.relay.hop").tag("route", "personal.batch").timers()).isNotEmpty();
+        assertThat(meters.find("rsocket.relay.hop").tag("route", "personal.call").timers()).isEmpty();
+    }
+
+    private List<String> contents() {
+        List<String> contents = new ArrayList<>();
+        for (Publisher<?> publisher : sent) {
+            contents.add(((Message) Flux.from(publisher).blockFirst()).getContent());
+        }
+        return contents;
+    }
+
+    private static RelayPolicy policy(RelayMode mode) {
+        return new RelayPolicy(mode, 2, 2);
+    }
+
+    private static Message message(String content) {
+        return new Message("alice", "bob", content);
+    }
+}
@@ -0,0 +1,86 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.rsocketserver.data.Priority;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboundLanesTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<Object> discarded = new ArrayList<>();
+
+    private OutboundLanes lanes(int capacity) {
+        RelayMetrics metrics = new RelayMetrics(registry);
+        return new OutboundLanes(capacity, new int[]{8, 4, 1}, metrics, metrics.replyClock("personal.call"),
+                discarded::add, () -> { });
+    }
+
+    @Test
+    void controlOvertakesSaturatedBulkLane() {
+        OutboundLanes lanes = lanes(128);
+        for (int i = 0; i < 100; i++) {
+            lanes.offer(Priority.BULK, "bulk" + i);
+        }
+
+        StepVerifier.create(lanes.flux(), 0)
+                .thenRequest(3)
+                .expectNext("bulk0", "bulk1", "bulk2")
+                .then(() -> lanes.offer(Priority.CONTROL, "hang-up"))
+                .thenRequest(1)
+                .expectNext("hang-up")
+                .thenRequest(1)
+                .expectNext("bulk3")
+                .thenCancel()
+                .verify();
+
+        assertThat(registry.timer("rsocket.relay.lane.wait", "lane", "CONTROL").count()).isEqualTo(1);
+        assertThat(discarded).hasSize(96);
+    }
+
+    @Test
+    void lanesShareTheReceiverByWeight() {
+        OutboundLanes lanes = lanes(64);
+        for (int i = 0; i < 20; i++) {
+            lanes.offer(Priority.INTERACTIVE, "chat");
+            lanes.offer(Priority.BULK, "media");
+        }
+        List<Object> sent = lanes.flux().take(10).collectList().block();
+
+        assertThat(sent).containsExactly("chat", "chat", "chat", "chat", "media",
+                "chat", "chat", "chat", "chat", "media");
+    }
+
+    @Test
+    void everyLaneOverflowsOnItsOwn() {
+        OutboundLanes lanes = lanes(2);
+
+        assertThat(lanes.offer(Priority.BULK, "media1")).isEqualTo(Sinks.EmitResult.OK);
+        assertThat(lanes.offer(Priority.BULK, "media2")).isEqualTo(Sinks.EmitResult.OK);
+        assertThat(lanes.offer(Priority.BULK, "media3")).isEqualTo(Sinks.EmitResult.FAIL_OVERFLOW);
+        assertThat(lanes.offer(Priority.CONTROL, "call-setup")).isEqualTo(Sinks.EmitResult.OK);
+
+        assertThat(lanes.pollOldest(Priority.BULK)).isEqualTo("media1");
+        assertThat(lanes.offer(Priority.BULK, "media3")).isEqualTo(Sinks.EmitResult.OK);
+    }
+
+    @Test
+    void completesOnceDrainedAndRefusesMore() {
+        OutboundLanes lanes = lanes(8);
+        lanes.offer(Priority.BULK, "media");
+        lanes.offer(Priority.CONTROL, "call-setup");
+        lanes.complete();
+
+        assertThat(lanes.offer(Priority.INTERACTIVE, "chat")).isEqualTo(Sinks.EmitResult.FAIL_TERMINATED);
+        StepVerifier.create(lanes.flux())
+                .expectNext("call-setup", "media")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,277 @@
+package io.pivotal.rsocketserver.relay;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.pivotal.rsocketserver.data.Message;
+import io.pivotal.rsocketserver.data.MessageBatch;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.pivotal.rsocketserver.offline.OfflineMessageStore;
+import io.pivotal.rsocketserver.registry.ClientRegistry;
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RelaySessionTest {
+
+    private final ClientRegistry registry = new ClientRegistry(1);
+    private final OfflineMessageStore offlineStore = mock(OfflineMessageStore.class);
+    private final ServerSchedulers schedulers = new ServerSchedulers(1, 1, 16, false);
+    private final RSocketRequester requester = mock(RSocketRequester.class);
+    private final RSocketRequester.RequestSpec call = mock(RSocketRequester.RequestSpec.class);
+    private final ArgumentCaptor<Publisher<?>> outbound = ArgumentCaptor.forClass(Publisher.class);
+    private final List<String> received = new ArrayList<>();
+    private final List<Message> stored = new ArrayList<>();
+    private BaseSubscriber<Object> receiver;
+
+    @BeforeEach
+    void connectReceiver() {
+        when(requester.route("call")).thenReturn(call);
+        when(call.data(outbound.capture())).thenReturn(call);
+        when(call.retrieveFlux(Message.class)).thenReturn(Flux.never());
+        when(offlineStore.store(any())).thenReturn(true);
+        registry.register("slow", requester);
+    }
+
+    @Test
+    void dropNewestKeepsQueuedMessages() {
+        RelaySession session = open(OverflowPolicy.DROP_NEWEST);
+
+        relay(session, "m1", "m2", "m3");
+
+        assertThat(drain()).containsExactly("m1", "m2");
+    }
+
+    @Test
+    void dropOldestKeepsLatestMessages() {
+        ChannelRelay relay = channelRelay(OverflowPolicy.DROP_OLDEST);
+        RelaySession session = relay.openSession("personal.call", 2);
+
+        relay(session, "m1", "m2", "m3");
+
+        assertThat(drain()).containsExactly("m2", "m3");
+        assertThat(relay.getDropped()).isEqualTo(1);
+        assertThat(relay.slowReceivers()).extracting(SlowReceiver::getReceiver).containsExactly("slow");
+    }
+
+    @Test
+    void disconnectClosesReceiverAndStoresMessage() {
+        RelaySession session = open(OverflowPolicy.DISCONNECT);
+
+        relay(session, "m1", "m2", "m3");
+
+        verify(requester).dispose();
+        verify(offlineStore).store(message("m3"));
+        assertThat(session.size()).isZero();
+    }
+
+    @Test
+    void spillReplaysOnTheSameChannelOnceTheQueueIsDrained() {
+        RelaySession session = open(OverflowPolicy.SPILL);
+        storeInMemory();
+
+        relay(session, "m1", "m2", "m3", "m4");
+        // the sender goes quiet, the receiver reads
+        List<String> drained = drain();
+        relay(session, "m5");
+
+        assertThat(drained).containsExactly("m1", "m2", "m3", "m4");
+        assertThat(drain()).containsExactly("m5");
+        assertThat(stored).isEmpty();
+        verify(requester, times(1)).route("call");
+    }
+
+    @Test
+    void spillKeepsTheOrderOfMessagesSentDuringReplay() {
+        RelaySession session = open(OverflowPolicy.SPILL);
+        storeInMemory();
+        List<String> contents = new ArrayList<>();
+        BaseSubscriber<Object> slow = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+            }
+
+            @Override
+            protected void hookOnNext(Object value) {
+                contents.add(((Message) value).getContent());
+            }
+        };
+
+        relay(session, "m1", "m2", "m3", "m4", "m5", "m6");
+        outbound.getValue().subscribe(slow);
+        slow.request(3);
+        relay(session, "m7");
+        slow.request(2);
+        relay(session, "m8");
+        slow.request(10);
+        relay(session, "m9");
+
+        assertThat(contents).containsExactly("m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9");
+        assertThat(stored).isEmpty();
+    }
+
+    @Test
+    void spillingChannelCompletesAfterTheStoredMessages() {
+        RelaySession session = open(OverflowPolicy.SPILL);
+        storeInMemory();
+
+        relay(session, "m1", "m2", "m3", "m4");
+        session.complete();
+
+        StepVerifier.create(Flux.from(outbound.getValue()).map(value -> ((Message) value).getContent()))
+            .expectNext("m1", "m2", "m3", "m4")
+            .verifyComplete();
+    }
+
+    @Test
+    void batchReceiverGetsBatches() {
+        when(requester.route("call.batch")).thenReturn(call);
+        ChannelRelay relay = new ChannelRelay(registry, offlineStore, null, new RelayMetrics(new SimpleMeterRegistry()),
+                schedulers, 2, OverflowPolicy.DROP_NEWEST, 64, Duration.ofMinutes(10), new int[]{8, 4, 1}, true, 64, Duration.ofMillis(2));
+        relay.acceptBatches(requester);
+
+        relay(relay.openSession("personal.call", 2), "m1");
+
+        verify(requester).route("call.batch");
+        StepVerifier.create(Flux.<Object>from(outbound.getValue()))
+            .expectNext(new MessageBatch(List.of(message("m1"))))
+            .thenCancel()
+            .verify();
+    }
+
+    @Test
+    void deliveredBufferKeepsItsReferenceForTheReceiver() {
+        RelaySession session = open(OverflowPolicy.DROP_NEWEST);
+        NettyDataBuffer buffer = buffer("m1");
+
+        session.relay("slow", buffer).subscribe();
+
+        StepVerifier.create(Flux.<Object>from(outbound.getValue()))
+            .expectNextMatches(payload -> payload == buffer)
+            .thenCancel()
+            .verify();
+        assertThat(refCnt(buffer)).isEqualTo(1);
+    }
+
+    @Test
+    void cancelReleasesQueuedBuffers() {
+        RelaySession session = open(OverflowPolicy.DROP_NEWEST);
+        NettyDataBuffer first = buffer("m1");
+        NettyDataBuffer second = buffer("m2");
+
+        session.relay("slow", first).subscribe();
+        session.relay("slow", second).subscribe();
+        StepVerifier.create(Flux.<Object>from(outbound.getValue()), 0)
+            .thenCancel()
+            .verify();
+
+        assertThat(refCnt(first)).isZero();
+        assertThat(refCnt(second)).isZero();
+    }
+
+    @Test
+    void overflowReleasesDroppedBufferOnly() {
+        RelaySession session = open(OverflowPolicy.DROP_NEWEST);
+        NettyDataBuffer[] buffers = {buffer("m1"), buffer("m2"), buffer("m3")};
+
+        for (NettyDataBuffer buffer : buffers) {
+            session.relay("slow", buffer).subscribe();
+        }
+
+        assertThat(refCnt(buffers[0])).isEqualTo(1);
+        assertThat(refCnt(buffers[1])).isEqualTo(1);
+        assertThat(refCnt(buffers[2])).isZero();
+    }
+
+    @Test
+    void bufferForDisconnectedReceiverIsReleased() {
+        RelaySession session = open(OverflowPolicy.DROP_NEWEST);
+        NettyDataBuffer buffer = buffer("m1");
+
+        session.relay("gone", buffer).subscribe();
+
+        assertThat(refCnt(buffer)).isZero();
+        assertThat(session.size()).isZero();
+    }
+
+    /**
+     * Backs the offline store with a list, handed out and cleared by a replay.
+     */
+    private void storeInMemory() {
+        when(offlineStore.store(any())).thenAnswer(invocation -> stored.add(invocation.getArgument(0)));
+        when(offlineStore.holds("slow")).thenAnswer(invocation -> !stored.isEmpty());
+        when(offlineStore.replay("slow")).thenAnswer(invocation -> Flux.defer(() -> {
+            List<Message> replay = new ArrayList<>(stored);
+            stored.clear();
+            return Flux.fromIterable(replay);
+        }));
+    }
+
+    private ChannelRelay channelRelay(OverflowPolicy policy) {
+        return new ChannelRelay(registry, offlineStore, null, new RelayMetrics(new SimpleMeterRegistry()),
+                schedulers, 2, policy, 64, Duration.ofMinutes(10), new int[]{8, 4, 1}, false, 64, Duration.ofMillis(2));
+    }
+
+    private RelaySession open(OverflowPolicy policy) {
+        return channelRelay(policy).openSession("personal.call", 2);
+    }
+
+    private static void relay(RelaySession session, String... contents) {
+        for (String content : contents) {
+            session.relay("slow", message(content)).subscribe();
+        }
+    }
+
+    private static NettyDataBuffer buffer(String content) {
+        return new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT)
+            .wrap(Unpooled.copiedBuffer(content, StandardCharsets.UTF_8));
+    }
+
+    private static int refCnt(NettyDataBuffer buffer) {
+        return buffer.getNativeBuffer().refCnt();
+    }
+
+    private static Message message(String content) {
+        return new Message("sender", "slow", content);
+    }
+
+    /**
+     * Takes what reached the receiver so far. The first call subscribes, like a
+     * receiver that only starts reading once its queue is full.
+     */
+    private List<String> drain() {
+        if (receiver == null) {
+            receiver = new BaseSubscriber<Object>() {
+                @Override
+                protected void hookOnNext(Object value) {
+                    received.add(((Message) value).getContent());
+                }
+            };
+            outbound.getValue().subscribe(receiver);
+        }
+        List<String> drained = new ArrayList<>(received);
+        received.clear();
+        return drained;
+    }
+}
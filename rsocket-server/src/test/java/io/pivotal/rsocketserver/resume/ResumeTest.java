@@ -0,0 +1,174 @@
+package io.pivotal.rsocketserver.resume;
+
+import io.pivotal.rsocketserver.RsocketServerApplication;
+import io.pivotal.rsocketserver.TestClient;
+import io.pivotal.rsocketserver.data.Message;
+import io.rsocket.core.Resume;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A resumable client whose connection is cut while it has more unacknowledged
+ * replies than the session keeps on the heap.
+ */
+public class ResumeTest {
+
+    private ConfigurableApplicationContext server;
+    private Proxy proxy;
+    private TestClient alice;
+    private TestClient bob;
+
+    @BeforeEach
+    void start(@TempDir Path directory) throws IOException {
+        int port = freePort();
+        server = new SpringApplicationBuilder(RsocketServerApplication.class)
+                .profiles("resumption")
+                .run("--spring.rsocket.server.port=" + port,
+                        "--server.port=0",
+                        "--rsocket.tcp.enabled=false",
+                        "--rsocket.resumption.directory=" + directory.resolve("resume"),
+                        "--rsocket.resumption.memory-size-per-session=512B",
+                        "--rsocket.resumption.max-size-per-session=1MB",
+                        "--rsocket.offline.directory=" + directory.resolve("offline"));
+        proxy = new Proxy(port);
+        RSocketRequester.Builder builder = server.getBean(RSocketRequester.Builder.class);
+        RSocketStrategies strategies = server.getBean(RSocketStrategies.class);
+        bob = new TestClient("bob").connect(builder, strategies, port);
+        alice = new TestClient("alice").connect(builder, strategies, proxy.port(), connector ->
+                connector.resume(new Resume().retry(Retry.fixedDelay(100, Duration.ofMillis(100)))));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        alice.dispose();
+        bob.dispose();
+        proxy.close();
+        server.close();
+    }
+
+    @Test
+    void repliesArriveAfterTheTransportIsCut() throws IOException {
+        ResumptionStore store = server.getBean(ResumptionStore.class);
+        Sinks.Many<Message> messages = Sinks.many().unicast().onBackpressureBuffer();
+        List<Message> replies = new CopyOnWriteArrayList<>();
+        alice.requester()
+                .route("personal.call")
+                .data(messages.asFlux())
+                .retrieveFlux(Message.class)
+                .subscribe(replies::add);
+
+        send(messages, 0, 30);
+        TestClient.await(() -> replies.size() == 30);
+        proxy.drop();
+        send(messages, 30, 60);
+
+        TestClient.await(() -> replies.size() == 60);
+        assertThat(replies).allMatch(reply -> reply.equals(new Message("bob", "alice", "Hello from bob")));
+        assertThat(bob.received()).extracting(Message::getContent).containsExactly(contents(60));
+        assertThat(store.getResumed()).isPositive();
+        assertThat(store.getSpilled()).isPositive();
+    }
+
+    private static void send(Sinks.Many<Message> messages, int from, int to) {
+        for (int index = from; index < to; index++) {
+            messages.tryEmitNext(new Message("alice", "bob", "message " + index));
+        }
+    }
+
+    private static String[] contents(int count) {
+        String[] contents = new String[count];
+        for (int index = 0; index < count; index++) {
+            contents[index] = "message " + index;
+        }
+        return contents;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Passes bytes between the client and the server, and cuts every
+     * connection it carries on {@link #drop()}.
+     */
+    private static class Proxy {
+
+        private final ServerSocket socket = new ServerSocket(0);
+        private final List<Socket> connections = new CopyOnWriteArrayList<>();
+
+        Proxy(int target) throws IOException {
+            start("proxy-accept", () -> {
+                while (!socket.isClosed()) {
+                    Socket client = socket.accept();
+                    Socket server = new Socket();
+                    server.connect(new InetSocketAddress("localhost", target));
+                    connections.add(client);
+                    connections.add(server);
+                    start("proxy-in", () -> pump(client.getInputStream(), server.getOutputStream()));
+                    start("proxy-out", () -> pump(server.getInputStream(), client.getOutputStream()));
+                }
+            });
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        void drop() throws IOException {
+            for (Socket connection : connections) {
+                connection.close();
+            }
+            connections.clear();
+        }
+
+        void close() throws IOException {
+            socket.close();
+            drop();
+        }
+
+        private static void pump(InputStream in, OutputStream out) throws IOException {
+            try (in; out) {
+                in.transferTo(out);
+            }
+        }
+
+        private static void start(String name, IoTask task) {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    // the connection was dropped
+                }
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+}
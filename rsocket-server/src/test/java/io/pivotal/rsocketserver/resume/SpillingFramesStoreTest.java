@@ -0,0 +1,96 @@
+package io.pivotal.rsocketserver.resume;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.pivotal.rsocketserver.metrics.RelayMetrics;
+import io.rsocket.resume.ResumableFramesStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillingFramesStoreTest {
+
+    // stream id + index + padding
+    private static final int FRAME_SIZE = 20;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void spilledFramesAreResentInOrder() throws Exception {
+        ResumptionStore owner = owner(64, 256);
+        ResumableFramesStore store = owner.create(token());
+        store.saveFrames(frames(10)).subscribe();
+
+        assertThat(owner.getSpilled()).isEqualTo(7);
+        assertThat(registry.get("rsocket.resumption.spilled").gauge().value()).isEqualTo(7);
+        assertThat(indexes(store, 10)).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+        store.releaseFrames(5 * FRAME_SIZE);
+
+        assertThat(store.framePosition()).isEqualTo(5 * FRAME_SIZE);
+        assertThat(indexes(store, 5)).containsExactly(5, 6, 7, 8, 9);
+        assertThat(owner.getResumed()).isEqualTo(1);
+        assertThat(registry.get("rsocket.resumption.resumed").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void oldestFramesAreEvictedOverTheSessionLimit() throws Exception {
+        ResumptionStore owner = owner(64, 256);
+        ResumableFramesStore store = owner.create(token());
+        store.saveFrames(frames(20)).subscribe();
+
+        // 3 frames on the heap, 8 records of 24 bytes in the 192 byte spill file.
+        assertThat(owner.getEvicted()).isEqualTo(9);
+        assertThat(store.framePosition()).isEqualTo(9 * FRAME_SIZE);
+        assertThat(indexes(store, 11)).startsWith(9).endsWith(19);
+
+        store.dispose();
+
+        assertThat(owner.getLost()).isEqualTo(1);
+    }
+
+    private ResumptionStore owner(int memory, int max) throws Exception {
+        ResumptionStore owner = new ResumptionStore(directory.toString(), DataSize.ofBytes(memory), DataSize.ofBytes(max),
+                new RelayMetrics(registry));
+        owner.start();
+        return owner;
+    }
+
+    private static ByteBuf token() {
+        return Unpooled.copiedBuffer("session", StandardCharsets.UTF_8);
+    }
+
+    // the connection's frame source stays open for as long as the session.
+    private static Flux<ByteBuf> frames(int count) {
+        return Flux.range(0, count)
+                .map(index -> Unpooled.buffer(FRAME_SIZE)
+                        .writeInt(1)
+                        .writeInt(index)
+                        .writeZero(FRAME_SIZE - 8))
+                .concatWith(Flux.never());
+    }
+
+    private static List<Integer> indexes(ResumableFramesStore store, int count) {
+        List<Integer> indexes = new ArrayList<>();
+        store.resumeStream()
+                .take(count)
+                .doOnNext(frame -> {
+                    indexes.add(frame.getInt(frame.readerIndex() + 4));
+                    frame.release();
+                })
+                .blockLast();
+        return indexes;
+    }
+}
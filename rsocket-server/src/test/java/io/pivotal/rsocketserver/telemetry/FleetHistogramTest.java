@@ -0,0 +1,33 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FleetHistogramTest {
+
+    @Test
+    void rttQuantileReturnsUpperBoundOfBucket() {
+        FleetHistogram histogram = new FleetHistogram();
+        TelemetrySample sample = new TelemetrySample(0, 50, 100, (short) 250, 3, 0);
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(sample, 1000);
+        }
+        histogram.record(sample, 100_000);
+        histogram.record(sample, 100_000);
+
+        assertThat(histogram.rttQuantile(0.5)).isEqualTo(1024);
+        assertThat(histogram.rttQuantile(0.99)).isEqualTo(131072);
+    }
+
+    @Test
+    void samplesWithoutRttAreNotCounted() {
+        FleetHistogram histogram = new FleetHistogram();
+
+        histogram.record(new TelemetrySample(0, 50, 100, (short) -1, 0, 0), -1);
+
+        assertThat(histogram.rttQuantile(0.5)).isEqualTo(-1);
+        assertThat(histogram.describe()).contains("heap%=[0,0,0,0,0,1]").contains("cpu%=[0]");
+    }
+}
@@ -0,0 +1,52 @@
+package io.pivotal.rsocketserver.telemetry;
+
+import io.pivotal.rsocketserver.TestClient;
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TelemetryServiceTest {
+
+    @Test
+    void roundTripTimeLeavesOutTheDelay() {
+        TelemetryService telemetry = new TelemetryService(Duration.ofSeconds(5), Duration.ofSeconds(30), 1000, 8,
+                new ServerSchedulers(1, 1, 16, false));
+
+        telemetry.attach("alice", echoingClient(), Duration.ofMillis(500));
+
+        TestClient.await(() -> telemetry.getSamples() == 1);
+        assertThat(telemetry.getFleet().rttQuantile(0.5)).isBetween(0L, 131_072L);
+    }
+
+    // answers every command with a sample that echoes its probe
+    @SuppressWarnings("unchecked")
+    private static RSocketRequester echoingClient() {
+        RSocketRequester requester = mock(RSocketRequester.class);
+        RSocketRequester.RequestSpec spec = mock(RSocketRequester.RequestSpec.class);
+        AtomicReference<Publisher<ByteBuffer>> commands = new AtomicReference<>();
+        when(requester.route("client-telemetry")).thenReturn(spec);
+        when(spec.data(any())).thenAnswer(invocation -> {
+            commands.set(invocation.getArgument(0));
+            return spec;
+        });
+        when(spec.retrieveFlux(ByteBuffer.class)).thenReturn(Flux.defer(() -> Flux.from(commands.get())
+                .map(command -> {
+                    ByteBuffer sample = ByteBuffer.allocate(TelemetrySample.SIZE);
+                    sample.putLong(0).putLong(50).putLong(100).putShort((short) 250).putInt(0)
+                            .putLong(command.getLong(Integer.BYTES));
+                    return sample.flip();
+                })));
+        return requester;
+    }
+}
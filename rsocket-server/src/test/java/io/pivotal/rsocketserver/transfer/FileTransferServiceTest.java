@@ -0,0 +1,97 @@
+package io.pivotal.rsocketserver.transfer;
+
+import io.pivotal.rsocketserver.scheduling.ServerSchedulers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileTransferServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private FileTransferService transfer;
+    private byte[] content;
+
+    @BeforeEach
+    void writeFile() throws Exception {
+        content = new byte[300_000];
+        new Random(7).nextBytes(content);
+        Files.write(directory.resolve("video.bin"), content);
+        transfer = new FileTransferService(directory.toString(), DataSize.ofKilobytes(64), DataSize.ofKilobytes(100),
+                new ServerSchedulers(1, 1, 16, false));
+    }
+
+    @Test
+    void sendsWholeFileInChecksummedChunks() {
+        List<DataBuffer> chunks = transfer.stream("video.bin", 0).collectList().block();
+
+        assertThat(chunks).hasSize(5);
+        assertThat(reassemble(chunks, 0)).isEqualTo(content);
+        assertThat(transfer.getBytes()).isEqualTo(content.length);
+    }
+
+    @Test
+    void resumesFromOffset() {
+        List<DataBuffer> chunks = transfer.stream("video.bin", 200_000).collectList().block();
+
+        assertThat(reassemble(chunks, 200_000)).isEqualTo(Arrays.copyOfRange(content, 200_000, content.length));
+    }
+
+    @Test
+    void readsOnlyWhatIsRequested() {
+        StepVerifier.create(transfer.stream("video.bin", 0), 1)
+                .consumeNextWith(DataBufferUtils::release)
+                .thenCancel()
+                .verify();
+
+        assertThat(transfer.getChunks()).isEqualTo(1);
+    }
+
+    @Test
+    void refusesFilesOutsideTheDirectory() throws Exception {
+        Files.write(directory.getParent().resolve("secret.txt"), new byte[]{1});
+
+        StepVerifier.create(transfer.stream("../secret.txt", 0))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+        StepVerifier.create(transfer.stream("video.bin", content.length + 1))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+    }
+
+    private byte[] reassemble(List<DataBuffer> chunks, long offset) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long expected = offset;
+        for (DataBuffer chunk : chunks) {
+            ByteBuffer buffer = chunk.asByteBuffer();
+            assertThat(buffer.getLong()).isEqualTo(expected);
+            assertThat(buffer.getLong()).isEqualTo(content.length);
+            int crc = buffer.getInt();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            CRC32C check = new CRC32C();
+            check.update(bytes);
+            assertThat((int) check.getValue()).isEqualTo(crc);
+            out.write(bytes, 0, bytes.length);
+            expected += bytes.length;
+            DataBufferUtils.release(chunk);
+        }
+        return out.toByteArray();
+    }
+}